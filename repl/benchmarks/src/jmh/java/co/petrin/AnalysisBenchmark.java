@@ -0,0 +1,48 @@
+package co.petrin;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of completions and javadoc lookups, with a shell that is kept between requests (as for a
+ * session) and with a fresh shell for every request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AnalysisBenchmark {
+
+    private static final String SCRIPT = "import java.util.*;\nvar ctx = org.jooq.impl.DSL.using(org.jooq.SQLDialect.H2);\nctx.sel";
+    private static final EvaluationRequest SUGGEST_REQUEST = new EvaluationRequest(SCRIPT, SCRIPT.length());
+    private static final EvaluationRequest JAVADOC_REQUEST = new EvaluationRequest(SCRIPT + "ectOne(", SCRIPT.length() + 7);
+
+    @Param({"local", "spawn"})
+    public String mode;
+
+    @Param({"true", "false"})
+    public boolean keepShell;
+
+    private Evaluator evaluator;
+
+    @Setup
+    public void setUp() {
+        evaluator = "local".equals(mode) ? Evaluator.local() : Evaluator.spawn(null, false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        evaluator.close();
+    }
+
+    @Benchmark
+    public SuggestionResponse suggest() {
+        return evaluator.suggest(null, SUGGEST_REQUEST, List.of(), keepShell);
+    }
+
+    @Benchmark
+    public List<DocumentationResponse> javadoc() {
+        return evaluator.javadoc(null, JAVADOC_REQUEST, List.of(), keepShell);
+    }
+}
@@ -0,0 +1,57 @@
+package co.petrin;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures evaluating a simple script end to end, in a local and in a spawned evaluator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EvaluationBenchmark {
+
+    private static final EvaluationRequest REQUEST = new EvaluationRequest("var numbers = java.util.stream.IntStream.range(0, 100).sum();");
+
+    @Param({"local", "spawn"})
+    public String mode;
+
+    private Evaluator warmEvaluator;
+
+    @Setup
+    public void setUp() {
+        warmEvaluator = createEvaluator();
+        warmEvaluator.prepare(null, List.of());
+    }
+
+    @TearDown
+    public void tearDown() {
+        warmEvaluator.close();
+    }
+
+    /** A script run by an evaluator that has already been started, as when taken from the pool */
+    @Benchmark
+    public EvaluationResponse warmEvaluate() {
+        return warmEvaluator.evaluate(null, REQUEST, List.of());
+    }
+
+    /** A script run by a brand new evaluator, including starting its shell and closing it afterwards */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 10)
+    public EvaluationResponse coldEvaluate() {
+        var evaluator = createEvaluator();
+        try {
+            return evaluator.evaluate(null, REQUEST, List.of());
+        } finally {
+            evaluator.close();
+        }
+    }
+
+    private Evaluator createEvaluator() {
+        return "local".equals(mode) ? Evaluator.local() : Evaluator.spawn(null, false);
+    }
+}
@@ -0,0 +1,77 @@
+package co.petrin;
+
+import co.petrin.augmentation.GridPage;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.JSONFormat;
+import org.jooq.Record2;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures turning synthetic jOOQ results into grid output: formatting the chunks the way the grid snippet does,
+ * and streaming the whole grid from a local evaluator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JooqGridBenchmark {
+
+    private static final String RESULT_SCRIPT =
+        "var ctx = org.jooq.impl.DSL.using(org.jooq.SQLDialect.DEFAULT);\n" +
+        "var id = org.jooq.impl.DSL.field(org.jooq.impl.DSL.name(\"id\"), Integer.class);\n" +
+        "var title = org.jooq.impl.DSL.field(org.jooq.impl.DSL.name(\"title\"), String.class);\n" +
+        "var rows = ctx.newResult(id, title);\n" +
+        "for (int i = 0; i < %d; i++) { rows.add(ctx.newRecord(id, title).values(i, \"Title \" + i)); }";
+
+    @Param({"1000", "100000"})
+    public int rows;
+
+    private Result<Record2<Integer, String>> result;
+    private Evaluator evaluator;
+    private Database unlimited;
+
+    @Setup
+    public void setUp() {
+        DSLContext ctx = DSL.using(SQLDialect.DEFAULT);
+        Field<Integer> id = DSL.field(DSL.name("id"), Integer.class);
+        Field<String> title = DSL.field(DSL.name("title"), String.class);
+        result = ctx.newResult(id, title);
+        for (int i = 0; i < rows; i++) {
+            result.add(ctx.newRecord(id, title).values(i, "Title " + i));
+        }
+
+        evaluator = Evaluator.local();
+        evaluator.evaluate(null, new EvaluationRequest(String.format(RESULT_SCRIPT, rows)), List.of());
+        unlimited = new Database("jdbc:none", "unlimited", null, null, null, null, 0, 0, null, 0, 0, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        evaluator.close();
+    }
+
+    /** What the grid snippet does inside the evaluation engine */
+    @Benchmark
+    public void formatChunks(Blackhole blackhole) {
+        var ctx = DSL.using(SQLDialect.DEFAULT);
+        var format = new JSONFormat().header(false);
+        for (int from = 0; from < result.size(); from += 500) {
+            var chunk = ctx.newResult(result.fields());
+            chunk.addAll(result.subList(from, Math.min(result.size(), from + 500)));
+            blackhole.consume(chunk.formatJSON(format));
+        }
+    }
+
+    /** The whole grid, from running the grid snippet in the shell to the lines arriving in the sink */
+    @Benchmark
+    public void streamGrid(Blackhole blackhole) {
+        evaluator.page(new GridPage("rows", false, 0), unlimited, blackhole::consume);
+    }
+}
@@ -0,0 +1,61 @@
+package co.petrin;
+
+import jdk.jshell.JShell;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the helpers that look at the text of a script before it is analysed or evaluated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScriptAnalysisBenchmark {
+
+    /** The number of statements in the script */
+    @Param({"100", "1000"})
+    public int statements;
+
+    private JShell shell;
+    private EvaluationRequest request;
+    private List<String> allowedHosts;
+
+    @Setup
+    public void setUp() {
+        shell = JShell.builder().executionEngine("local").build();
+        // imports scattered all over the script, as trimEvaluationRequest has to find them
+        var script = IntStream.range(0, statements)
+            .mapToObj(i -> i % 10 == 0 ? "import java.util.List;\r\n" : "var value" + i + " = \"" + i + "\\n\" + " + i + ";\n")
+            .collect(Collectors.joining()) + "value1.su";
+        request = new EvaluationRequest(script, script.length());
+        allowedHosts = IntStream.range(0, 10).mapToObj(i -> "10.0.0." + i + ":5432").collect(Collectors.toList());
+    }
+
+    @TearDown
+    public void tearDown() {
+        shell.close();
+    }
+
+    @Benchmark
+    public EvaluationRequest trimEvaluationRequest() {
+        return Evaluator.trimEvaluationRequest(shell, request, new ArrayList<>());
+    }
+
+    @Benchmark
+    public int newlinesInString() {
+        return Evaluator.newlinesInString(request.getScript());
+    }
+
+    /** Looking up the (cached) security policy file a sandboxed evaluator is started with */
+    @Benchmark
+    public Path securityPropertiesPath() throws IOException {
+        return SecurityProperties.getPath(allowedHosts);
+    }
+}
@@ -0,0 +1,268 @@
+package co.petrin;
+
+import org.h2.tools.Server;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Boots the web interface against an H2 stand-in for a real database and drives a mix of evaluation, completion and
+ * javadoc requests at it, then reports the throughput and latencies of each kind of request.
+ *
+ * The web interface runs in its own process, configured through environment variables just like in production. The
+ * H2 database runs as a TCP server inside this process so the spawned evaluators can reach it; it contains a
+ * {@code FILM} table in the spirit of the Sakila sample database.
+ *
+ * Usage: {@code LoadTest [--concurrency 8] [--duration 60] [--warmup 15] [--mix eval=6,suggest=3,javadoc=1]
+ * [--port 18080] [--report report.json]}, any further environment variables (e.g. {@code REPL_EVALUATOR_REUSE}) are
+ * passed on to the web interface.
+ */
+public class LoadTest {
+
+    /** The requests that are sent, by kind */
+    private static final Map<String, Request> REQUESTS = Map.of(
+        "eval", new Request("/eval", "jooq.selectFrom(DSL.table(\"FILM\")).where(DSL.field(\"FILM_ID\").lt(20)).fetch()"),
+        "suggest", new Request("/suggest", "jooq.selectFrom(DSL.table(\"FILM\")).whe"),
+        "javadoc", new Request("/javadoc", "jooq.selectFrom(")
+    );
+
+    private static class Request {
+        final String path;
+        final String body;
+
+        Request(String path, String script) {
+            this.path = path;
+            this.body = "{\"script\":\"" + script.replace("\"", "\\\"") + "\",\"cursorPosition\":" + script.length() + "}";
+        }
+    }
+
+    /** The latencies and outcomes of one kind of request */
+    private static class Stats {
+        final List<Long> latenciesNanos = new ArrayList<>();
+        final Map<Integer, Integer> statusCounts = new HashMap<>();
+        int failures;
+
+        synchronized void record(long nanos, int status) {
+            latenciesNanos.add(nanos);
+            statusCounts.merge(status, 1, Integer::sum);
+        }
+
+        synchronized void failed() {
+            failures++;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        var options = parseOptions(args);
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "8"));
+        int durationSeconds = Integer.parseInt(options.getOrDefault("duration", "60"));
+        int warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "15"));
+        int port = Integer.parseInt(options.getOrDefault("port", "18080"));
+        var mix = parseMix(options.getOrDefault("mix", "eval=6,suggest=3,javadoc=1"));
+
+        // the database is created in this process, the evaluators reach it through the TCP server
+        createSchema("jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1");
+        var h2 = Server.createTcpServer("-tcpPort", "0").start();
+        var databaseUrl = "jdbc:h2:tcp://localhost:" + h2.getPort() + "/mem:loadtest";
+
+        Process server = null;
+        try {
+            server = startWebInterface(port, databaseUrl);
+            var baseUri = "http://localhost:" + port + "/databases/0";
+            // the web interface does not cope with upgrade requests to cleartext HTTP/2
+            var client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+            awaitStartup(client, "http://localhost:" + port + "/databases/");
+
+            System.out.println("Warming up for " + warmupSeconds + " seconds...");
+            run(client, baseUri, mix, concurrency, warmupSeconds);
+            System.out.println("Measuring " + concurrency + " concurrent clients for " + durationSeconds + " seconds...");
+            var stats = run(client, baseUri, mix, concurrency, durationSeconds);
+
+            var report = report(stats, durationSeconds);
+            System.out.println(report.text);
+            if (options.containsKey("report")) {
+                Files.writeString(Path.of(options.get("report")), report.json);
+            }
+        } finally {
+            if (server != null) {
+                server.destroy();
+                server.waitFor(10, TimeUnit.SECONDS);
+            }
+            h2.stop();
+        }
+    }
+
+    /** Sends requests from the given number of clients until the time is up */
+    private static Map<String, Stats> run(HttpClient client, String baseUri, List<String> mix, int concurrency, int seconds)
+        throws InterruptedException {
+        var stats = new LinkedHashMap<String, Stats>();
+        mix.stream().distinct().forEach(kind -> stats.put(kind, new Stats()));
+        long endAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            clients.execute(() -> {
+                while (System.nanoTime() < endAt) {
+                    var kind = mix.get(ThreadLocalRandom.current().nextInt(mix.size()));
+                    var request = REQUESTS.get(kind);
+                    var httpRequest = HttpRequest.newBuilder(URI.create(baseUri + request.path))
+                        .timeout(Duration.ofMinutes(2))
+                        .POST(HttpRequest.BodyPublishers.ofString(request.body))
+                        .build();
+                    long startedAt = System.nanoTime();
+                    try {
+                        var response = client.send(httpRequest, HttpResponse.BodyHandlers.discarding());
+                        stats.get(kind).record(System.nanoTime() - startedAt, response.statusCode());
+                    } catch (IOException ex) {
+                        stats.get(kind).failed();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            });
+        }
+        clients.shutdown();
+        clients.awaitTermination(seconds + 180, TimeUnit.SECONDS);
+        return stats;
+    }
+
+    private static class Report {
+        final String text;
+        final String json;
+
+        Report(String text, String json) {
+            this.text = text;
+            this.json = json;
+        }
+    }
+
+    private static Report report(Map<String, Stats> stats, int seconds) {
+        var text = new StringBuilder(String.format(Locale.ROOT, "%-8s %8s %8s %9s %9s %9s %9s  %s%n",
+            "request", "count", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "statuses"));
+        var json = new ArrayList<String>();
+        int total = 0;
+        for (var entry : stats.entrySet()) {
+            var s = entry.getValue();
+            var sorted = s.latenciesNanos.stream().sorted().collect(Collectors.toList());
+            total += sorted.size();
+            double rps = sorted.size() / (double) seconds;
+            var statuses = new LinkedHashMap<String, Integer>();
+            s.statusCounts.forEach((status, count) -> statuses.put(Integer.toString(status), count));
+            if (s.failures > 0) {
+                statuses.put("failed", s.failures);
+            }
+            text.append(String.format(Locale.ROOT, "%-8s %8d %8.1f %9.1f %9.1f %9.1f %9.1f  %s%n",
+                entry.getKey(), sorted.size(), rps,
+                percentileMs(sorted, 50), percentileMs(sorted, 90), percentileMs(sorted, 99), percentileMs(sorted, 100),
+                statuses));
+            json.add(String.format(Locale.ROOT,
+                "\"%s\":{\"count\":%d,\"rps\":%.2f,\"p50Ms\":%.2f,\"p90Ms\":%.2f,\"p99Ms\":%.2f,\"maxMs\":%.2f,\"statuses\":{%s}}",
+                entry.getKey(), sorted.size(), rps,
+                percentileMs(sorted, 50), percentileMs(sorted, 90), percentileMs(sorted, 99), percentileMs(sorted, 100),
+                statuses.entrySet().stream().map(e -> "\"" + e.getKey() + "\":" + e.getValue()).collect(Collectors.joining(","))));
+        }
+        text.append(String.format(Locale.ROOT, "total    %8d %8.1f%n", total, total / (double) seconds));
+        return new Report(text.toString(), "{" + String.join(",", json) + "}\n");
+    }
+
+    /** The latency below which the given percentage of the requests completed */
+    private static double percentileMs(List<Long> sortedNanos, int percentile) {
+        if (sortedNanos.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sortedNanos.size()) - 1;
+        return sortedNanos.get(Math.max(0, index)) / 1_000_000.0;
+    }
+
+    private static void createSchema(String databaseUrl) throws SQLException {
+        try (var connection = DriverManager.getConnection(databaseUrl, "sa", "");
+             var statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE FILM (FILM_ID INT PRIMARY KEY, TITLE VARCHAR(255), DESCRIPTION VARCHAR(1000), " +
+                "RELEASE_YEAR INT, LENGTH INT, RATING VARCHAR(10))");
+            statement.execute("INSERT INTO FILM SELECT X, 'FILM ' || X, 'A film about the number ' || X, " +
+                "2000 + MOD(X, 20), 60 + MOD(X, 120), CASEWHEN(MOD(X, 2) = 0, 'PG', 'R') FROM SYSTEM_RANGE(1, 1000)");
+        }
+    }
+
+    /** Starts the web interface in its own process, with the H2 database as its only database */
+    private static Process startWebInterface(int port, String databaseUrl) throws IOException {
+        var classpath = System.getProperty("java.class.path");
+        var java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        var builder = new ProcessBuilder(java, "-cp", classpath, WebInterface.class.getName())
+            .inheritIO();
+        var environment = builder.environment();
+        environment.put("REPL_PORT", Integer.toString(port));
+        environment.put("EVALUATOR_CLASSPATH", String.join(" ", classpath.split(File.pathSeparator)));
+        environment.put("DATABASE_H2_URL", databaseUrl);
+        environment.put("DATABASE_H2_USER", "sa");
+        environment.put("DATABASE_H2_PASSWORD", "");
+        environment.put("DATABASE_H2_DESCRIPTION", "H2 load test database");
+        return builder.start();
+    }
+
+    private static void awaitStartup(HttpClient client, String uri) throws InterruptedException {
+        for (int attempt = 0; attempt < 120; attempt++) {
+            try {
+                var response = client.send(HttpRequest.newBuilder(URI.create(uri)).build(), HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException ex) {
+                // not listening yet
+            }
+            Thread.sleep(500);
+        }
+        throw new IllegalStateException("The web interface did not start in time");
+    }
+
+    /** Turns e.g. eval=6,suggest=3 into a list to pick requests from at random, containing each kind as often as its weight */
+    private static List<String> parseMix(String mix) {
+        var kinds = new ArrayList<String>();
+        for (var part : mix.split(",")) {
+            var kindAndWeight = part.split("=");
+            if (!REQUESTS.containsKey(kindAndWeight[0])) {
+                throw new IllegalArgumentException("Unknown request kind " + kindAndWeight[0] + ", use one of " + REQUESTS.keySet());
+            }
+            int weight = kindAndWeight.length > 1 ? Integer.parseInt(kindAndWeight[1]) : 1;
+            for (int i = 0; i < weight; i++) {
+                kinds.add(kindAndWeight[0]);
+            }
+        }
+        return kinds;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        var options = new HashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i] + " in " + Arrays.toString(args));
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+}
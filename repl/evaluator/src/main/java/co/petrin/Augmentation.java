@@ -0,0 +1,12 @@
+package co.petrin;
+
+/** Augmented output of an evaluation that is produced on demand, straight into a sink */
+@FunctionalInterface
+public interface Augmentation {
+
+    /** An augmentation that does not produce any output */
+    Augmentation NONE = sink -> { };
+
+    /** Produces the augmented output, writing it into the sink as it goes */
+    void writeTo(AugmentationSink sink);
+}
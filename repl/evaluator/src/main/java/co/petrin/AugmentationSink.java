@@ -0,0 +1,55 @@
+package co.petrin;
+
+import co.petrin.augmentation.GridFormat;
+import co.petrin.augmentation.GridPage;
+
+/** Receives augmented output while it is being produced, one line of JSON at a time */
+public interface AugmentationSink {
+
+    /**
+     * Writes a single line of JSON. May block until the receiver has caught up, so that large outputs never have to
+     * be held in memory in their entirety.
+     * @param json A complete JSON value without any line breaks.
+     */
+    void writeLine(String json);
+
+    /**
+     * Writes a single line of JSON if that can be done without waiting for the receiver, e.g. for output that may as
+     * well be skipped.
+     * @param json A complete JSON value without any line breaks.
+     * @return False if the line has been dropped
+     */
+    default boolean offerLine(String json) {
+        writeLine(json);
+        return true;
+    }
+
+    /**
+     * Called instead of writing anything when a grid has more rows than may be sent at once. The rows stay in the
+     * evaluator, and the caller may fetch them later using {@link Evaluator#page}.
+     * @param page Where the next page of the grid starts.
+     */
+    default void morePages(GridPage page) {
+    }
+
+    /** How the receiver wants grids to be written, by default as a header followed by chunks of JSON records */
+    default GridFormat gridFormat() {
+        return GridFormat.RECORDS;
+    }
+
+    /**
+     * Does the receiver follow the progress of scripts made of several snippets? If so, every snippet is written as
+     * a line of type {@link co.petrin.augmentation.ScriptStep#TYPE} as soon as it has run.
+     */
+    default boolean acceptsScriptSteps() {
+        return false;
+    }
+
+    /**
+     * Does the receiver follow the output of a script while it runs? If so, the output is written in chunks as lines
+     * of type {@link OutputForwarder#TYPE} in the meantime; the script's response still contains all of it.
+     */
+    default boolean acceptsOutputChunks() {
+        return false;
+    }
+}
@@ -0,0 +1,94 @@
+package co.petrin;
+
+import java.io.IOException;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Creates a class data sharing (AppCDS) archive for spawned evaluators, so they don't have to load and verify jOOQ,
+ * database drivers and jOOQ models from scratch every time they start.
+ *
+ * The archive is created in two steps: first a training script is run in a spawned evaluator that records which
+ * classes it loads, then a separate JVM dumps those classes into the archive. The archive is only valid for the
+ * exact classpath it was created with.
+ */
+public class ClassDataArchive {
+
+    /** A script exercising the parts of jOOQ and JDBC that practically every evaluation touches */
+    static final String TRAINING_SCRIPT = String.join("\n",
+        "var ctx = org.jooq.impl.DSL.using(org.jooq.SQLDialect.DEFAULT);",
+        "var id = org.jooq.impl.DSL.field(org.jooq.impl.DSL.name(\"id\"), Integer.class);",
+        "var name = org.jooq.impl.DSL.field(org.jooq.impl.DSL.name(\"name\"), String.class);",
+        "var result = ctx.newResult(id, name);",
+        "result.add(ctx.newRecord(id, name).values(1, \"one\"));",
+        "java.util.Collections.list(java.sql.DriverManager.getDrivers());",
+        "ctx.select(id, name).from(org.jooq.impl.DSL.table(\"t\")).where(id.eq(1)).orderBy(name).getSQL();",
+        "result.formatJSON();",
+        "result"
+    );
+
+    /**
+     * Creates the archive.
+     * Usage: ClassDataArchive &lt;archive file&gt; &lt;classpath entry&gt;...
+     * Classpath entries may also be given as a single whitespace-separated argument, like EVALUATOR_CLASSPATH.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: ClassDataArchive <archive file> <classpath entry>...");
+            System.exit(1);
+        }
+        var classpath = Arrays.stream(args)
+            .skip(1)
+            .flatMap(arg -> Arrays.stream(arg.split("\\s")))
+            .filter(arg -> !arg.isBlank())
+            .collect(toList());
+        create(Path.of(args[0]), classpath);
+    }
+
+    /**
+     * Creates a class data sharing archive for evaluators spawned with the given classpath.
+     * @param archive Where to write the archive to.
+     * @param classpath The extra classpath evaluators will be spawned with.
+     */
+    public static void create(Path archive, List<String> classpath) throws IOException, InterruptedException {
+        var classList = Files.createTempFile("co.petrin.ClassDataArchive-", ".classlist");
+        try {
+            // the archive must not exist yet or the training run would use (and be distorted by) it
+            Files.deleteIfExists(archive);
+
+            var trainer = Evaluator.spawn(classpath, false, archive);
+            trainer.remoteVMOptions.add("-XX:DumpLoadedClassList=" + classList.toAbsolutePath().toString());
+            try {
+                var response = trainer.evaluate(null, new EvaluationRequest(TRAINING_SCRIPT), null);
+                if (!response.getEvaluationStatus().success) {
+                    throw new IllegalStateException("The training script failed: " + response.getEvaluationStatus());
+                }
+            } finally {
+                trainer.close();
+            }
+
+            var jars = trainer.resolveClasspath().stream().filter(cp -> cp.endsWith(".jar")).collect(toList());
+            var command = new ArrayList<String>();
+            command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+            command.add("-Xshare:dump");
+            command.add("-XX:SharedClassListFile=" + classList.toAbsolutePath().toString());
+            command.add("-XX:SharedArchiveFile=" + archive.toAbsolutePath().toString());
+            if (!jars.isEmpty()) {
+                command.add("--class-path");
+                command.add(String.join(File.pathSeparator, jars));
+            }
+            var exitCode = new ProcessBuilder(command).inheritIO().start().waitFor();
+            if (exitCode != 0 || !Files.isRegularFile(archive)) {
+                throw new IllegalStateException("Dumping the class data sharing archive failed with exit code " + exitCode);
+            }
+        } finally {
+            Files.deleteIfExists(classList);
+        }
+    }
+}
@@ -35,10 +35,70 @@ public class Database {
      */
     public final String sandboxingHostAndPort;
 
+    /**
+     * The maximum number of pooled connections an evaluation engine keeps open to this database, 0 if evaluations
+     * should open their own connections instead
+     */
+    public final int poolSize;
+
+    /** How many seconds a pooled connection may be reused for before it is replaced, 0 for no limit */
+    public final int poolMaxLifetimeSeconds;
+
+    /** A query to check a pooled connection with before reusing it, or null to rely on the JDBC driver's check */
+    public final String poolValidationQuery;
+
+    /** The maximum number of rows sent to the client at once when displaying results as a grid, 0 for no limit */
+    public final int gridRowLimit;
+
+    /** How many seconds a script may run for before it is stopped, 0 for no limit */
+    public final int timeoutSeconds;
+
+    /** How many seconds of CPU time a script may use before it is stopped, 0 for no limit */
+    public final int cpuTimeoutSeconds;
+
+    /**
+     * How many seconds the responses of scripts that only ran selects against this database are reused for, 0 to
+     * always run scripts
+     */
+    public final int resultCacheSeconds;
+
+    /**
+     * Whether plans of selects are analyzed where the database can, running the select once more, e.g.
+     * <code>EXPLAIN ANALYZE</code> rather than <code>EXPLAIN</code>
+     */
+    public final boolean explainAnalyze;
+
+    /** The timeout used if none is configured, and for scripts that don't use a database */
+    public static final int DEFAULT_TIMEOUT_SECONDS = 120;
+
+    /** The grid row limit used if none is configured, and for scripts that don't use a database */
+    public static final int DEFAULT_GRID_ROW_LIMIT = 1000;
+
     private static final String CONFIGURATION_PREFIX = "DATABASE_";
+    private static final int DEFAULT_POOL_MAX_LIFETIME_SECONDS = 1800;
     private static final AtomicInteger idSequence = new AtomicInteger();
 
     public Database(String connectionString, String description, String user, String password, String scriptPrefix, String sandboxingHostAndPort) {
+        this(connectionString, description, user, password, scriptPrefix, sandboxingHostAndPort, 0, DEFAULT_POOL_MAX_LIFETIME_SECONDS, null, DEFAULT_GRID_ROW_LIMIT, DEFAULT_TIMEOUT_SECONDS, 0);
+    }
+
+    public Database(String connectionString, String description, String user, String password, String scriptPrefix, String sandboxingHostAndPort,
+                    int poolSize, int poolMaxLifetimeSeconds, String poolValidationQuery, int gridRowLimit,
+                    int timeoutSeconds, int cpuTimeoutSeconds) {
+        this(connectionString, description, user, password, scriptPrefix, sandboxingHostAndPort, poolSize, poolMaxLifetimeSeconds,
+            poolValidationQuery, gridRowLimit, timeoutSeconds, cpuTimeoutSeconds, 0);
+    }
+
+    public Database(String connectionString, String description, String user, String password, String scriptPrefix, String sandboxingHostAndPort,
+                    int poolSize, int poolMaxLifetimeSeconds, String poolValidationQuery, int gridRowLimit,
+                    int timeoutSeconds, int cpuTimeoutSeconds, int resultCacheSeconds) {
+        this(connectionString, description, user, password, scriptPrefix, sandboxingHostAndPort, poolSize, poolMaxLifetimeSeconds,
+            poolValidationQuery, gridRowLimit, timeoutSeconds, cpuTimeoutSeconds, resultCacheSeconds, false);
+    }
+
+    public Database(String connectionString, String description, String user, String password, String scriptPrefix, String sandboxingHostAndPort,
+                    int poolSize, int poolMaxLifetimeSeconds, String poolValidationQuery, int gridRowLimit,
+                    int timeoutSeconds, int cpuTimeoutSeconds, int resultCacheSeconds, boolean explainAnalyze) {
         this.id = idSequence.getAndIncrement();
         this.connectionString = connectionString;
         this.description = StringUtils.defaultIfNull(description, "");
@@ -46,6 +106,34 @@ public class Database {
         this.password = password;
         this.scriptPrefix = scriptPrefix;
         this.sandboxingHostAndPort = sandboxingHostAndPort;
+        this.poolSize = poolSize;
+        this.poolMaxLifetimeSeconds = poolMaxLifetimeSeconds;
+        this.poolValidationQuery = StringUtils.isBlank(poolValidationQuery) ? null : poolValidationQuery;
+        this.gridRowLimit = gridRowLimit;
+        this.timeoutSeconds = timeoutSeconds;
+        this.cpuTimeoutSeconds = cpuTimeoutSeconds;
+        this.resultCacheSeconds = resultCacheSeconds;
+        this.explainAnalyze = explainAnalyze;
+    }
+
+    /** The grid row limit to use for scripts run against the given database, which may be null */
+    public static int gridRowLimit(Database db) {
+        return db != null ? db.gridRowLimit : DEFAULT_GRID_ROW_LIMIT;
+    }
+
+    /** The timeout in seconds for scripts run against the given database, which may be null */
+    public static int timeoutSeconds(Database db) {
+        return db != null ? db.timeoutSeconds : DEFAULT_TIMEOUT_SECONDS;
+    }
+
+    /** The CPU timeout in seconds for scripts run against the given database, which may be null */
+    public static int cpuTimeoutSeconds(Database db) {
+        return db != null ? db.cpuTimeoutSeconds : 0;
+    }
+
+    /** Should evaluations borrow their connections from a pool? */
+    public boolean isPooled() {
+        return poolSize > 0;
     }
 
     /** Parse available databases from the environment settings */
@@ -62,11 +150,27 @@ public class Database {
                 System.getenv(CONFIGURATION_PREFIX + dbName + "_USER"),
                 System.getenv(CONFIGURATION_PREFIX + dbName + "_PASSWORD"),
                 System.getenv(CONFIGURATION_PREFIX + dbName + "_SCRIPT_PREFIX"),
-                System.getenv(CONFIGURATION_PREFIX + dbName + "_SANDBOXING_HOST_AND_PORT")
+                System.getenv(CONFIGURATION_PREFIX + dbName + "_SANDBOXING_HOST_AND_PORT"),
+                parseInt(System.getenv(CONFIGURATION_PREFIX + dbName + "_POOL_SIZE"), 0),
+                parseInt(System.getenv(CONFIGURATION_PREFIX + dbName + "_POOL_MAX_LIFETIME_SECONDS"), DEFAULT_POOL_MAX_LIFETIME_SECONDS),
+                System.getenv(CONFIGURATION_PREFIX + dbName + "_POOL_VALIDATION_QUERY"),
+                parseInt(System.getenv(CONFIGURATION_PREFIX + dbName + "_GRID_ROW_LIMIT"), DEFAULT_GRID_ROW_LIMIT),
+                parseInt(System.getenv(CONFIGURATION_PREFIX + dbName + "_TIMEOUT_SECONDS"), DEFAULT_TIMEOUT_SECONDS),
+                parseInt(System.getenv(CONFIGURATION_PREFIX + dbName + "_CPU_TIMEOUT_SECONDS"), 0),
+                parseInt(System.getenv(CONFIGURATION_PREFIX + dbName + "_RESULT_CACHE_SECONDS"), 0),
+                Boolean.parseBoolean(System.getenv(CONFIGURATION_PREFIX + dbName + "_EXPLAIN_ANALYZE"))
             ))
             .collect(Collectors.toList());
     }
 
+    private static int parseInt(String value, int defaultValue) {
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
     /** Expose the jOOQ version to the outside */
     public static String getJooqVersion() {
         return Constants.VERSION;
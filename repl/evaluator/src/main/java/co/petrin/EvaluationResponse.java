@@ -12,7 +12,8 @@ public interface EvaluationResponse {
         JSHELL_ERROR(false),
         PARSE_ERROR(false),
         SETUP_ERROR(false),
-        SUCCESS(true);
+        SUCCESS(true),
+        TIMEOUT(false);
 
         /** Does the response represent a successful state? */
         public final boolean success;
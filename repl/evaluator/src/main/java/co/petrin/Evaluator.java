@@ -1,19 +1,42 @@
 package co.petrin;
 
+import co.petrin.augmentation.Augmentor;
+import co.petrin.augmentation.Chart;
+import co.petrin.augmentation.Explain;
+import co.petrin.augmentation.GridPage;
 import co.petrin.augmentation.JooqGrid;
+import co.petrin.augmentation.LineOutputStream;
+import co.petrin.augmentation.QueryTimeline;
+import co.petrin.augmentation.RenderedSql;
+import co.petrin.augmentation.ScriptStep;
 import co.petrin.response.*;
+import co.petrin.worker.Worker;
+import co.petrin.worker.WorkerEndpoint;
+import co.petrin.worker.WorkerExecutionControl;
 import jdk.jshell.*;
+import jdk.jshell.spi.ExecutionControl;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import org.apache.commons.lang3.StringUtils;
@@ -43,30 +66,77 @@ public class Evaluator implements AutoCloseable {
      */
     private final List<String> extraClasspath;
 
+    /** The extra classpath with the JAR files in its directories, resolved when the first shell is created */
+    private List<String> resolvedClasspath;
+
     /**
-     * The augmentation classes that can provide more detailed output from the evaluation.
+     * The augmentors that can provide more detailed output from the evaluation, in addition to the grid.
      */
-    private final List<AugmentedOutput> augmentors = new ArrayList<>();
-
-    private final Supplier<AugmentedOutput> EMPTY_AUGMENTATION_SUPPPLIER = () -> { return null ;};
+    private List<Augmentor> augmentors = List.of(new RenderedSql(), new Chart(), new Explain(), new QueryTimeline());
 
     /** Try to sandbox a spawned process as much as possible? */
     private final boolean sandbox;
 
+    /**
+     * A class data sharing archive to start spawned processes with, or null. The archive does not need to exist; it
+     * is only used if it does.
+     */
+    private final Path classDataArchive;
+
+    /**
+     * Additional options to launch spawned processes with.
+     */
+    final List<String> remoteVMOptions = new ArrayList<>();
+
+    /**
+     * A system property definition that identifies this evaluator's spawned process among the processes we start.
+     */
+    private final String processMarker = "-Dco.petrin.evaluator=" + UUID.randomUUID();
+
+    /** Owns the pooled connection leases of this evaluator's evaluations, which may share a JVM with others */
+    private final String leaseOwner = UUID.randomUUID().toString();
+
+    /**
+     * The spawned process evaluating our scripts, once it has been looked up.
+     */
+    private volatile ProcessHandle engineProcess;
+
+    /**
+     * Picks the worker to launch the execution engine on, or null if the engine is launched by this process.
+     */
+    private final Supplier<WorkerEndpoint> workers;
+
+    /**
+     * The engine a worker is running for us, once it has been launched.
+     */
+    private volatile WorkerExecutionControl workerEngine;
+
+    /** The default maximum size of an evaluation's standard output, and of its standard error output */
+    public static final int DEFAULT_OUTPUT_LIMIT_BYTES = 1024 * 1024;
+
+    /** The maximum size of an evaluation's standard output, and of its standard error output, that is kept */
+    private int outputLimitBytes = DEFAULT_OUTPUT_LIMIT_BYTES;
+
     /**
      * A buffer that will contain the standard output of any evaluation.
      */
-    ByteArrayOutputStream outputStorage;
+    OutputBuffer outputStorage;
 
     /**
      * The print stream for JShell's standard output.
      */
     PrintStream outputPrintStream;
 
+    /**
+     * Where JShell's standard output currently goes: the output buffer, or a sink while augmented output is being
+     * streamed.
+     */
+    private volatile OutputStream outputTarget;
+
     /**
      * A buffer that will contain the standard error output of any evaluation.
      */
-    ByteArrayOutputStream errorStorage;
+    OutputBuffer errorStorage;
 
     /**
      * The print stream for JShell's standard error output.
@@ -78,6 +148,90 @@ public class Evaluator implements AutoCloseable {
      */
     JShell jShell;
 
+    /**
+     * The database whose script prefix has already been imported into the shell, if any.
+     */
+    private Database importedDatabase;
+
+    /**
+     * The number of scripts this evaluator has evaluated since its shell was created.
+     */
+    private int uses;
+
+    /**
+     * Releases the database connection of the last evaluation, if it has been kept open because the evaluation's
+     * result is a cursor whose rows are still being paged through.
+     */
+    private Runnable pendingConnectionRelease;
+
+    /** Is told how long the steps of each evaluation take */
+    private volatile PhaseListener phaseListener = PhaseListener.NONE;
+
+    /** Import snippets found in scripts sent for code analysis, keyed by their source, kept between requests */
+    private final Map<String, Snippet> analysisImports = new HashMap<>();
+
+    /** Has the jooq variable code analysis relies on been declared? */
+    private boolean analysisJooqDeclared;
+
+    /** The execution engine of the current shell, which records which snippets it runs and for how long */
+    private volatile RecordingExecutionControl execution;
+
+    /** The import snippets run for the imported database's script prefix */
+    private List<Snippet> databaseImports = List.of();
+
+    /** A snippet that has been compiled once and can be run again straight from its class, see {@link #runCompiled} */
+    private static class CompiledSnippet {
+        final SnippetEvent event;
+        final String className;
+
+        CompiledSnippet(SnippetEvent event, String className) {
+            this.event = event;
+            this.className = className;
+        }
+    }
+
+    /** The snippets run the same way on every request (e.g. the database connection), keyed by their source */
+    private final Map<String, CompiledSnippet> compiledSnippets = new HashMap<>();
+
+    /** The maximum number of script snippets kept with their classes */
+    private static final int CACHED_SNIPPETS_LIMIT = 256;
+
+    /**
+     * A statement of a script that has been compiled once, together with the classes it was compiled to, so that it
+     * can be run again without JShell, see {@link #runScriptSnippet}
+     */
+    private static class CachedSnippet {
+        final SnippetEvent event;
+        final ExecutionControl.ClassBytecodes[] classes;
+        final String className;
+
+        CachedSnippet(SnippetEvent event, List<ExecutionControl.ClassBytecodes> classes, String className) {
+            this.event = event;
+            this.classes = classes.toArray(new ExecutionControl.ClassBytecodes[0]);
+            this.className = className;
+        }
+    }
+
+    /**
+     * The statements of scripts run by this shell, keyed by their source and the declarations they could use, least
+     * recently used first.
+     */
+    private final Map<String, CachedSnippet> cachedSnippets = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedSnippet> eldest) {
+            return size() > CACHED_SNIPPETS_LIMIT;
+        }
+    };
+
+    /** Thrown when a statement run from its cached classes throws an exception */
+    private static class CachedSnippetException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        CachedSnippetException(ExecutionControl.UserException cause) {
+            super(cause.causeExceptionClass() + ": " + cause.getMessage(), cause);
+        }
+    }
+
     /**
      * Spawns an extra process to run the evaluation in, closing the process after evaluation finishes.
      *
@@ -91,10 +245,41 @@ public class Evaluator implements AutoCloseable {
      * @param sandbox If true, try to sandbox the spawned process' access to files, local machine and network via a security policy
      */
     public static Evaluator spawn(List<String> extraClasspath, boolean sandbox) {
+        return spawn(extraClasspath, sandbox, null);
+    }
+
+    /**
+     * Spawns an extra process to run the evaluation in, like {@link #spawn(List, boolean)}, starting it with a class
+     * data sharing archive if one exists at the given path. The archive contains pre-parsed classes, saving the new
+     * process from loading jOOQ, database drivers and models from scratch.
+     *
+     * JAR files from the extra classpath are put on the spawned process' launch classpath in this case, because
+     * classes loaded by JShell's own class loader cannot be archived.
+     *
+     * @param extraClasspath Directories containing classes and JAR files to add to the spawned process' classpath.
+     * @param sandbox If true, try to sandbox the spawned process' access to files, local machine and network via a security policy
+     * @param classDataArchive The class data sharing archive created by {@link ClassDataArchive}, may be null
+     */
+    public static Evaluator spawn(List<String> extraClasspath, boolean sandbox, Path classDataArchive) {
         // Copied from JShell class
         String spec = "jdi:launch(true)";
 
-        return new Evaluator(spec, extraClasspath, sandbox);
+        return new Evaluator(spec, extraClasspath, sandbox, classDataArchive, null);
+    }
+
+    /**
+     * Runs the evaluation in a process launched by a standalone {@link Worker}, typically on another machine, instead
+     * of spawning one. Whenever the evaluator's shell is created, the supplier picks the worker to launch it on.
+     *
+     * The extra classpath is added to the engine as paths on the worker's machine, so workers need the same models
+     * and drivers at the same paths.
+     *
+     * @param workers Picks the worker to launch the engine on.
+     * @param extraClasspath Directories containing classes and JAR files to add to the engine's classpath.
+     * @param sandbox If true, try to sandbox the engine's access to files, local machine and network via a security policy
+     */
+    public static Evaluator remote(Supplier<WorkerEndpoint> workers, List<String> extraClasspath, boolean sandbox) {
+        return new Evaluator("worker", extraClasspath, sandbox, null, workers);
     }
 
     /**
@@ -102,21 +287,84 @@ public class Evaluator implements AutoCloseable {
      * shared variables and share the same classpath.
      */
     public static Evaluator local() {
-        return new Evaluator("local", null, false);
+        return new Evaluator("local", null, false, null, null);
     }
 
-    private Evaluator(String mode, List<String> extraClasspath, boolean sandbox) {
+    private Evaluator(String mode, List<String> extraClasspath, boolean sandbox, Path classDataArchive,
+                      Supplier<WorkerEndpoint> workers) {
         this.mode = mode;
+        this.workers = workers;
         this.extraClasspath = extraClasspath;
         this.sandbox = sandbox;
+        this.classDataArchive = classDataArchive;
+    }
+
+    /**
+     * Sets the listener that is told how long the steps of starting this evaluator and running scripts take.
+     * @return This evaluator
+     */
+    public Evaluator withPhaseListener(PhaseListener listener) {
+        this.phaseListener = listener != null ? listener : PhaseListener.NONE;
+        return this;
+    }
+
+    /**
+     * Sets the augmentors that provide more detailed output from evaluations, in addition to the grid of a jOOQ
+     * result. By default, the SQL of queries is rendered and explained, and the numbers in results are charted.
+     * @return This evaluator
+     */
+    public Evaluator withAugmentors(List<Augmentor> augmentors) {
+        this.augmentors = List.copyOf(augmentors);
+        return this;
+    }
+
+    /**
+     * Sets how much of an evaluation's standard output, and of its standard error output, is kept. Once a script has
+     * printed more, its earliest output is dropped. Applies to shells created from now on.
+     * @return This evaluator
+     */
+    public Evaluator withOutputLimit(int bytes) {
+        this.outputLimitBytes = bytes > 0 ? bytes : DEFAULT_OUTPUT_LIMIT_BYTES;
+        return this;
+    }
+
+    /**
+     * Uses a classpath that has already been resolved with {@link #resolveClasspath(List)}, e.g. one shared by all
+     * evaluators, instead of searching the extra classpath's directories for JAR files again.
+     * @return This evaluator
+     */
+    public Evaluator withResolvedClasspath(List<String> resolved) {
+        this.resolvedClasspath = resolved;
+        return this;
     }
 
     public void init(List<Database> databases) {
-        outputStorage = new ByteArrayOutputStream();
-        outputPrintStream = new PrintStream(outputStorage, true, StandardCharsets.UTF_8);
-        errorStorage = new ByteArrayOutputStream();
+        long startedAt = System.nanoTime();
+        outputStorage = new OutputBuffer(outputLimitBytes);
+        outputTarget = outputStorage;
+        outputPrintStream = new PrintStream(new OutputRedirector(), true, StandardCharsets.UTF_8);
+        errorStorage = new OutputBuffer(outputLimitBytes);
         errorPrintStream = new PrintStream(errorStorage, true, StandardCharsets.UTF_8);
         jShell = buildJShell(outputPrintStream, errorPrintStream, databases);
+        phaseCompleted(PhaseListener.Phase.INIT, startedAt);
+    }
+
+    /**
+     * Initializes the evaluator and runs the imports for the given database up front, so a later request against
+     * the same database can start evaluating the script immediately.
+     * @param db The database the evaluator will most likely be used with, or null
+     */
+    public synchronized void prepare(Database db, List<Database> databases) {
+        if (jShell == null) {
+            init(databases);
+        }
+        ensureImports(jShell, db);
+        if (db != null) {
+            // load & initialize the core jOOQ classes now rather than during the user's request
+            runSingleSnippet(jShell, "org.jooq.impl.DSL.using(org.jooq.SQLDialect.DEFAULT).selectOne().getSQL();");
+        }
+        outputStorage.reset();
+        errorStorage.reset();
     }
 
     @Override
@@ -146,6 +394,232 @@ public class Evaluator implements AutoCloseable {
             jShell.close();
             jShell = null;
         }
+        importedDatabase = null;
+        uses = 0;
+        pendingConnectionRelease = null;
+        analysisImports.clear();
+        analysisJooqDeclared = false;
+        databaseImports = List.of();
+        compiledSnippets.clear();
+        cachedSnippets.clear();
+        execution = null;
+        workerEngine = null;
+    }
+
+    /**
+     * Scrubs the state left behind by previous evaluations so the evaluator can be reused for another request: all
+     * snippets are dropped, the output buffers are emptied and the standard imports for the given database are run
+     * again. If the evaluator is used with the same database again, the database's imports and the compiled snippets
+     * that connect to it are kept instead, so they need not be compiled again.
+     * @param db The database the evaluator will be used with next, or null
+     * @return True if the shell is verifiably clean afterwards, i.e. it contains no active snippets except imports
+     * and the database's compiled snippets
+     */
+    public synchronized boolean reset(Database db) {
+        if (jShell == null) {
+            return false;
+        }
+        var js = jShell;
+        releasePendingConnection();
+        boolean sameDatabase = db != null && db == importedDatabase
+            && databaseImports.stream().allMatch(snippet -> js.status(snippet).isActive());
+        js.snippets()
+            .filter(snippet -> js.status(snippet).isActive())
+            .filter(snippet -> !sameDatabase || !(databaseImports.contains(snippet) || isCompiled(snippet)))
+            .forEach(js::drop);
+        outputStorage.reset();
+        errorStorage.reset();
+        if (!sameDatabase) {
+            importedDatabase = null;
+            compiledSnippets.clear();
+        }
+        analysisImports.clear();
+        analysisJooqDeclared = false;
+        ensureImports(js, db);
+        return isScrubbed();
+    }
+
+    /**
+     * Measures how much heap and how many threads the evaluation engine is using. A polluted engine (e.g. one where
+     * a script has left threads running or has hoarded memory in static fields) should be retired, not reused.
+     * @return The health measurement or null if the engine could not be measured
+     */
+    public synchronized EvaluatorHealth checkHealth() {
+        if (jShell == null) {
+            return null;
+        }
+        var event = runCapturingOutput(jShell,
+            "{ System.gc(); " +
+            "System.out.print((Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) + \" \" + Thread.activeCount()); }"
+        );
+        try {
+            if (event == null || event.status() != Snippet.Status.VALID || event.exception() != null) {
+                return null;
+            }
+            var measurements = outputStorage.text().trim().split(" ");
+            // the measuring snippet's own thread is counted too
+            return new EvaluatorHealth(Long.parseLong(measurements[0]), Integer.parseInt(measurements[1]) - 1);
+        } catch (RuntimeException ex) {
+            return null;
+        } finally {
+            if (event != null) {
+                jShell.drop(event.snippet());
+            }
+            outputStorage.reset();
+            errorStorage.reset();
+        }
+    }
+
+    /**
+     * Lists the queries the last evaluated script ran through its <code>jooq</code> context, provided that they were
+     * all selects, see {@link co.petrin.remote.QueryLog#readOnlySql}. Requires the evaluator's own classes on the
+     * engine's classpath.
+     * @return The SQL of the queries, or null if the script ran no queries, may have changed the database or the
+     * queries could not be listed
+     */
+    public synchronized List<String> readOnlyQueries() {
+        if (jShell == null) {
+            return null;
+        }
+        var event = runCapturingOutput(jShell, "System.out.print(co.petrin.remote.QueryLog.readOnlySql(jooq));");
+        try {
+            if (event == null || event.status() != Snippet.Status.VALID || event.exception() != null) {
+                return null;
+            }
+            var output = outputStorage.text().trim();
+            if (output.isEmpty() || output.equals("null")) {
+                return null;
+            }
+            var decoder = Base64.getDecoder();
+            return Arrays.stream(output.split(" "))
+                .map(sql -> new String(decoder.decode(sql), StandardCharsets.UTF_8))
+                .collect(toList());
+        } catch (RuntimeException ex) {
+            return null;
+        } finally {
+            if (event != null) {
+                jShell.drop(event.snippet());
+            }
+            outputStorage.reset();
+            errorStorage.reset();
+        }
+    }
+
+    /** Does the evaluator have a shell, i.e. has it been prepared or used and not been closed since? */
+    public boolean isOpen() {
+        return jShell != null;
+    }
+
+    /** The number of scripts this evaluator has evaluated since its shell was created */
+    public int getUses() {
+        return uses;
+    }
+
+    /**
+     * Runs a single snippet, making sure its standard output ends up in the output buffer even when running locally.
+     */
+    private SnippetEvent runCapturingOutput(JShell js, String input) {
+        if (!isLocalMode()) {
+            return runSingleSnippet(js, input);
+        }
+        PrintStream originalOut = System.out;
+        try {
+            System.setOut(outputPrintStream);
+            return runSingleSnippet(js, input);
+        } finally {
+            System.setOut(originalOut);
+        }
+    }
+
+    /** Does the shell contain nothing but import snippets and compiled snippets of our own? */
+    private boolean isScrubbed() {
+        var js = jShell;
+        return js.snippets()
+            .filter(snippet -> js.status(snippet).isActive())
+            .allMatch(snippet -> snippet.kind() == Snippet.Kind.IMPORT || isCompiled(snippet));
+    }
+
+    private boolean isCompiled(Snippet snippet) {
+        return compiledSnippets.values().stream().anyMatch(compiled -> compiled.event.snippet() == snippet);
+    }
+
+    /**
+     * Runs a snippet that is run the same way on every request, such as the one connecting to the database. JShell
+     * only compiles the snippet the first time; afterwards the class it was compiled to is run directly, for as long
+     * as JShell keeps the snippet as it is. Any errors are reported by compiling and running the snippet as usual.
+     * @return The event of the snippet's evaluation; the event of its first evaluation if it has not been compiled again
+     */
+    private SnippetEvent runCompiled(JShell js, String source) {
+        var compiled = compiledSnippets.get(source);
+        if (compiled != null && js.status(compiled.event.snippet()) == Snippet.Status.VALID) {
+            try {
+                execution.invoke(compiled.className, RecordingExecutionControl.DO_IT_METHOD);
+                return compiled.event;
+            } catch (ExecutionControl.ExecutionControlException ex) {
+                compiledSnippets.remove(source);
+            }
+        }
+        execution.clearRecording();
+        var event = runSingleSnippet(js, source);
+        var className = execution.getLastInvokedClass();
+        if (event != null && event.status() == Snippet.Status.VALID && event.exception() == null && className != null) {
+            compiledSnippets.put(source, new CompiledSnippet(event, className));
+        }
+        return event;
+    }
+
+    /**
+     * Evaluates a snippet of a script. Statements, which declare nothing later snippets could refer to, are kept with
+     * the classes JShell compiled them to; if the same statement is run again while the shell has the same imports and
+     * declarations, e.g. by a reused evaluator running a popular script again, its classes are loaded into the engine
+     * again and run directly, without JShell compiling them or even knowing about the statement.
+     * @return The event of the snippet's evaluation; the event of its first evaluation if it has been run from its classes
+     * @throws CachedSnippetException If the statement, run from its classes, threw an exception
+     */
+    private SnippetEvent runScriptSnippet(JShell js, String source) {
+        var key = declarationsFingerprint(js) + "\n" + source;
+        var cached = cachedSnippets.get(key);
+        if (cached != null) {
+            try {
+                execution.load(cached.classes);
+                execution.invoke(cached.className, RecordingExecutionControl.DO_IT_METHOD);
+                return cached.event;
+            } catch (ExecutionControl.UserException ex) {
+                throw new CachedSnippetException(ex);
+            } catch (ExecutionControl.ClassInstallException | ExecutionControl.NotImplementedException ex) {
+                // the classes were not run, let JShell compile the statement again
+                cachedSnippets.remove(key);
+            } catch (ExecutionControl.ExecutionControlException ex) {
+                throw new IllegalStateException("The engine could not run the snippet: " + ex.getMessage(), ex);
+            }
+        }
+        execution.clearRecording();
+        var event = runSingleSnippet(js, source);
+        var className = execution.getLastInvokedClass();
+        if (event != null && event.status() == Snippet.Status.VALID && event.exception() == null
+            && event.snippet().kind() == Snippet.Kind.STATEMENT && className != null) {
+            cachedSnippets.put(key, new CachedSnippet(event, execution.getLoadedClasses(), className));
+        }
+        return event;
+    }
+
+    /**
+     * Identifies the snippets a new snippet could refer to. JShell never changes a snippet's class without adding or
+     * dropping another one, so the IDs of the active snippets suffice. Statements are left out as nothing can refer
+     * to them.
+     */
+    private static String declarationsFingerprint(JShell js) {
+        return js.snippets()
+            .filter(snippet -> snippet.kind() != Snippet.Kind.STATEMENT && js.status(snippet).isActive())
+            .map(Snippet::id)
+            .collect(Collectors.joining(","));
+    }
+
+    /** Forgets compiled snippets once JShell drops, replaces or recompiles them, e.g. because a script redefined something they use */
+    private void forgetChangedSnippets(SnippetEvent event) {
+        if (event.causeSnippet() != null || event.status() != Snippet.Status.VALID) {
+            compiledSnippets.values().removeIf(compiled -> compiled.event.snippet() == event.snippet());
+        }
     }
 
     /**
@@ -155,16 +629,37 @@ public class Evaluator implements AutoCloseable {
      * @return The evaluation result
      */
     public EvaluationResponse evaluate(Database db, EvaluationRequest request, List<Database> databases) {
+        return evaluate(db, request, databases, null);
+    }
+
+    /**
+     * Builds a new evaluator and evaluates the script, reporting its progress while it runs: every top-level snippet
+     * of a script made of several as soon as it has finished, see {@link ScriptStep}, and the output printed so far,
+     * see {@link OutputForwarder}, depending on what the receiver accepts.
+     * @param db The database to run the script against.
+     * @param request The script to evaluate.
+     * @param progress Where to write the progress to, null if only the final result is wanted
+     * @return The evaluation result
+     */
+    public synchronized EvaluationResponse evaluate(Database db, EvaluationRequest request, List<Database> databases, AugmentationSink progress) {
         if (jShell == null) {
             init(databases);
         }
+        uses++;
+        releasePendingConnection();
 
         var activeShell = jShell;
-        addImports(activeShell, db);
+        ensureImports(activeShell, db);
 
         PrintStream originalOut = System.out;
         PrintStream originalErr = System.err;
         boolean runningLocally = isLocalMode();
+        SnippetEvent connectionEvent = null;
+        SnippetEvent resultEvent = null;
+        long executeStartedAt = 0;
+        final var watchdog = watch(Database.timeoutSeconds(db), Database.cpuTimeoutSeconds(db));
+        var steps = progress != null && progress.acceptsScriptSteps() ? progress : null;
+        var outputChunks = progress != null && progress.acceptsOutputChunks() ? new OutputForwarder(outputStorage, progress) : null;
 
         try {
             if (runningLocally) {
@@ -174,12 +669,9 @@ public class Evaluator implements AutoCloseable {
 
             // jooq connection
             if (db != null) {
-                var connectionEvent = runSingleSnippet(activeShell, String.format(
-                        "var jooq = org.jooq.impl.DSL.using(%s, %s, %s);",
-                        javaString(db.connectionString),
-                        javaString(db.user),
-                        javaString(db.password)
-                ));
+                long connectStartedAt = System.nanoTime();
+                connectionEvent = runCompiled(activeShell, createConnectionSnippet(db, leaseOwner));
+                phaseCompleted(PhaseListener.Phase.CONNECT, connectStartedAt);
 
                 if (connectionEvent.status() != Snippet.Status.VALID) {
                     return new SetupError("Error creating a database object:\n" + formatParsingError(0, activeShell, connectionEvent));
@@ -189,20 +681,50 @@ public class Evaluator implements AutoCloseable {
             }
 
             long startTime = System.currentTimeMillis();
+            executeStartedAt = System.nanoTime();
+            // the time spent evaluating the script's snippets, split into compiling and running them afterwards
+            long invokeNanosBefore = execution.getInvokeNanos();
+            long scriptNanos = 0;
+            // the time spent describing the grids of the steps, which is not part of the script's
+            long stepGridNanos = 0;
 
             int humanNewlinesProcessed = 0;
+            int stepIndex = 0;
             SourceCodeAnalysis.CompletionInfo completionInfo = null;
 
             while (completionInfo == null || !isProcessingComplete(completionInfo)) {
                 final SnippetEvent event;
+                long snippetStartedAt = System.nanoTime();
+                long snippetInvokeNanosBefore = execution.getInvokeNanos();
+                long snippetOutputBefore = outputStorage.position();
+                String toEvaluate = completionInfo == null ? request.getScript() : completionInfo.remaining();
                 try {
-                    String toEvaluate = completionInfo == null ? request.getScript() : completionInfo.remaining();
                     completionInfo = activeShell.sourceCodeAnalysis().analyzeCompletion(toEvaluate);
-                    event = runSingleSnippet(activeShell, completionInfo.source());
+                    event = runScriptSnippet(activeShell, completionInfo.source());
+                } catch (CachedSnippetException ex) {
+                    return watchdog.hasFired() ? timeout(watchdog) : new EvaluationError(ex.getMessage(), System.currentTimeMillis() - startTime);
                 } catch (Throwable t) {
-                    return new JShellError(t);
+                    return watchdog.hasFired() ? timeout(watchdog) : new JShellError(t);
+                } finally {
+                    scriptNanos += System.nanoTime() - snippetStartedAt;
                 }
 
+                if (watchdog.hasFired()) {
+                    return timeout(watchdog);
+                }
+                // a script of a single snippet has nothing to report along the way
+                if (steps != null && event != null && (stepIndex > 0 || !isProcessingComplete(completionInfo))) {
+                    long snippetNanos = System.nanoTime() - snippetStartedAt;
+                    long snippetExecuteNanos = execution.getInvokeNanos() - snippetInvokeNanosBefore;
+                    long gridStartedAt = execution.getInvokeNanos();
+                    int line = lineOf(request.getScript(), request.getScript().length() - toEvaluate.length()
+                        + (toEvaluate.length() - toEvaluate.stripLeading().length()));
+                    steps.writeLine(createStep(activeShell, event, stepIndex, line, humanNewlinesProcessed, snippetOutputBefore,
+                        toMillis(snippetNanos - snippetExecuteNanos), toMillis(snippetExecuteNanos),
+                        !isProcessingComplete(completionInfo)).toJson());
+                    stepGridNanos += execution.getInvokeNanos() - gridStartedAt;
+                }
+                stepIndex++;
                 if (event != null) {
                     switch (event.status()) {
                         case VALID:
@@ -210,10 +732,13 @@ public class Evaluator implements AutoCloseable {
                                 return new EvaluationError(printEvalException(event), System.currentTimeMillis() - startTime);
                             } else {
                                 if (isProcessingComplete(completionInfo)) {
+                                    long executeNanos = execution.getInvokeNanos() - invokeNanosBefore - stepGridNanos;
                                     final String output = createOutput(activeShell, event, outputStorage);
-                                    final String errorOut = new String(errorStorage.toByteArray(), StandardCharsets.UTF_8);
-                                    final Supplier<AugmentedOutput> augmentationSupplier = () -> JooqGrid.augment(activeShell, event, outputStorage);
-                                    return new Success(output, errorOut, System.currentTimeMillis() - startTime, augmentationSupplier);
+                                    final String errorOut = errorStorage.text();
+                                    final Augmentation augmentation = sink -> augment(activeShell, event, db, sink);
+                                    resultEvent = event;
+                                    return new Success(output, errorOut, System.currentTimeMillis() - startTime,
+                                        toMillis(scriptNanos - executeNanos), toMillis(executeNanos), augmentation);
                                 } else {
                                     humanNewlinesProcessed += newlinesInString(completionInfo.source());
                                     break;
@@ -228,10 +753,28 @@ public class Evaluator implements AutoCloseable {
             }
 
             // If we didn't return anything by the time we got here, just return this..
+            long executeNanos = execution.getInvokeNanos() - invokeNanosBefore - stepGridNanos;
             final String output = createOutput(activeShell, null, outputStorage);
-            final String errorOut = new String(errorStorage.toByteArray());
-            return new Success(output, errorOut, System.currentTimeMillis() - startTime, EMPTY_AUGMENTATION_SUPPPLIER);
+            final String errorOut = errorStorage.text();
+            return new Success(output, errorOut, System.currentTimeMillis() - startTime,
+                toMillis(scriptNanos - executeNanos), toMillis(executeNanos), Augmentation.NONE);
         } finally {
+            watchdog.disarm();
+            if (outputChunks != null) {
+                outputChunks.close();
+            }
+            if (executeStartedAt != 0) {
+                phaseCompleted(PhaseListener.Phase.EXECUTE, executeStartedAt);
+            }
+            if (db != null) {
+                final var usedConnection = connectionEvent;
+                if (resultEvent != null && holdsConnection(resultEvent)) {
+                    // e.g. the cursor's rows are still to be fetched when the result is displayed
+                    pendingConnectionRelease = () -> releaseConnection(activeShell, db, usedConnection);
+                } else {
+                    releaseConnection(activeShell, db, usedConnection);
+                }
+            }
             if (runningLocally) {
                 System.setOut(originalOut);
                 System.setErr(originalErr);
@@ -242,6 +785,297 @@ public class Evaluator implements AutoCloseable {
             if (errorStorage != null) {
                 errorStorage.reset();
             }
+            if (watchdog.getStage() == Watchdog.Stage.DESTROYED) {
+                // the engine is gone, start a new one next time
+                close();
+            }
+        }
+    }
+
+    /** Is the snippet's database connection still needed for its augmented output? */
+    private boolean holdsConnection(SnippetEvent event) {
+        return JooqGrid.holdsConnection(event) || augmentors.stream().anyMatch(augmentor -> augmentor.needsConnection(event));
+    }
+
+    private void phaseCompleted(PhaseListener.Phase phase, long startedAtNanos) {
+        phaseListener.phaseCompleted(phase, System.nanoTime() - startedAtNanos);
+    }
+
+    /**
+     * Describes a top-level snippet of the script that has just finished.
+     * @param line The line of the script the snippet starts on
+     * @param newlinesAlreadyProcessed Number of newlines processed in previous snippets, as counted for error messages
+     * @param outputBefore The size of the output before the snippet ran
+     * @param intermediate Is the snippet followed by others? The grid of the script's final result is streamed in
+     * full afterwards, but the results along the way only get their first rows sent with their step.
+     */
+    private ScriptStep createStep(JShell js, SnippetEvent event, int index, int line, int newlinesAlreadyProcessed,
+                                  long outputBefore, long compileMs, long executeMs, boolean intermediate) {
+        outputPrintStream.flush();
+        var output = outputStorage.read(outputBefore);
+        var source = event.snippet().source().strip();
+        if (event.status() != Snippet.Status.VALID) {
+            return new ScriptStep(index, line, source, ScriptStep.Status.REJECTED, null, output,
+                formatParsingError(newlinesAlreadyProcessed, js, event), compileMs, executeMs, null);
+        } else if (event.exception() != null) {
+            return new ScriptStep(index, line, source, ScriptStep.Status.EXCEPTION, null, output,
+                printEvalException(event), compileMs, executeMs, null);
+        }
+
+        var page = JooqGrid.firstPage(event);
+        String grid = null;
+        if (page != null && !page.cursor && intermediate) {
+            var gridEvent = runSingleSnippet(js, ScriptStep.gridExpression(page));
+            if (gridEvent != null) {
+                if (gridEvent.status() == Snippet.Status.VALID && gridEvent.exception() == null && gridEvent.value() != null
+                    && gridEvent.value().startsWith("\"")) {
+                    // the value of a String is quoted and escaped like a Java literal
+                    grid = StringEscapeUtils.unescapeJava(gridEvent.value().substring(1, gridEvent.value().length() - 1));
+                }
+                js.drop(gridEvent.snippet());
+            }
+        }
+        // a result is better seen in its grid than in its text table
+        var value = page == null ? event.value() : null;
+        return new ScriptStep(index, line, source, ScriptStep.Status.SUCCESS, value, output, null, compileMs, executeMs, grid);
+    }
+
+    private static long toMillis(long nanos) {
+        return Math.max(0, Duration.ofNanos(nanos).toMillis());
+    }
+
+    /** Starts watching over an evaluation, stopping it when it exceeds the given time limits (0 for none) */
+    private Watchdog watch(int timeoutSeconds, int cpuTimeoutSeconds) {
+        return watch(timeoutSeconds * 1000L, cpuTimeoutSeconds * 1000L);
+    }
+
+    private Watchdog watch(long timeoutMs, long cpuTimeoutMs) {
+        var worker = workerEngine;
+        if (worker != null) {
+            return new Watchdog(this::stop, worker::destroy, worker::cpuNanos, timeoutMs, cpuTimeoutMs);
+        }
+        return new Watchdog(
+            this::stop,
+            () -> findEngineProcess().ifPresent(ProcessHandle::destroyForcibly),
+            () -> findEngineProcess()
+                .flatMap(process -> process.info().totalCpuDuration())
+                .map(Duration::toNanos)
+                .orElse(-1L),
+            timeoutMs,
+            cpuTimeoutMs
+        );
+    }
+
+    private static Timeout timeout(Watchdog watchdog) {
+        var destroyed = watchdog.getStage() == Watchdog.Stage.DESTROYED;
+        var message = watchdog.getReason() + (destroyed
+            ? " and did not react to being stopped, so its evaluator was terminated."
+            : " and was stopped.");
+        return new Timeout(message, watchdog.getElapsedMs(), destroyed);
+    }
+
+    /** Finds the spawned process evaluating our scripts, if there is one */
+    private Optional<ProcessHandle> findEngineProcess() {
+        if (isLocalMode() || workers != null) {
+            return Optional.empty();
+        }
+        var process = engineProcess;
+        if (process == null || !process.isAlive()) {
+            process = ProcessHandle.current().descendants()
+                .filter(child -> child.info().arguments().map(args -> List.of(args).contains(processMarker)).orElse(false))
+                .findAny()
+                .orElse(null);
+            engineProcess = process;
+        }
+        return Optional.ofNullable(process);
+    }
+
+    /**
+     * Streams the augmented output of an evaluated snippet into the sink: the grid of a jOOQ result first, followed
+     * by the outputs of the augmentors. The output is printed by the evaluation engine and passed on line by line as
+     * it arrives, so a slow sink slows down the engine instead of the output piling up in memory.
+     * @param js The shell the snippet was evaluated in; nothing is written if the evaluator has been reset since
+     * @param event The snippet's evaluation event
+     * @param db The database the snippet was evaluated against, may be null
+     * @param sink Where to write the augmented output to
+     */
+    private synchronized void augment(JShell js, SnippetEvent event, Database db, AugmentationSink sink) {
+        if (js != jShell || js.status(event.snippet()) != Snippet.Status.VALID) {
+            releasePendingConnection();
+            return;
+        }
+        var page = JooqGrid.firstPage(event);
+        if (page != null) {
+            streamGrid(js, page, db, sink);
+        }
+        if (js == jShell) {
+            runAugmentors(js, event, db, sink);
+        }
+        if (page == null) {
+            releasePendingConnection();
+        }
+    }
+
+    /**
+     * Has the augmentors compute their outputs alongside each other in the evaluation engine and streams each
+     * output as soon as it is ready. Outputs that take longer than their augmentor's time budget are left out.
+     */
+    private void runAugmentors(JShell js, SnippetEvent event, Database db, AugmentationSink sink) {
+        var tasks = new ArrayList<String>();
+        long budgetMs = 0;
+        for (var augmentor : augmentors) {
+            var expression = augmentor.createExpression(event, db);
+            if (expression != null) {
+                tasks.add(String.format("co.petrin.remote.AugmentationRunner.task(%s, %s, %dL, () -> %s)",
+                    javaString(augmentor.getName()), javaString(augmentor.getType()), augmentor.getBudgetMs(), expression));
+                budgetMs = Math.max(budgetMs, augmentor.getBudgetMs());
+            }
+        }
+        if (tasks.isEmpty()) {
+            return;
+        }
+
+        // the engine gives up on slow outputs by itself, this only guards against it getting stuck
+        var watchdog = watch(budgetMs + Watchdog.GRACE_PERIOD_MS, 0);
+        streamSnippet(js, "co.petrin.remote.AugmentationRunner.run(java.util.List.of(\n    " + String.join(",\n    ", tasks) + "\n));",
+            sink, watchdog);
+    }
+
+    /**
+     * Streams a further page of a grid produced by the last evaluation into the sink. If there are even more rows,
+     * the sink is told about the page after this one.
+     * @param page The page to write, as previously given to {@link AugmentationSink#morePages}
+     * @param db The database the grid's script was evaluated against, may be null
+     * @param sink Where to write the page to
+     */
+    public synchronized void page(GridPage page, Database db, AugmentationSink sink) {
+        if (jShell != null) {
+            streamGrid(jShell, page, db, sink);
+        }
+    }
+
+    /**
+     * Streams a page of a grid. Only the CPU time limit applies, as the time it takes is mostly up to the client
+     * and slow queries are cancelled by their query timeout.
+     */
+    private void streamGrid(JShell js, GridPage page, Database db, AugmentationSink sink) {
+        var nextPage = new AtomicReference<GridPage>();
+        AugmentationSink gridSink = line -> {
+            var next = JooqGrid.parseNextPage(page, line);
+            if (next != null) {
+                nextPage.set(next);
+            } else {
+                sink.writeLine(line);
+            }
+        };
+        var watchdog = watch(0, Database.cpuTimeoutSeconds(db));
+        if (!streamSnippet(js, JooqGrid.createSnippet(page, Database.gridRowLimit(db), sink.gridFormat()), gridSink, watchdog)) {
+            return;
+        }
+
+        if (nextPage.get() != null) {
+            sink.morePages(nextPage.get());
+        } else {
+            releasePendingConnection();
+        }
+    }
+
+    /**
+     * Runs a snippet augmenting the last one, passing what it prints on to the sink line by line. The watchdog
+     * guarding it is disarmed afterwards.
+     * @return False if the watchdog destroyed the shell meanwhile, in which case the evaluator has been closed
+     */
+    private boolean streamSnippet(JShell js, String source, AugmentationSink sink, Watchdog watchdog) {
+        long startedAt = System.nanoTime();
+        try (var lines = new LineOutputStream(sink)) {
+            outputTarget = lines;
+            runCapturingOutput(js, source);
+            outputPrintStream.flush();
+        } catch (IllegalStateException ex) {
+            // the shell was closed while streaming, e.g. because the watchdog destroyed it
+        } finally {
+            watchdog.disarm();
+            phaseCompleted(PhaseListener.Phase.AUGMENT, startedAt);
+            outputTarget = outputStorage;
+            if (outputStorage != null) {
+                outputStorage.reset();
+                errorStorage.reset();
+            }
+        }
+        if (watchdog.getStage() == Watchdog.Stage.DESTROYED) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    private void releasePendingConnection() {
+        if (pendingConnectionRelease != null) {
+            var release = pendingConnectionRelease;
+            pendingConnectionRelease = null;
+            release.run();
+        }
+    }
+
+    /**
+     * Creates the snippet defining the script's <code>jooq</code> variable. Pooled databases get a context that
+     * borrows connections from a pool in the evaluation engine, others open a connection of their own. Queries get
+     * the database's timeout, so the JDBC driver cancels statements that outlive the evaluation anyway; the engine
+     * cannot be asked to cancel them itself while it is busy running the script. Every query is recorded in the
+     * engine's {@link co.petrin.remote.QueryLog}, which starts anew each time the snippet is run.
+     * @param leaseOwner Owns the pooled connection lease, see {@link co.petrin.remote.ConnectionPool#lease}
+     */
+    private static String createConnectionSnippet(Database db, String leaseOwner) {
+        var settings = db.timeoutSeconds > 0
+            ? "new org.jooq.conf.Settings().withQueryTimeout(" + db.timeoutSeconds + ")"
+            : "new org.jooq.conf.Settings()";
+        if (db.isPooled()) {
+            return String.format(
+                "var jooq = co.petrin.remote.QueryLog.record(org.jooq.impl.DSL.using(co.petrin.remote.ConnectionPool.get(%s, %s, %s, %d, %dL, %s).lease(%s), org.jooq.tools.jdbc.JDBCUtils.dialect(%s), %s));",
+                javaString(db.connectionString),
+                javaString(db.user),
+                javaString(db.password),
+                db.poolSize,
+                db.poolMaxLifetimeSeconds * 1000L,
+                javaString(db.poolValidationQuery),
+                javaString(leaseOwner),
+                javaString(db.connectionString),
+                settings
+            );
+        } else if (db.timeoutSeconds > 0) {
+            return String.format(
+                "var jooq = co.petrin.remote.QueryLog.record(org.jooq.impl.DSL.using(%s, %s, %s).configuration().set(%s).dsl());",
+                javaString(db.connectionString),
+                javaString(db.user),
+                javaString(db.password),
+                settings
+            );
+        } else {
+            return String.format(
+                "var jooq = co.petrin.remote.QueryLog.record(org.jooq.impl.DSL.using(%s, %s, %s));",
+                javaString(db.connectionString),
+                javaString(db.user),
+                javaString(db.password)
+            );
+        }
+    }
+
+    /**
+     * Returns the connection used by the evaluation to the pool or closes it, so that it is not held on to until the
+     * evaluation engine dies. Runs after stopped evaluations too; a closed engine has no connections left to release.
+     * @param connectionEvent The event of the snippet that defined the <code>jooq</code> variable, may be null
+     */
+    private void releaseConnection(JShell js, Database db, SnippetEvent connectionEvent) {
+        try {
+            if (db.isPooled()) {
+                // ends all of our leases, even if the script has redefined the jooq variable, but not the leases of
+                // other evaluators sharing the engine's JVM in local mode
+                runCompiled(js, "co.petrin.remote.ConnectionPool.endLeases(" + javaString(leaseOwner) + ");");
+            } else if (connectionEvent != null && connectionEvent.exception() == null && js.status(connectionEvent.snippet()) == Snippet.Status.VALID) {
+                runCompiled(js, "jooq.close();");
+            }
+        } catch (IllegalStateException ex) {
+            // the shell has been closed in the meantime, taking its connections with it
         }
     }
 
@@ -250,10 +1084,19 @@ public class Evaluator implements AutoCloseable {
     }
 
     /**
-     * Returns code completion suggestions.
+     * Returns code completion suggestions and closes the evaluator.
      * @param request The script we wanted completion for.
      */
     public SuggestionResponse suggest(Database db, EvaluationRequest request, List<Database> databases) {
+        return suggest(db, request, databases, false);
+    }
+
+    /**
+     * Returns code completion suggestions.
+     * @param request The script we wanted completion for.
+     * @param keepShell Keep the shell for further analysis requests instead of closing the evaluator
+     */
+    public synchronized SuggestionResponse suggest(Database db, EvaluationRequest request, List<Database> databases, boolean keepShell) {
         if (request.getCursorPosition() == null) {
             throw new IllegalArgumentException("Cursor position required to trigger completion!");
         }
@@ -262,28 +1105,36 @@ public class Evaluator implements AutoCloseable {
             init(databases);
         }
 
+        boolean succeeded = false;
         try {
             var activeShell = jShell;
-            addImports(activeShell, db);
-            if (db != null) {
-                runSingleSnippet(activeShell, "var jooq = DSL.using(org.jooq.SQLDialect.H2);"); //Exact dialect does not matter for suggestions!
-            }
             int[] anchor = new int[1];
-            var amendedRequest = trimEvaluationRequest(activeShell, request);
+            var amendedRequest = prepareAnalysis(activeShell, db, request);
             var anchorOffset = request.getCursorPosition() - amendedRequest.getCursorPosition();
             var suggestions = activeShell.sourceCodeAnalysis().completionSuggestions(amendedRequest.getScript(), amendedRequest.getCursorPosition(), anchor);
+            succeeded = true;
             return new SuggestionResponse(request.getCursorPosition(), anchor[0] + anchorOffset, suggestions);
         } finally {
-            close();
+            if (!keepShell || !succeeded) {
+                close();
+            }
         }
     }
 
+    /**
+     * Returns javadoc for the selected code and closes the evaluator.
+     * @param request The script we want javadocs for.
+     */
+    public List<DocumentationResponse> javadoc(Database db, EvaluationRequest request, List<Database> databases) {
+        return javadoc(db, request, databases, false);
+    }
 
     /**
      * Returns javadoc for the selected code.
      * @param request The script we want javadocs for.
+     * @param keepShell Keep the shell for further analysis requests instead of closing the evaluator
      */
-    public List<DocumentationResponse> javadoc(Database db, EvaluationRequest request, List<Database> databases) {
+    public synchronized List<DocumentationResponse> javadoc(Database db, EvaluationRequest request, List<Database> databases, boolean keepShell) {
         if (request.getCursorPosition() == null) {
             throw new IllegalArgumentException("Cursor position required to trigger completion!");
         }
@@ -292,13 +1143,10 @@ public class Evaluator implements AutoCloseable {
             init(databases);
         }
 
+        boolean succeeded = false;
         try {
             var activeShell = jShell;
-            addImports(activeShell, db);
-            if (db != null) {
-                runSingleSnippet(activeShell, "var jooq = DSL.using(org.jooq.SQLDialect.H2);"); //Exact dialect does not matter for javadocs!
-            }
-            var amendedRequest = trimEvaluationRequest(activeShell, request);
+            var amendedRequest = prepareAnalysis(activeShell, db, request);
             var javadocs = activeShell.sourceCodeAnalysis().documentation(amendedRequest.getScript(), amendedRequest.getCursorPosition(), true);
             if (javadocs.isEmpty()) {
                 // try to get the documentation for the class the expression had resolved to
@@ -308,10 +1156,53 @@ public class Evaluator implements AutoCloseable {
                 }
             }
 
+            succeeded = true;
             return javadocs.stream().map(DocumentationResponse::new).collect(toList());
         } finally {
-            close();
+            if (!keepShell || !succeeded) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Gets the shell ready for analysing a script: the database's imports and a jooq variable are declared, and so
+     * are the imports found in the script before the cursor. As the shell may be kept between requests, only the
+     * script's imports that have changed since the previous request are run or dropped.
+     * @return The part of the request that remains to be analysed
+     */
+    private EvaluationRequest prepareAnalysis(JShell js, Database db, EvaluationRequest request) {
+        ensureImports(js, db);
+        if (db != null && !analysisJooqDeclared) {
+            runSingleSnippet(js, "var jooq = DSL.using(org.jooq.SQLDialect.H2);"); //Exact dialect does not matter for analysis!
+            analysisJooqDeclared = true;
+        }
+
+        var scriptImports = new ArrayList<String>();
+        var amendedRequest = trimEvaluationRequest(js, request, scriptImports);
+        var sources = scriptImports.stream().map(String::trim).collect(toList());
+
+        var stale = analysisImports.keySet().stream().filter(source -> !sources.contains(source)).collect(toList());
+        for (var source : stale) {
+            var snippet = analysisImports.remove(source);
+            if (js.status(snippet).isActive()) {
+                js.drop(snippet);
+            }
+        }
+        if (!stale.isEmpty() && db != null) {
+            // a dropped import may have replaced one of the database's own imports
+            addImports(js, db);
+        }
+
+        for (var source : sources) {
+            if (!analysisImports.containsKey(source)) {
+                var event = runSingleSnippet(js, source);
+                if (event != null) {
+                    analysisImports.put(source, event.snippet());
+                }
+            }
         }
+        return amendedRequest;
     }
 
     /**
@@ -332,7 +1223,7 @@ public class Evaluator implements AutoCloseable {
      * @param executionOutput The captured output streams
      * @return The compiled output
      */
-    private String createOutput(JShell js, SnippetEvent finalEvent, ByteArrayOutputStream executionOutput) {
+    private String createOutput(JShell js, SnippetEvent finalEvent, OutputBuffer executionOutput) {
         if (finalEvent.snippet().kind() == Snippet.Kind.VAR) {
             // if last thing was a variable declaration, print that variable out!
             runSingleSnippet(js, "System.out.print(" + ((VarSnippet)finalEvent.snippet()).name() + ");");
@@ -341,7 +1232,7 @@ public class Evaluator implements AutoCloseable {
             // if last thing was an expression, print that expression's value into the stream
             runSingleSnippet(js, "System.out.print(" + ((ExpressionSnippet)finalEvent.snippet()).name() + ");");
         }
-        return StringUtils.defaultIfBlank(executionOutput.toString(StandardCharsets.UTF_8), "");
+        return StringUtils.defaultIfBlank(executionOutput.text(), "");
     }
 
 
@@ -375,11 +1266,16 @@ public class Evaluator implements AutoCloseable {
             .collect(Collectors.joining("\n"));
     }
 
+    /** The line a position of the script is on, starting at 1 */
+    static int lineOf(String script, int position) {
+        return newlinesInString(script.substring(0, Math.min(position, script.length()))) + 1;
+    }
+
     /**
      * Counts the number of newlines in the String, attempting to ignore the various silly ways systems tend to
      * encode them
      */
-    private static int newlinesInString(String str) {
+    static int newlinesInString(String str) {
         char[] chars = str.toCharArray();
         int newlines = 0;
         for (int pos = 0; pos < chars.length; pos++) {
@@ -394,6 +1290,19 @@ public class Evaluator implements AutoCloseable {
         return newlines;
     }
 
+    /** Passes JShell's standard output on to the current output target */
+    private class OutputRedirector extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            outputTarget.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            outputTarget.write(bytes, offset, length);
+        }
+    }
+
     private static boolean isNewline(char c) {
         return c == '\n' || c == '\r';
     }
@@ -412,8 +1321,22 @@ public class Evaluator implements AutoCloseable {
     }
 
     private JShell buildJShell(PrintStream outputStream, PrintStream errorStream, List<Database> databases) {
+        List<String> sandboxHosts = null;
+        if (sandbox) {
+            sandboxHosts = databases == null ? List.of() : databases.stream()
+                .map(db -> db.sandboxingHostAndPort)
+                .filter(Objects::nonNull)
+                .collect(toList());
+        }
+
+        // a worker sandboxes the engine with a security policy of its own
+        var workerSandboxHosts = sandboxHosts;
+        var provider = workers != null
+            ? RecordingExecutionControl.provider(env -> workerEngine = workers.get().open(env, workerSandboxHosts),
+                control -> execution = control)
+            : RecordingExecutionControl.provider(mode, control -> execution = control);
         var builder = JShell.builder()
-        .executionEngine(mode);
+        .executionEngine(provider, Map.of());
 
         if (outputStream != null) {
             builder.out(outputStream);
@@ -422,45 +1345,95 @@ public class Evaluator implements AutoCloseable {
             builder.err(errorStream);
         }
 
-        if (sandbox) {
+        if (sandbox && workers == null) {
             try {
-                List<String> databaseHostsAndPorts = null;
-                if (databases != null) {
-                    databaseHostsAndPorts = databases.stream()
-                        .map(db -> db.sandboxingHostAndPort)
-                        .filter(Objects::nonNull)
-                        .collect(toList());
-                }
-
-                var securityFile = SecurityProperties.getPath(databaseHostsAndPorts);
+                var securityFile = SecurityProperties.getPath(sandboxHosts);
                 builder
                     .remoteVMOptions("-Djava.security.manager")
-                    .remoteVMOptions("-Djava.security.policy=" + securityFile.toAbsolutePath().toString());
+                    .remoteVMOptions(quoteRemoteVMOption("-Djava.security.policy=" + securityFile.toAbsolutePath()));
             } catch (IOException ex) {
                 throw new RuntimeException(ex);
             }
         }
 
+        var classpath = resolveClasspath();
+        // JAR files are put on the engine's launch classpath, so their classes are loaded by the JVM and can be
+        // archived rather than being loaded by the shell. Directories would work there too, but class data sharing
+        // cannot archive classes loaded from directories, so they are only added to the shell's classpath below
+        var jars = classpath.stream().filter(cp -> cp.endsWith(".jar")).collect(toList());
+        if (!jars.isEmpty() && !isLocalMode()) {
+            builder.remoteVMOptions("--class-path", quoteRemoteVMOption(String.join(File.pathSeparator, jars)));
+        }
+        if (classDataArchive != null && !isLocalMode() && Files.isRegularFile(classDataArchive)) {
+            builder.remoteVMOptions(
+                quoteRemoteVMOption("-XX:SharedArchiveFile=" + classDataArchive.toAbsolutePath()), "-Xshare:auto");
+        }
+        if (!isLocalMode()) {
+            builder.remoteVMOptions(processMarker);
+        }
+        remoteVMOptions.forEach(option -> builder.remoteVMOptions(quoteRemoteVMOption(option)));
+
+        long spawnStartedAt = System.nanoTime();
         var shell = builder.build();
-        if (extraClasspath != null) {
-            for (String cp : extraClasspath) {
-                shell.addToClasspath(cp);
+        if (!isLocalMode()) {
+            phaseCompleted(PhaseListener.Phase.SPAWN, spawnStartedAt);
+        }
+        if (!classpath.isEmpty()) {
+            // the compiler needs the JAR files as well; a single call saves a round trip to the engine per entry
+            shell.addToClasspath(String.join(File.pathSeparator, classpath));
+        }
+        shell.onSnippetEvent(this::forgetChangedSnippets);
+        return shell;
+    }
+
+    /**
+     * Quotes a remote VM option containing whitespace, e.g. a path, since JDI joins the options with spaces and
+     * splits the resulting command line again, keeping only what is in double quotes together.
+     * @throws IllegalArgumentException If the option contains a double quote, which JDI cannot pass on
+     */
+    public static String quoteRemoteVMOption(String option) {
+        if (option.indexOf('"') >= 0) {
+            throw new IllegalArgumentException("The engine cannot be launched with " + option
+                + ", as JDI cannot pass double quotes on to it");
+        }
+        return option.chars().anyMatch(Character::isWhitespace) ? '"' + option + '"' : option;
+    }
+
+    /**
+     * Lists this evaluator's extra classpath entries, followed by any JAR files contained in directory entries.
+     */
+    List<String> resolveClasspath() {
+        if (resolvedClasspath == null) {
+            resolvedClasspath = resolveClasspath(extraClasspath);
+        }
+        return resolvedClasspath;
+    }
+
+    /**
+     * Lists the classpath entries, each followed by the JAR files contained in it if it is a directory, including
+     * those in its subdirectories.
+     * @param classpath The entries to resolve, may be null.
+     */
+    public static List<String> resolveClasspath(List<String> classpath) {
+        var resolved = new ArrayList<String>();
+        if (classpath != null) {
+            for (String cp : classpath) {
+                resolved.add(cp);
                 if (Files.isDirectory(Path.of(cp))) {
-                    try {
-                        // Note: this code does not currently handle JAR files in subdirectories!
-                        Files
-                            .list(Path.of(cp))
+                    try (var files = Files.walk(Path.of(cp))) {
+                        files
+                            .filter(p -> p.toString().endsWith(".jar") && Files.isRegularFile(p))
                             .map(Object::toString)
-                            .filter(p -> p.endsWith(".jar"))
-                            .forEach(shell::addToClasspath);
-                    } catch (IOException ex) {
+                            .sorted()
+                            .forEach(resolved::add);
+                    } catch (IOException | UncheckedIOException ex) {
                         // proper log? can we expect this? it's probably not very likely..?
                         System.out.println("An exception occured scanning the classpath: " + ExceptionUtils.getMessage(ex));
                     }
                 }
             }
         }
-        return shell;
+        return resolved;
     }
 
     /**
@@ -477,24 +1450,43 @@ public class Evaluator implements AutoCloseable {
         }
     }
 
+    /**
+     * Add the imports required for the code to run, unless they had already been added to this evaluator's shell.
+     */
+    private void ensureImports(JShell js, Database db) {
+        if (db != null && db != importedDatabase) {
+            long startedAt = System.nanoTime();
+            databaseImports = addImports(js, db);
+            importedDatabase = db;
+            phaseCompleted(PhaseListener.Phase.IMPORTS, startedAt);
+        }
+    }
+
     /**
      * Add the imports required for the code to run.
      * @param js The JShell instance.
+     * @return The snippets that were run
      */
-    private static void addImports(JShell js, Database db) {
+    private static List<Snippet> addImports(JShell js, Database db) {
+        var snippets = new ArrayList<Snippet>();
         if (db == null) {
-            return;
+            return snippets;
         }
         if (StringUtils.isBlank(db.scriptPrefix)) {
-            js.eval("import org.jooq.impl.DSL;");
-            js.eval("import static org.jooq.impl.DSL.*;");
+            addSnippets(snippets, js.eval("import org.jooq.impl.DSL;"));
+            addSnippets(snippets, js.eval("import static org.jooq.impl.DSL.*;"));
         } else {
             var toEval = js.sourceCodeAnalysis().analyzeCompletion(db.scriptPrefix);
             while(toEval.source() != null && !toEval.source().isBlank()) {
-                js.eval(toEval.source());
+                addSnippets(snippets, js.eval(toEval.source()));
                 toEval = js.sourceCodeAnalysis().analyzeCompletion(toEval.remaining());
             }
         }
+        return snippets;
+    }
+
+    private static void addSnippets(List<Snippet> snippets, List<SnippetEvent> events) {
+        events.stream().filter(event -> event.causeSnippet() == null).map(SnippetEvent::snippet).forEach(snippets::add);
     }
 
     /** Escapes and quotes a Java string, unless it was null in which case a simple null is emitted */
@@ -507,11 +1499,13 @@ public class Evaluator implements AutoCloseable {
     }
 
     /**
-     * Trims an evaluation request by running any import snippets before the current cursor position, thus making
-     * suggestions and javadocs work even if there are imports all over the place in the code.
+     * Trims an evaluation request by taking out any import snippets before the current cursor position, so they
+     * can be run beforehand, thus making suggestions and javadocs work even if there are imports all over the place
+     * in the code.
+     * @param imports Receives the import snippets that were taken out
      * Returns the amended request or returns null if an exception had occured.
      */
-    private static EvaluationRequest trimEvaluationRequest(JShell js, EvaluationRequest req) {
+    static EvaluationRequest trimEvaluationRequest(JShell js, EvaluationRequest req, List<String> imports) {
         int sizeOfEvaluated = 0;
         StringBuilder unevaluated = new StringBuilder();
 
@@ -523,7 +1517,7 @@ public class Evaluator implements AutoCloseable {
                 return new EvaluationRequest(unevaluated.toString(), req.getCursorPosition() - sizeOfEvaluated);
             }
             else if (completionAnalysis.source().trim().startsWith("import")) {
-                js.eval(completionAnalysis.source());
+                imports.add(completionAnalysis.source());
                 sizeOfEvaluated += completionAnalysis.source().length();
             }
             else {
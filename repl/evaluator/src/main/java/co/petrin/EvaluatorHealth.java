@@ -0,0 +1,23 @@
+package co.petrin;
+
+/**
+ * A snapshot of the resources used by an evaluation engine.
+ */
+public class EvaluatorHealth {
+
+    /** Heap in use after a garbage collection, in bytes */
+    public final long usedHeapBytes;
+
+    /** Live threads in the engine's thread group, not counting the thread taking the measurement */
+    public final int threadCount;
+
+    public EvaluatorHealth(long usedHeapBytes, int threadCount) {
+        this.usedHeapBytes = usedHeapBytes;
+        this.threadCount = threadCount;
+    }
+
+    @Override
+    public String toString() {
+        return (usedHeapBytes / 1024 / 1024) + "MB heap, " + threadCount + " threads";
+    }
+}
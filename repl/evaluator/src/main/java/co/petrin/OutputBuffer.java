@@ -0,0 +1,116 @@
+package co.petrin;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keeps the most recent output of an evaluation in a ring of a fixed size. Writers never wait: once the ring is full,
+ * the oldest output is overwritten, and whoever reads it later gets a marker telling how much was dropped instead.
+ *
+ * Positions count every byte written since the buffer was last reset, so readers can keep track of what they have
+ * already read, e.g. to pass the output on in chunks while the script is still printing it, see
+ * {@link OutputForwarder}.
+ */
+public class OutputBuffer extends OutputStream {
+
+    private final byte[] ring;
+    private long written;
+
+    /** @param capacity The maximum number of bytes kept. */
+    public OutputBuffer(int capacity) {
+        this.ring = new byte[Math.max(1, capacity)];
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        ring[index(written)] = (byte) b;
+        written++;
+    }
+
+    @Override
+    public synchronized void write(byte[] bytes, int offset, int length) {
+        if (length > ring.length) {
+            // only the end would be kept anyway
+            offset += length - ring.length;
+            written += length - ring.length;
+            length = ring.length;
+        }
+        int start = index(written);
+        int first = Math.min(length, ring.length - start);
+        System.arraycopy(bytes, offset, ring, start, first);
+        System.arraycopy(bytes, offset + first, ring, 0, length - first);
+        written += length;
+    }
+
+    /** The number of bytes written since the buffer was last reset, including the ones overwritten since */
+    public synchronized long position() {
+        return written;
+    }
+
+    /**
+     * The position up to which whole characters have been written, which is before the end if the last character's
+     * UTF-8 bytes are still being written.
+     */
+    public synchronized long completePosition() {
+        long oldest = oldest();
+        for (int back = 1; back <= 3 && written - back >= oldest; back++) {
+            int b = ring[index(written - back)] & 0xff;
+            if ((b & 0xc0) == 0x80) {
+                continue;
+            }
+            int length = b >= 0xf0 ? 4 : b >= 0xe0 ? 3 : b >= 0xc0 ? 2 : 1;
+            return back < length ? written - back : written;
+        }
+        return written;
+    }
+
+    /** All output kept, preceded by a marker if some has been overwritten */
+    public String text() {
+        return read(0);
+    }
+
+    /** The output written since a position, preceded by a marker if some of it has been overwritten */
+    public synchronized String read(long from) {
+        return read(from, written);
+    }
+
+    /**
+     * The output written between two positions, preceded by a marker if some of it has been overwritten.
+     * @param from The position to start at, inclusive.
+     * @param to The position to end at, exclusive.
+     */
+    public synchronized String read(long from, long to) {
+        to = Math.min(to, written);
+        from = Math.min(from, to);
+        var text = new StringBuilder();
+        long oldest = oldest();
+        if (from < oldest) {
+            long kept = Math.min(oldest, to);
+            // don't start in the middle of a character
+            while (kept < to && (ring[index(kept)] & 0xc0) == 0x80) {
+                kept++;
+            }
+            text.append("[... ").append(kept - from).append(" bytes of output dropped ...]\n");
+            from = kept;
+        }
+        var bytes = new byte[(int) (to - from)];
+        int start = index(from);
+        int first = Math.min(bytes.length, ring.length - start);
+        System.arraycopy(ring, start, bytes, 0, first);
+        System.arraycopy(ring, 0, bytes, first, bytes.length - first);
+        return text.append(new String(bytes, StandardCharsets.UTF_8)).toString();
+    }
+
+    /** Forgets all output */
+    public synchronized void reset() {
+        written = 0;
+    }
+
+    private long oldest() {
+        return Math.max(0, written - ring.length);
+    }
+
+    private int index(long position) {
+        return (int) (position % ring.length);
+    }
+}
@@ -0,0 +1,85 @@
+package co.petrin;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passes the output of a running script on to a sink in chunks, a few times a second, so that a script printing its
+ * progress can be followed while it runs. The chunks are written from a thread of their own, and only if the sink can
+ * take them without waiting: a slow receiver never holds up the script or the thread, it misses the output written in
+ * the meantime instead, see {@link OutputBuffer}.
+ */
+public class OutputForwarder implements AutoCloseable {
+
+    public static final String TYPE = "text/output-chunk";
+
+    /** How often the output is passed on */
+    private static final long INTERVAL_MS = 100;
+
+    private static final ExecutorService threads = Executors.newCachedThreadPool(r -> {
+        var thread = new Thread(r, "evaluator-output");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final OutputBuffer buffer;
+    private final AugmentationSink sink;
+    private long position;
+    private volatile boolean closed;
+    /** Wakes the forwarding thread up when closing; interrupting it would leave a pooled thread interrupted */
+    private final CountDownLatch closing = new CountDownLatch(1);
+
+    /**
+     * Starts passing on the output written from now on.
+     * @param buffer The buffer the script's output is written to.
+     * @param sink Where to write the chunks to, as lines of type {@link #TYPE}.
+     */
+    public OutputForwarder(OutputBuffer buffer, AugmentationSink sink) {
+        this.buffer = buffer;
+        this.sink = sink;
+        this.position = buffer.position();
+        threads.execute(this::run);
+    }
+
+    private void run() {
+        try {
+            while (!closing.await(INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                forward();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void forward() {
+        long end = buffer.completePosition();
+        if (end <= position) {
+            return;
+        }
+        var chunk = buffer.read(position, end);
+        position = end;
+        synchronized (this) {
+            if (!closed) {
+                // a chunk the receiver has no room for is skipped, the response contains all output anyway
+                sink.offerLine("{\"type\":\"" + TYPE + "\",\"output\":\"" + StringEscapeUtils.escapeJson(chunk) + "\"}");
+            }
+        }
+    }
+
+    /**
+     * Stops passing on the output. No more chunks are written once this returns, so the script's response can follow
+     * without being interleaved with them.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        closing.countDown();
+        synchronized (this) {
+            // waits for a chunk being written
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package co.petrin;
+
+/**
+ * Is told how long the steps of starting an evaluator and running a script take, e.g. to record them as metrics.
+ */
+public interface PhaseListener {
+
+    /** The steps that are timed */
+    enum Phase {
+        /** Launching the evaluation engine's JVM and connecting to it */
+        SPAWN,
+        /** Setting up the shell, including spawning its JVM */
+        INIT,
+        /** Running a database's imports */
+        IMPORTS,
+        /** Creating the jooq variable and its database connection */
+        CONNECT,
+        /** Compiling and executing the script's snippets */
+        EXECUTE,
+        /** Streaming the augmented output of a result, e.g. a grid */
+        AUGMENT
+    }
+
+    /** A listener that ignores everything */
+    PhaseListener NONE = (phase, durationNanos) -> { };
+
+    /**
+     * Called after a step has completed, whether it succeeded or not.
+     * @param phase The step.
+     * @param durationNanos How long it took.
+     */
+    void phaseCompleted(Phase phase, long durationNanos);
+}
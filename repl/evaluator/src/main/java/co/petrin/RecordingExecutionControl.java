@@ -0,0 +1,143 @@
+package co.petrin;
+
+import jdk.jshell.spi.ExecutionControl;
+import jdk.jshell.spi.ExecutionControlProvider;
+import jdk.jshell.spi.ExecutionEnv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Wraps the execution engine JShell would normally use, keeping track of how long the engine spends running snippets
+ * and which class each snippet was run from. The time JShell spends evaluating a snippet minus the time spent running
+ * it is the time it took to compile it.
+ *
+ * Knowing the classes lets the evaluator run a snippet again without having JShell compile it a second time, see
+ * {@link #invoke(String, String)}. The bytecode of the classes JShell loads is recorded as well, so it can be loaded
+ * again before running a snippet that JShell has forgotten about.
+ */
+class RecordingExecutionControl implements ExecutionControl {
+
+    /** The method JShell's wrapper classes run a snippet with */
+    static final String DO_IT_METHOD = "do_it$";
+
+    private final ExecutionControl delegate;
+
+    /** The total time the engine has spent running snippets */
+    private volatile long invokeNanos;
+
+    /** The class of the snippet that was run last */
+    private volatile String lastInvokedClass;
+
+    /** The classes loaded since the recording was last cleared; only used by the thread evaluating snippets */
+    private final List<ClassBytecodes> loadedClasses = new ArrayList<>();
+
+    RecordingExecutionControl(ExecutionControl delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Creates a provider for JShell's builder that generates the execution engine described by the spec (e.g.
+     * {@code local} or {@code jdi:launch(true)}) and wraps it.
+     * @param onCreated Is given the wrapped engine once JShell has created it
+     */
+    static ExecutionControlProvider provider(String spec, Consumer<RecordingExecutionControl> onCreated) {
+        return provider(env -> ExecutionControl.generate(env, spec), onCreated);
+    }
+
+    /** Creates the execution engine JShell runs snippets in */
+    interface Generator {
+        ExecutionControl generate(ExecutionEnv env) throws Throwable;
+    }
+
+    /**
+     * Creates a provider for JShell's builder that generates the execution engine with the given generator and wraps
+     * it.
+     * @param onCreated Is given the wrapped engine once JShell has created it
+     */
+    static ExecutionControlProvider provider(Generator generator, Consumer<RecordingExecutionControl> onCreated) {
+        return new ExecutionControlProvider() {
+            @Override
+            public String name() {
+                return "recording";
+            }
+
+            @Override
+            public ExecutionControl generate(ExecutionEnv env, Map<String, String> parameters) throws Throwable {
+                var control = new RecordingExecutionControl(generator.generate(env));
+                onCreated.accept(control);
+                return control;
+            }
+        };
+    }
+
+    /** The total time the engine has spent running snippets, in nanoseconds */
+    long getInvokeNanos() {
+        return invokeNanos;
+    }
+
+    /** The class of the snippet that was run last, or null */
+    String getLastInvokedClass() {
+        return lastInvokedClass;
+    }
+
+    /** The classes loaded since the recording was last cleared */
+    List<ClassBytecodes> getLoadedClasses() {
+        return List.copyOf(loadedClasses);
+    }
+
+    /** Forgets the class of the snippet that was run last and the classes loaded so far */
+    void clearRecording() {
+        lastInvokedClass = null;
+        loadedClasses.clear();
+    }
+
+    @Override
+    public String invoke(String className, String methodName) throws RunException, EngineTerminationException, InternalException {
+        lastInvokedClass = className;
+        long startedAt = System.nanoTime();
+        try {
+            return delegate.invoke(className, methodName);
+        } finally {
+            invokeNanos += System.nanoTime() - startedAt;
+        }
+    }
+
+    @Override
+    public void load(ClassBytecodes[] cbcs) throws ClassInstallException, NotImplementedException, EngineTerminationException {
+        delegate.load(cbcs);
+        loadedClasses.addAll(List.of(cbcs));
+    }
+
+    @Override
+    public void redefine(ClassBytecodes[] cbcs) throws ClassInstallException, NotImplementedException, EngineTerminationException {
+        delegate.redefine(cbcs);
+    }
+
+    @Override
+    public String varValue(String className, String varName) throws RunException, EngineTerminationException, InternalException {
+        return delegate.varValue(className, varName);
+    }
+
+    @Override
+    public void addToClasspath(String path) throws EngineTerminationException, InternalException {
+        delegate.addToClasspath(path);
+    }
+
+    @Override
+    public void stop() throws EngineTerminationException, InternalException {
+        delegate.stop();
+    }
+
+    @Override
+    public Object extensionCommand(String command, Object arg) throws RunException, EngineTerminationException, InternalException {
+        return delegate.extensionCommand(command, arg);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
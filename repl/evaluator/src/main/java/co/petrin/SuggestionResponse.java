@@ -37,6 +37,23 @@ public class SuggestionResponse {
         this.suggestions = suggestions.stream().map(Suggestion::new).collect(Collectors.toList());
     }
 
+    private SuggestionResponse(List<Suggestion> suggestions, int cursor, int anchor) {
+        this.cursor = cursor;
+        this.anchor = anchor;
+        this.suggestions = suggestions;
+    }
+
+    /**
+     * The same suggestions for the same text at another cursor position, e.g. when the text before the cursor only
+     * differs in whitespace or imports.
+     */
+    public SuggestionResponse movedTo(int cursor) {
+        if (cursor == this.cursor) {
+            return this;
+        }
+        return new SuggestionResponse(suggestions, cursor, anchor + cursor - this.cursor);
+    }
+
     /** The cursor position from which the text should be replaced */
     public int getAnchor() {
         return anchor;
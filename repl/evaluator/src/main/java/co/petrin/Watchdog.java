@@ -0,0 +1,123 @@
+package co.petrin;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Enforces an evaluation's wall-clock and CPU time limits. When a limit is exceeded, the watchdog escalates: first
+ * the running code is asked to stop, and if it is still running after a grace period, the evaluation engine's
+ * process is destroyed.
+ */
+public class Watchdog {
+
+    /** How much longer the code may run after having been asked to stop */
+    static final long GRACE_PERIOD_MS = 3000;
+
+    private static final long CHECK_INTERVAL_MS = 100;
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "evaluator-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** How far the watchdog has escalated */
+    public enum Stage {
+        /** The limits have not been exceeded */
+        WATCHING,
+        /** The running code has been asked to stop */
+        STOPPED,
+        /** The evaluation engine's process has been destroyed */
+        DESTROYED
+    }
+
+    private final Runnable stop;
+    private final Runnable destroy;
+    private final LongSupplier cpuNanos;
+    private final long wallLimitMs;
+    private final long cpuLimitMs;
+
+    private final long startedAt = System.currentTimeMillis();
+    private final long cpuNanosAtStart;
+    private volatile Stage stage = Stage.WATCHING;
+    private volatile String reason;
+    private long stoppedAt;
+    private final ScheduledFuture<?> check;
+
+    /**
+     * Starts watching.
+     * @param stop Asks the running code to stop.
+     * @param destroy Destroys the evaluation engine's process.
+     * @param cpuNanos Measures the CPU time used by the evaluation engine so far, returns a negative number if it cannot.
+     * @param wallLimitMs The wall-clock time limit, 0 for none.
+     * @param cpuLimitMs The CPU time limit, 0 for none.
+     */
+    public Watchdog(Runnable stop, Runnable destroy, LongSupplier cpuNanos, long wallLimitMs, long cpuLimitMs) {
+        this.stop = stop;
+        this.destroy = destroy;
+        this.cpuNanos = cpuNanos;
+        this.wallLimitMs = wallLimitMs;
+        this.cpuLimitMs = cpuLimitMs;
+        this.cpuNanosAtStart = cpuLimitMs > 0 ? cpuNanos.getAsLong() : -1;
+        this.check = wallLimitMs > 0 || cpuNanosAtStart >= 0
+            ? timer.scheduleWithFixedDelay(this::check, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS)
+            : null;
+    }
+
+    /** Stops watching */
+    public void disarm() {
+        if (check != null) {
+            check.cancel(false);
+        }
+    }
+
+    /** Has a limit been exceeded? */
+    public boolean hasFired() {
+        return stage != Stage.WATCHING;
+    }
+
+    /** The time since the watchdog was started */
+    public long getElapsedMs() {
+        return System.currentTimeMillis() - startedAt;
+    }
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    /** Which limit was exceeded, or null if none was */
+    public String getReason() {
+        return reason;
+    }
+
+    private void check() {
+        long now = System.currentTimeMillis();
+        if (stage == Stage.WATCHING) {
+            if (wallLimitMs > 0 && now - startedAt > wallLimitMs) {
+                fire("The evaluation took longer than " + wallLimitMs / 1000.0 + " seconds", now);
+            } else if (cpuNanosAtStart >= 0) {
+                long usedNanos = cpuNanos.getAsLong() - cpuNanosAtStart;
+                if (usedNanos > TimeUnit.MILLISECONDS.toNanos(cpuLimitMs)) {
+                    fire("The evaluation used more than " + cpuLimitMs / 1000.0 + " seconds of CPU time", now);
+                }
+            }
+        } else if (stage == Stage.STOPPED && now - stoppedAt > GRACE_PERIOD_MS) {
+            stage = Stage.DESTROYED;
+            disarm();
+            destroy.run();
+        } else if (stage == Stage.STOPPED) {
+            // asking to stop while no user code runs (e.g. while a snippet is compiled) has no effect, so keep asking
+            stop.run();
+        }
+    }
+
+    private void fire(String reason, long now) {
+        this.reason = reason;
+        this.stoppedAt = now;
+        this.stage = Stage.STOPPED;
+        stop.run();
+    }
+}
@@ -0,0 +1,39 @@
+package co.petrin.augmentation;
+
+import co.petrin.Database;
+import jdk.jshell.SnippetEvent;
+
+/**
+ * Produces an extra output for an evaluation's result, such as the SQL of a query or a chart of a result's numbers.
+ * The output is computed in the evaluation engine once the main result has been sent, alongside the outputs of the
+ * other augmentors, and is sent as a line of JSON in the shape of an {@link co.petrin.AugmentedOutput}.
+ */
+public interface Augmentor {
+
+    /** A short, human-presentable name for the output, e.g. 'SQL' */
+    String getName();
+
+    /** The well-known format type downstream renderers can use to present the output */
+    String getType();
+
+    /** How long computing the output may take before it is given up on, in milliseconds */
+    long getBudgetMs();
+
+    /**
+     * Creates the Java expression that computes the output in the evaluation engine.
+     * @param event The evaluation event of the script's last snippet.
+     * @param db The database the script was evaluated against, may be null.
+     * @return An expression of type String that may evaluate to null if there is nothing to show after all, or null if
+     * the augmentor has nothing to add to the snippet's result
+     */
+    String createExpression(SnippetEvent event, Database db);
+
+    /**
+     * Does the output need the script's database connection? If so, the connection is kept open until the output has
+     * been computed instead of being released when the evaluation ends.
+     * @param event The evaluation event of the script's last snippet.
+     */
+    default boolean needsConnection(SnippetEvent event) {
+        return false;
+    }
+}
@@ -0,0 +1,50 @@
+package co.petrin.augmentation;
+
+import co.petrin.Database;
+import jdk.jshell.SnippetEvent;
+
+/**
+ * Turns the numbers in a jOOQ result into chart data, see {@link co.petrin.remote.Charts}. Cursors are not charted,
+ * as their rows can only be read once.
+ */
+public class Chart implements Augmentor {
+
+    public static final String TYPE = "json/chart";
+
+    /** The maximum number of rows charted */
+    static final int MAX_POINTS = 1000;
+
+    private final long budgetMs;
+
+    public Chart() {
+        this(1000);
+    }
+
+    public Chart(long budgetMs) {
+        this.budgetMs = budgetMs;
+    }
+
+    @Override
+    public String getName() {
+        return "Chart";
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public long getBudgetMs() {
+        return budgetMs;
+    }
+
+    @Override
+    public String createExpression(SnippetEvent event, Database db) {
+        var page = JooqGrid.firstPage(event);
+        if (page == null || page.cursor) {
+            return null;
+        }
+        return "co.petrin.remote.Charts.toJson(" + page.variable + ", " + MAX_POINTS + ")";
+    }
+}
@@ -0,0 +1,73 @@
+package co.petrin.augmentation;
+
+import co.petrin.Database;
+import jdk.jshell.Snippet;
+import jdk.jshell.SnippetEvent;
+import jdk.jshell.VarSnippet;
+
+/**
+ * Explains how the database runs a jOOQ select a script ends with, using the script's own connection: the plan in
+ * the database's words (e.g. <code>EXPLAIN</code>, or <code>EXPLAIN (ANALYZE, BUFFERS)</code> on PostgreSQL if
+ * {@link Database#explainAnalyze} is set) along with how much of the time was spent in the database and how much
+ * mapping the rows to records, see {@link co.petrin.remote.Plans}.
+ *
+ * As the query is run again to time it, only selects the script has run itself and that only read are explained.
+ */
+public class Explain implements Augmentor {
+
+    public static final String TYPE = "json/explain";
+
+    /** The maximum number of rows fetched when timing the query */
+    static final int MAX_ROWS = 10_000;
+
+    private final long budgetMs;
+
+    public Explain() {
+        this(10_000);
+    }
+
+    public Explain(long budgetMs) {
+        this.budgetMs = budgetMs;
+    }
+
+    @Override
+    public String getName() {
+        return "Plan";
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public long getBudgetMs() {
+        return budgetMs;
+    }
+
+    @Override
+    public boolean needsConnection(SnippetEvent event) {
+        return getQueryVariable(event) != null;
+    }
+
+    @Override
+    public String createExpression(SnippetEvent event, Database db) {
+        var variable = getQueryVariable(event);
+        if (variable == null || db == null) {
+            return null;
+        }
+        int timeoutSeconds = (int) Math.max(1, (budgetMs + 999) / 1000);
+        return variable + " instanceof org.jooq.Select ? co.petrin.remote.Plans.explain((org.jooq.Select<?>) " + variable + ", "
+            + MAX_ROWS + ", " + timeoutSeconds + ", " + db.explainAnalyze + ") : null";
+    }
+
+    /** The variable holding the query the snippet ends with, if it may hold one */
+    private static String getQueryVariable(SnippetEvent event) {
+        if (event.snippet().kind() != Snippet.Kind.VAR || JooqGrid.firstPage(event) != null) {
+            return null;
+        }
+        // the declared type may be any of jOOQ's DSL steps, only the value knows whether it is a select
+        var snippet = (VarSnippet)event.snippet();
+        return snippet.typeName() != null && snippet.typeName().startsWith("org.jooq.") ? snippet.name() : null;
+    }
+}
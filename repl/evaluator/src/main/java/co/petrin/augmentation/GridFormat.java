@@ -0,0 +1,17 @@
+package co.petrin.augmentation;
+
+/** How the records of a grid are written, see {@link JooqGrid} */
+public enum GridFormat {
+    /**
+     * Every page as a single line of type {@link JooqGrid#TYPE}, whose output holds the page as formatted by jOOQ's
+     * formatJSON. This is how grids were written before they were streamed, and clients that don't ask for one of the
+     * other formats still expect it.
+     */
+    SINGLE_LINE,
+
+    /** A header line followed by lines of type {@link JooqGrid#RECORDS_TYPE}, each holding a chunk of records */
+    RECORDS,
+
+    /** A header line followed by lines of type {@link JooqGrid#COLUMNS_TYPE}, each holding a chunk of records column by column */
+    COLUMNS
+}
@@ -0,0 +1,33 @@
+package co.petrin.augmentation;
+
+/**
+ * Points to the rows of a grid that have not been sent to the client yet. The rows stay in the evaluation engine,
+ * either in a fully fetched jOOQ Result or in a lazy Cursor.
+ */
+public class GridPage {
+
+    /** The name of the variable holding the Result or Cursor */
+    public final String variable;
+
+    /** Is the variable a Cursor, i.e. are the remaining rows still in the database? */
+    public final boolean cursor;
+
+    /** The number of rows already sent */
+    public final long offset;
+
+    public GridPage(String variable, boolean cursor, long offset) {
+        this.variable = variable;
+        this.cursor = cursor;
+        this.offset = offset;
+    }
+
+    /** Creates a pointer to the same grid at a later offset */
+    public GridPage withOffset(long offset) {
+        return new GridPage(variable, cursor, offset);
+    }
+
+    @Override
+    public String toString() {
+        return variable + " @ " + offset;
+    }
+}
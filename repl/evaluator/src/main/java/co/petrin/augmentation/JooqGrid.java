@@ -1,61 +1,174 @@
 package co.petrin.augmentation;
 
-import co.petrin.AugmentedOutput;
-import co.petrin.Evaluator;
-import jdk.jshell.JShell;
+import jdk.jshell.Snippet;
 import jdk.jshell.SnippetEvent;
 import jdk.jshell.VarSnippet;
-import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.text.StringEscapeUtils;
-import org.jooq.Result;
 
-import java.io.ByteArrayOutputStream;
-import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
 
 /**
- * An output augmentation for jOOQ results, calls their formatJSON function.
+ * An output augmentation for jOOQ results and cursors, streams them as a grid.
+ *
+ * The grid is printed by the evaluation engine as lines of JSON: a header line with the grid's name, type and
+ * fields (in the format of jOOQ's formatJSON, with an empty records array), followed by lines containing the
+ * records in chunks. This way neither the engine nor the server ever hold more than one chunk of the formatted
+ * result in memory. Clients that can decode them get the chunks' records column by column instead where that is
+ * smaller, see {@link co.petrin.remote.GridColumns}. Clients that don't ask for either get every page in a single line, the way
+ * grids were written before they were streamed, see {@link GridFormat#SINGLE_LINE}.
+ *
+ * At most a row limit's worth of records is printed at once. If there are more, a line pointing to the next page is
+ * printed last; the rest of the rows stay in the engine until they are asked for.
  */
-public class JooqGrid implements AugmentedOutput {
+public class JooqGrid {
 
-    private String output;
+    /** The type of the header line */
+    public static final String TYPE = "json/jooq-grid";
 
-    @Override
-    public String getType() {
-        return "json/jooq-grid";
+    /** The type of the lines carrying records */
+    public static final String RECORDS_TYPE = "json/jooq-grid-records";
+
+    /** The type of the lines carrying records column by column, in base64 */
+    public static final String COLUMNS_TYPE = "base64/jooq-grid-columns";
+
+    /** The type of the line pointing to the next page */
+    public static final String MORE_TYPE = "json/jooq-grid-more";
+
+    /** The number of records in a single line */
+    static final int CHUNK_SIZE = 500;
+
+    private static final Pattern MORE_LINE = Pattern.compile("\\{\"type\":\"" + Pattern.quote(MORE_TYPE) + "\",\"offset\":([0-9]+)}");
+
+    private JooqGrid() {
     }
 
-    @Override
-    public String getName() {
-        return "Grid";
+    /**
+     * Finds the grid an evaluated snippet produced.
+     * @return The grid's first page, or null if the snippet did not produce a jOOQ result or cursor
+     */
+    public static GridPage firstPage(SnippetEvent event) {
+        if (event.snippet().kind() != Snippet.Kind.VAR) {
+            return null;
+        }
+        // this can fail because of generics and classes only loaded into the evaluator!
+        // Class outputClass = Class.forName(snippet.typeName());
+        var snippet = (VarSnippet)event.snippet();
+        if (snippet.typeName() == null) {
+            return null;
+        } else if (snippet.typeName().startsWith("org.jooq.Result")) {
+            return new GridPage(snippet.name(), false, 0);
+        } else if (snippet.typeName().startsWith("org.jooq.Cursor")) {
+            return new GridPage(snippet.name(), true, 0);
+        }
+        return null;
     }
 
-    @Override
-    public String getOutput() {
-        return this.output;
+    /** Does the snippet's value hold on to a database connection? */
+    public static boolean holdsConnection(SnippetEvent event) {
+        var page = firstPage(event);
+        return page != null && page.cursor;
     }
 
-    private JooqGrid(String output) {
-        this.output = output;
+    /**
+     * Creates a snippet that prints a page of the grid to the standard output, preceded by the header if it is the
+     * first page.
+     * @param page The page to print.
+     * @param rowLimit The maximum number of rows to print, 0 for all of them.
+     * @param format How to print the records.
+     */
+    public static String createSnippet(GridPage page, int rowLimit, GridFormat format) {
+        long limit = rowLimit > 0 ? rowLimit : Integer.MAX_VALUE;
+        var snippet = new StringBuilder();
+        // the local variables are prefixed so they don't shadow the user's own variables
+        snippet.append("{\n")
+            .append("    var grid$source = ").append(page.variable).append(";\n")
+            .append("    var grid$ctx = org.jooq.impl.DSL.using(org.jooq.SQLDialect.DEFAULT);\n")
+            .append("    var grid$format = new org.jooq.JSONFormat().header(false);\n");
+        if (format == GridFormat.SINGLE_LINE) {
+            return appendSingleLine(snippet, page, limit).append("}").toString();
+        }
+        boolean columns = format == GridFormat.COLUMNS;
+        if (page.offset == 0) {
+            snippet.append("    System.out.println(\"{\\\"name\\\":\\\"Grid\\\",\\\"type\\\":\\\"" + TYPE + "\\\",\" + grid$ctx.newResult(grid$source.fields()).formatJSON().substring(1));\n");
+        }
+        if (page.cursor) {
+            snippet
+                .append("    long grid$printed = 0;\n")
+                .append("    while (grid$printed < ").append(limit).append("L && grid$source.hasNext()) {\n")
+                .append("        var grid$chunk = grid$source.fetchNext((int)Math.min(" + CHUNK_SIZE + ", ").append(limit).append("L - grid$printed));\n")
+                .append("        grid$printed += grid$chunk.size();\n")
+                .append("        ").append(printRecords("grid$chunk", columns)).append("\n")
+                .append("    }\n")
+                .append("    if (grid$source.hasNext()) {\n")
+                .append("        ").append(printMore(page.offset + "L + grid$printed")).append("\n")
+                .append("    }\n");
+        } else {
+            snippet
+                .append("    int grid$end = (int)Math.min(grid$source.size(), ").append(page.offset).append("L + ").append(limit).append("L);\n")
+                .append("    for (int grid$from = ").append(page.offset).append("; grid$from < grid$end; grid$from += " + CHUNK_SIZE + ") {\n")
+                .append("        var grid$chunk = grid$ctx.newResult(grid$source.fields());\n")
+                .append("        grid$chunk.addAll(grid$source.subList(grid$from, Math.min(grid$end, grid$from + " + CHUNK_SIZE + ")));\n")
+                .append("        ").append(printRecords("grid$chunk", columns)).append("\n")
+                .append("    }\n")
+                .append("    if (grid$end < grid$source.size()) {\n")
+                .append("        ").append(printMore("grid$end")).append("\n")
+                .append("    }\n");
+        }
+        return snippet.append("}").toString();
+    }
+
+    /**
+     * Recognizes the line pointing to the next page.
+     * @param page The page that was being printed.
+     * @param line A line printed by the snippet.
+     * @return The next page, or null if the line is not a pointer to it
+     */
+    public static GridPage parseNextPage(GridPage page, String line) {
+        var matcher = MORE_LINE.matcher(line);
+        return matcher.matches() ? page.withOffset(Long.parseLong(matcher.group(1))) : null;
     }
 
-    public static JooqGrid augment(JShell shell, SnippetEvent event, ByteArrayOutputStream outputStorage) {
-        switch(event.snippet().kind()) {
-            case VAR: return augmentVarSnippet(shell, (VarSnippet)event.snippet(), outputStorage);
+    /** Appends the statements printing the whole page, formatted by jOOQ, as the output of a single line */
+    private static StringBuilder appendSingleLine(StringBuilder snippet, GridPage page, long limit) {
+        if (page.cursor) {
+            snippet
+                .append("    var grid$page = grid$source.fetchNext((int)").append(limit).append("L);\n")
+                .append("    boolean grid$more = grid$source.hasNext();\n")
+                .append("    long grid$end = ").append(page.offset).append("L + grid$page.size();\n");
+        } else {
+            snippet
+                .append("    int grid$end = (int)Math.min(grid$source.size(), ").append(page.offset).append("L + ").append(limit).append("L);\n")
+                .append("    var grid$page = grid$ctx.newResult(grid$source.fields());\n")
+                .append("    grid$page.addAll(grid$source.subList(").append(page.offset).append(", grid$end));\n")
+                .append("    boolean grid$more = grid$end < grid$source.size();\n");
         }
-        return null;
+        // formatJSON writes a single line, so only backslashes and quotes need escaping to make it a JSON string
+        return snippet
+            .append("    System.out.println(\"{\\\"name\\\":\\\"Grid\\\",\\\"type\\\":\\\"" + TYPE + "\\\",\\\"output\\\":\\\"\" + grid$page.formatJSON().replace(\"\\\\\", \"\\\\\\\\\").replace(\"\\\"\", \"\\\\\\\"\") + \"\\\"}\");\n")
+            .append("    if (grid$more) {\n")
+            .append("        ").append(printMore("grid$end")).append("\n")
+            .append("    }\n");
     }
 
-    private static JooqGrid augmentVarSnippet(JShell shell, VarSnippet snippet, ByteArrayOutputStream outputStorage) {
-        if (snippet.typeName() != null && snippet.typeName().startsWith("org.jooq")) {
-            // this can fail because of generics and classes only loaded into the evaluator!
-            // Class outputClass = Class.forName(snippet.typeName());
-            if (snippet.typeName().startsWith("org.jooq.Result")) {
-                outputStorage.reset();
-                var event = Evaluator.runSingleSnippet(shell, "System.out.println(" + snippet.name() + ".formatJSON());");
-                var eventValue = new String(outputStorage.toByteArray(), StandardCharsets.UTF_8);
-                return new JooqGrid(eventValue);
-            }
+    /**
+     * Prints a chunk of records. If the client decodes columns, they are printed instead of the JSON records unless
+     * they would take up more, as is the case for text, see {@link co.petrin.remote.GridColumns}.
+     */
+    private static String printRecords(String result, boolean columns) {
+        if (columns) {
+            return "{ var grid$records = " + result + ".formatJSON(grid$format); "
+                + "var grid$columns = co.petrin.remote.GridColumns.encode(" + result + "); "
+                + "if (grid$columns.length() < grid$records.length()) { "
+                + "System.out.println(\"{\\\"type\\\":\\\"" + COLUMNS_TYPE + "\\\",\\\"columns\\\":\\\"\" + grid$columns + \"\\\"}\"); "
+                + "} else { " + printRecordsLine("grid$records") + " } }";
         }
-        return null;
+        return printRecordsLine(result + ".formatJSON(grid$format)");
+    }
+
+    private static String printRecordsLine(String records) {
+        return "System.out.println(\"{\\\"type\\\":\\\"" + RECORDS_TYPE + "\\\",\\\"records\\\":\" + " + records + " + \"}\");";
+    }
+
+    private static String printMore(String offset) {
+        return "System.out.println(\"{\\\"type\\\":\\\"" + MORE_TYPE + "\\\",\\\"offset\\\":\" + (" + offset + ") + \"}\");";
     }
 }
@@ -0,0 +1,57 @@
+package co.petrin.augmentation;
+
+import co.petrin.AugmentationSink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Passes everything written into it on to an augmentation sink, line by line. Only a single line is ever buffered.
+ */
+public class LineOutputStream extends OutputStream {
+
+    private final AugmentationSink sink;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    public LineOutputStream(AugmentationSink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        if (b == '\n') {
+            writeLine();
+        } else if (b != '\r') {
+            line.write(b);
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] bytes, int offset, int length) {
+        int lineStart = offset;
+        for (int pos = offset; pos < offset + length; pos++) {
+            if (bytes[pos] == '\n' || bytes[pos] == '\r') {
+                line.write(bytes, lineStart, pos - lineStart);
+                if (bytes[pos] == '\n') {
+                    writeLine();
+                }
+                lineStart = pos + 1;
+            }
+        }
+        line.write(bytes, lineStart, offset + length - lineStart);
+    }
+
+    /** Passes on the last line, even if it was not terminated */
+    @Override
+    public synchronized void close() {
+        writeLine();
+    }
+
+    private void writeLine() {
+        if (line.size() > 0) {
+            sink.writeLine(line.toString(StandardCharsets.UTF_8));
+            line.reset();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package co.petrin.augmentation;
+
+import co.petrin.Database;
+import jdk.jshell.SnippetEvent;
+
+/**
+ * Lists the queries a script ran through its <code>jooq</code> context in the order they started, with how long each
+ * took to render, prepare, execute and fetch and how many rows it returned or changed, see
+ * {@link co.petrin.remote.QueryLog}. Useful for spotting N+1 selects and slow fetches.
+ */
+public class QueryTimeline implements Augmentor {
+
+    public static final String TYPE = "json/query-timeline";
+
+    private final long budgetMs;
+
+    public QueryTimeline() {
+        this(1000);
+    }
+
+    public QueryTimeline(long budgetMs) {
+        this.budgetMs = budgetMs;
+    }
+
+    @Override
+    public String getName() {
+        return "Queries";
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public long getBudgetMs() {
+        return budgetMs;
+    }
+
+    @Override
+    public String createExpression(SnippetEvent event, Database db) {
+        // whatever the script ends with, the queries it ran along the way are worth seeing
+        return db != null ? "co.petrin.remote.QueryLog.toJson(jooq)" : null;
+    }
+}
@@ -0,0 +1,52 @@
+package co.petrin.augmentation;
+
+import co.petrin.Database;
+import jdk.jshell.Snippet;
+import jdk.jshell.SnippetEvent;
+import jdk.jshell.VarSnippet;
+
+/**
+ * Shows the SQL a jOOQ query that a script ends with would run, with its bind values inlined.
+ */
+public class RenderedSql implements Augmentor {
+
+    public static final String TYPE = "text/sql";
+
+    private final long budgetMs;
+
+    public RenderedSql() {
+        this(1000);
+    }
+
+    public RenderedSql(long budgetMs) {
+        this.budgetMs = budgetMs;
+    }
+
+    @Override
+    public String getName() {
+        return "SQL";
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public long getBudgetMs() {
+        return budgetMs;
+    }
+
+    @Override
+    public String createExpression(SnippetEvent event, Database db) {
+        if (event.snippet().kind() != Snippet.Kind.VAR) {
+            return null;
+        }
+        var snippet = (VarSnippet)event.snippet();
+        if (snippet.typeName() == null || !snippet.typeName().startsWith("org.jooq.")) {
+            return null;
+        }
+        // the declared type may be any of jOOQ's DSL steps, only the value knows whether it is a query
+        return snippet.name() + " instanceof org.jooq.Query ? ((org.jooq.Query) " + snippet.name() + ").getSQL(org.jooq.conf.ParamType.INLINED) : null";
+    }
+}
@@ -0,0 +1,92 @@
+package co.petrin.augmentation;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.text.StringEscapeUtils;
+
+/**
+ * A top-level snippet of a script that has finished running, sent to clients following the script's progress as soon
+ * as the snippet is done rather than once the whole script is. A step of a script holding a jOOQ result is sent with
+ * the result's first rows.
+ */
+public class ScriptStep {
+
+    public static final String TYPE = "json/script-step";
+
+    public static final String NAME = "Steps";
+
+    /** The maximum number of records sent with a step */
+    public static final int GRID_ROWS = 100;
+
+    /** The maximum length of a step's source, value and output; the full output is part of the script's response */
+    static final int MAX_TEXT_LENGTH = 10_000;
+
+    public enum Status {
+        /** The snippet ran */
+        SUCCESS,
+        /** The snippet threw an exception, ending the script */
+        EXCEPTION,
+        /** The snippet could not be compiled, ending the script */
+        REJECTED
+    }
+
+    /** The index of the snippet in the script, starting at 0 */
+    public final int index;
+    /** The line of the script the snippet starts on, starting at 1 */
+    public final int line;
+    public final String source;
+    public final Status status;
+    /** The value of the snippet's variable or expression, null if it has none */
+    public final String value;
+    /** What the snippet printed to the standard output */
+    public final String output;
+    /** The exception or compilation errors, null if the snippet ran */
+    public final String error;
+    public final long compileMs;
+    public final long executeMs;
+    /** The first rows of the snippet's jOOQ result as JSON, see {@link co.petrin.remote.StepGrid} */
+    public final String grid;
+
+    public ScriptStep(int index, int line, String source, Status status, String value, String output, String error,
+                      long compileMs, long executeMs, String grid) {
+        this.index = index;
+        this.line = line;
+        this.source = source;
+        this.status = status;
+        this.value = value;
+        this.output = output;
+        this.error = error;
+        this.compileMs = compileMs;
+        this.executeMs = executeMs;
+        this.grid = grid;
+    }
+
+    /**
+     * Creates the expression describing a step's grid in the evaluation engine.
+     * @param page The first page of the grid, which must not be a cursor, as its rows are still to be fetched.
+     */
+    public static String gridExpression(GridPage page) {
+        return "co.petrin.remote.StepGrid.toJson(" + page.variable + ", " + GRID_ROWS + ")";
+    }
+
+    /** Describes the step as a single line of JSON */
+    public String toJson() {
+        return "{\"name\":" + jsonString(NAME)
+            + ",\"type\":" + jsonString(TYPE)
+            + ",\"index\":" + index
+            + ",\"line\":" + line
+            + ",\"source\":" + jsonString(StringUtils.abbreviate(source, MAX_TEXT_LENGTH))
+            + ",\"status\":" + jsonString(status.name())
+            + ",\"value\":" + jsonString(StringUtils.abbreviate(value, MAX_TEXT_LENGTH))
+            + ",\"output\":" + jsonString(StringUtils.abbreviate(output, MAX_TEXT_LENGTH))
+            + ",\"error\":" + jsonString(error)
+            + ",\"durationMs\":" + (compileMs + executeMs)
+            + ",\"compileMs\":" + compileMs
+            + ",\"executeMs\":" + executeMs
+            + ",\"grid\":" + (grid != null ? grid : "null")
+            + "}";
+    }
+
+    private static String jsonString(String value) {
+        return value != null ? "\"" + StringEscapeUtils.escapeJson(value) + "\"" : "null";
+    }
+}
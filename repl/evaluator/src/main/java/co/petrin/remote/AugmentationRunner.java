@@ -0,0 +1,130 @@
+package co.petrin.remote;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Produces the augmented outputs of an evaluation inside the evaluation engine's JVM. The outputs are computed
+ * alongside each other, each on a thread of its own, and every output is printed to the standard output as a line
+ * of JSON as soon as it is ready. Outputs that take longer than their time budget are given up on and never printed.
+ */
+public class AugmentationRunner {
+
+    /** An augmented output that is yet to be computed */
+    public static class Task {
+        final String name;
+        final String type;
+        final long budgetNanos;
+        final Callable<String> output;
+
+        Task(String name, String type, long budgetNanos, Callable<String> output) {
+            this.name = name;
+            this.type = type;
+            this.budgetNanos = budgetNanos;
+            this.output = output;
+        }
+    }
+
+    private AugmentationRunner() {
+    }
+
+    /**
+     * Describes an augmented output.
+     * @param name The output's human-presentable name.
+     * @param type The output's format type.
+     * @param budgetMs How long computing the output may take.
+     * @param output Computes the output; may return null if there is nothing to show after all.
+     */
+    public static Task task(String name, String type, long budgetMs, Callable<String> output) {
+        return new Task(name, type, TimeUnit.MILLISECONDS.toNanos(budgetMs), output);
+    }
+
+    /**
+     * Computes the outputs and prints them in the order they complete. Returns once every output has been printed,
+     * has failed or has run out of time.
+     */
+    public static void run(List<Task> tasks) throws InterruptedException {
+        var completion = new ExecutorCompletionService<String>(command -> {
+            var thread = new Thread(command, "augmentation");
+            thread.setDaemon(true);
+            thread.start();
+        });
+        long startedAt = System.nanoTime();
+        Map<Future<String>, Task> pending = new HashMap<>();
+        for (var task : tasks) {
+            pending.put(completion.submit(task.output), task);
+        }
+
+        while (!pending.isEmpty()) {
+            long elapsed = System.nanoTime() - startedAt;
+            pending.entrySet().removeIf(entry -> {
+                if (elapsed >= entry.getValue().budgetNanos) {
+                    entry.getKey().cancel(true);
+                    return true;
+                }
+                return false;
+            });
+            if (pending.isEmpty()) {
+                break;
+            }
+
+            long wait = pending.values().stream().mapToLong(task -> task.budgetNanos).min().getAsLong() - elapsed;
+            var done = completion.poll(wait, TimeUnit.NANOSECONDS);
+            // cancelled outputs complete too, but are no longer pending
+            var task = done != null ? pending.remove(done) : null;
+            if (task != null) {
+                print(task, done);
+            }
+        }
+    }
+
+    private static void print(Task task, Future<String> done) {
+        String output;
+        try {
+            output = done.get();
+        } catch (ExecutionException | InterruptedException ex) {
+            return;
+        }
+        if (output != null) {
+            System.out.println("{\"name\":" + jsonString(task.name) + ",\"type\":" + jsonString(task.type) + ",\"output\":" + jsonString(output) + "}");
+        }
+    }
+
+    /** Quotes and escapes a string for JSON */
+    static String jsonString(String value) {
+        var json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"').toString();
+    }
+}
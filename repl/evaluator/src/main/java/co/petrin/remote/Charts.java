@@ -0,0 +1,68 @@
+package co.petrin.remote;
+
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Result;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Turns jOOQ results into data for charts, inside the evaluation engine's JVM. The first column that is not numeric
+ * labels the points (or the first numeric one, if they all are), and the other numeric columns become series of
+ * values.
+ */
+public class Charts {
+
+    /** The maximum number of series in a chart */
+    static final int MAX_SERIES = 8;
+
+    private Charts() {
+    }
+
+    /**
+     * Creates the chart data for a result, e.g. <code>{"labels":["a","b"],"series":[{"name":"count","values":[1,2]}]}</code>.
+     * @param result The result to chart.
+     * @param maxPoints The maximum number of rows to chart.
+     * @return The chart data as JSON, or null if the result has nothing to chart or too few rows to chart
+     */
+    public static String toJson(Result<? extends Record> result, int maxPoints) {
+        if (result == null || result.size() < 2) {
+            return null;
+        }
+        Field<?> labelField = null;
+        List<Field<?>> valueFields = new ArrayList<>();
+        for (var field : result.fields()) {
+            if (Number.class.isAssignableFrom(field.getType())) {
+                valueFields.add(field);
+            } else if (labelField == null) {
+                labelField = field;
+            }
+        }
+        if (labelField == null && valueFields.size() > 1) {
+            // e.g. years and counts, the first numeric column labels the rest
+            labelField = valueFields.remove(0);
+        }
+        if (labelField == null || valueFields.isEmpty()) {
+            return null;
+        }
+        valueFields = valueFields.subList(0, Math.min(valueFields.size(), MAX_SERIES));
+
+        var rows = result.subList(0, Math.min(result.size(), maxPoints));
+        var labels = new ArrayList<String>();
+        for (var row : rows) {
+            var label = row.get(labelField);
+            labels.add(AugmentationRunner.jsonString(label != null ? label.toString() : ""));
+        }
+        var series = new ArrayList<String>();
+        for (var field : valueFields) {
+            var values = rows.stream()
+                .map(row -> (Number) row.get(field))
+                .map(value -> value != null && Double.isFinite(value.doubleValue()) ? value.toString() : "null")
+                .collect(Collectors.joining(","));
+            series.add("{\"name\":" + AugmentationRunner.jsonString(field.getName()) + ",\"values\":[" + values + "]}");
+        }
+        return "{\"labels\":[" + String.join(",", labels) + "],\"series\":[" + String.join(",", series) + "]}";
+    }
+}
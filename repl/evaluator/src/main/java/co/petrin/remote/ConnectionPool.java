@@ -0,0 +1,230 @@
+package co.petrin.remote;
+
+import org.jooq.ConnectionProvider;
+import org.jooq.exception.DataAccessException;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small JDBC connection pool that lives inside the evaluation engine's JVM, so that evaluators which run many
+ * scripts do not have to open a new physical database connection for each one.
+ *
+ * Scripts never see the pool directly: each evaluation gets a {@link Lease}, a jOOQ {@link ConnectionProvider} that
+ * borrows connections from the pool and is closed when the evaluation ends, returning everything it borrowed.
+ */
+public class ConnectionPool {
+
+    /** How long to wait for a free connection before giving up */
+    private static final long ACQUIRE_TIMEOUT_MS = 30_000;
+
+    /** How long a connection validity check may take */
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    /** All the pools in this JVM, keyed by connection string and user */
+    private static final Map<String, ConnectionPool> pools = new ConcurrentHashMap<>();
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final long maxLifetimeMs;
+    private final String validationQuery;
+
+    /** Limits the number of connections open at the same time, idle or borrowed */
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+
+    private ConnectionPool(String url, String user, String password, int size, long maxLifetimeMs, String validationQuery) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxLifetimeMs = maxLifetimeMs;
+        this.validationQuery = validationQuery;
+        this.permits = new Semaphore(size);
+    }
+
+    /**
+     * Returns the pool for the given database, creating it on first use. The pool's settings are fixed when it is
+     * created.
+     * @param url The JDBC connection string.
+     * @param user The user to connect as.
+     * @param password The user's password.
+     * @param size The maximum number of connections open at the same time.
+     * @param maxLifetimeMs Connections older than this are closed instead of being reused, 0 for no limit.
+     * @param validationQuery A query that must succeed for an idle connection to be handed out again, or null to use
+     *                        the JDBC driver's own validity check.
+     */
+    public static ConnectionPool get(String url, String user, String password, int size, long maxLifetimeMs, String validationQuery) {
+        return pools.computeIfAbsent(url + "\u0000" + user,
+            key -> new ConnectionPool(url, user, password, size, maxLifetimeMs, validationQuery));
+    }
+
+    /** Leases that have not been closed yet, across all pools */
+    private static final Set<Lease> openLeases = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Starts a new lease that borrows connections from this pool until it is closed.
+     * @param owner Identifies whoever the lease is for, e.g. an evaluator, so that its leases can be ended
+     *              without ending those of other evaluators sharing the JVM.
+     */
+    public Lease lease(String owner) {
+        var lease = new Lease(owner);
+        openLeases.add(lease);
+        return lease;
+    }
+
+    /** Closes the open leases of an owner, returning their connections; called when its evaluation ends */
+    public static void endLeases(String owner) {
+        for (var lease : openLeases) {
+            if (lease.owner.equals(owner)) {
+                lease.close();
+            }
+        }
+    }
+
+    /** The number of connections waiting to be borrowed */
+    public int idleCount() {
+        return idle.size();
+    }
+
+    private PooledConnection borrow() {
+        try {
+            if (!permits.tryAcquire(ACQUIRE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new DataAccessException("No database connection became available in " + ACQUIRE_TIMEOUT_MS + " ms");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DataAccessException("Interrupted while waiting for a database connection", ex);
+        }
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (!isExpired(pooled) && isValid(pooled.connection)) {
+                    return pooled;
+                }
+                closeQuietly(pooled.connection);
+            }
+            return new PooledConnection(DriverManager.getConnection(url, user, password));
+        } catch (SQLException | RuntimeException ex) {
+            permits.release();
+            throw new DataAccessException("An exception occurred connecting to the database", ex);
+        }
+    }
+
+    /** Puts a borrowed connection back into the pool, or closes it if it should not be reused */
+    private void giveBack(PooledConnection pooled) {
+        try {
+            if (isExpired(pooled) || pooled.connection.isClosed()) {
+                closeQuietly(pooled.connection);
+            } else {
+                if (!pooled.connection.getAutoCommit()) {
+                    pooled.connection.rollback();
+                    pooled.connection.setAutoCommit(true);
+                }
+                idle.addFirst(pooled);
+            }
+        } catch (SQLException ex) {
+            closeQuietly(pooled.connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /** Closes a borrowed connection whose state is unknown, e.g. because a cursor may still be open on it */
+    private void discard(PooledConnection pooled) {
+        closeQuietly(pooled.connection);
+        permits.release();
+    }
+
+    private boolean isExpired(PooledConnection pooled) {
+        return maxLifetimeMs > 0 && System.currentTimeMillis() - pooled.createdAt > maxLifetimeMs;
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            if (validationQuery == null) {
+                return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+            }
+            try (var statement = connection.createStatement()) {
+                statement.setQueryTimeout(VALIDATION_TIMEOUT_SECONDS);
+                statement.execute(validationQuery);
+                return true;
+            }
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ex) {
+            // the connection is being thrown away anyway
+        }
+    }
+
+    /** A physical connection together with the time it was opened */
+    private static class PooledConnection {
+        final Connection connection;
+        final long createdAt = System.currentTimeMillis();
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * A connection provider for a single evaluation. jOOQ releases connections after each query, which returns them
+     * to the pool; connections still held when the lease is closed (e.g. by an unclosed lazy cursor) are closed.
+     */
+    public class Lease implements ConnectionProvider, AutoCloseable {
+        private final String owner;
+        private final List<PooledConnection> borrowed = new ArrayList<>();
+        private boolean closed;
+
+        private Lease(String owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public synchronized Connection acquire() throws DataAccessException {
+            if (closed) {
+                throw new DataAccessException("The evaluation has ended, its database connections are no longer available");
+            }
+            var pooled = borrow();
+            borrowed.add(pooled);
+            return pooled.connection;
+        }
+
+        @Override
+        public synchronized void release(Connection connection) throws DataAccessException {
+            for (var iter = borrowed.iterator(); iter.hasNext(); ) {
+                var pooled = iter.next();
+                if (pooled.connection == connection) {
+                    iter.remove();
+                    giveBack(pooled);
+                    return;
+                }
+            }
+        }
+
+        /** Ends the lease, closing any connections that were not released */
+        @Override
+        public synchronized void close() {
+            closed = true;
+            openLeases.remove(this);
+            borrowed.forEach(ConnectionPool.this::discard);
+            borrowed.clear();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package co.petrin.remote;
+
+import org.jooq.Record;
+import org.jooq.Result;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Encodes the records of a jOOQ result column by column, inside the evaluation engine's JVM. Clients can read the
+ * columns straight into typed arrays instead of parsing every value of every record from JSON, which makes a
+ * difference for large and wide grids of numbers.
+ *
+ * The encoding is little-endian, and every section starts at a multiple of 8 bytes so that it can be viewed as a
+ * typed array without copying:
+ * <ul>
+ *     <li>the number of rows and the number of columns, as two int32s</li>
+ *     <li>for every column, its kind as an int32 followed by the length of its data as an int32, a bitmap with a set
+ *     bit for every row that is not null and the data itself:
+ *     <ul>
+ *         <li>{@link #INT8}: an int8 per row</li>
+ *         <li>{@link #INT16}: an int16 per row</li>
+ *         <li>{@link #INT32}: an int32 per row</li>
+ *         <li>{@link #FLOAT64}: a float64 per row</li>
+ *         <li>{@link #BOOLEAN}: a byte per row, 1 for true</li>
+ *         <li>{@link #STRING}: the start offsets of the rows' UTF-8 bytes plus the end offset of the last row, as
+ *         int32s, followed by the bytes</li>
+ *     </ul></li>
+ * </ul>
+ * Values that cannot be represented exactly as numbers in a browser, such as decimals and very large longs, are
+ * sent as strings. Other values are sent as the same strings jOOQ's <code>formatJSON</code> uses. Integers get the
+ * narrowest kind that holds all of the column's values.
+ *
+ * Being base64-encoded inside a line of JSON, the columns take up a third more than their bytes. Compared with the
+ * records in JSON, for 500 rows of a single column they take:
+ * <ul>
+ *     <li>integers: a third of the size for small ones and less than half for large ones</li>
+ *     <li>doubles: about half for random ones, but a quarter more for ones with few digits, e.g. prices</li>
+ *     <li>booleans: a fifth</li>
+ *     <li>strings, dates and timestamps: about a quarter more, as the offsets are larger than JSON's quotes</li>
+ * </ul>
+ * A chunk of records is therefore only sent as columns if they are smaller than its JSON records, see
+ * {@link co.petrin.augmentation.JooqGrid}.
+ */
+public class GridColumns {
+
+    public static final int INT32 = 0;
+    public static final int FLOAT64 = 1;
+    public static final int BOOLEAN = 2;
+    public static final int STRING = 3;
+    public static final int INT8 = 4;
+    public static final int INT16 = 5;
+
+    /** The largest integer a float64 can hold exactly */
+    private static final long MAX_SAFE_INTEGER = (1L << 53) - 1;
+
+    private GridColumns() {
+    }
+
+    /**
+     * Encodes the records of a result.
+     * @return The encoded columns, in base64
+     */
+    public static String encode(Result<? extends Record> result) {
+        int rows = result.size();
+        int columns = result.fields().length;
+        var kinds = new int[columns];
+        var strings = new byte[columns][][];
+        int size = 8;
+        for (int column = 0; column < columns; column++) {
+            kinds[column] = kind(result, column);
+            if (kinds[column] == STRING) {
+                strings[column] = new byte[rows][];
+                for (int row = 0; row < rows; row++) {
+                    var value = result.get(row).get(column);
+                    strings[column][row] = value == null ? new byte[0] : format(value).getBytes(StandardCharsets.UTF_8);
+                }
+            }
+            size += 8 + pad((rows + 7) / 8) + pad(dataLength(kinds[column], rows, strings[column]));
+        }
+
+        var buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(rows).putInt(columns);
+        for (int column = 0; column < columns; column++) {
+            int kind = kinds[column];
+            buffer.putInt(kind).putInt(dataLength(kind, rows, strings[column]));
+
+            var valid = new byte[pad((rows + 7) / 8)];
+            for (int row = 0; row < rows; row++) {
+                if (result.get(row).get(column) != null) {
+                    valid[row >> 3] |= 1 << (row & 7);
+                }
+            }
+            buffer.put(valid);
+
+            int start = buffer.position();
+            if (kind == STRING) {
+                int offset = 0;
+                for (int row = 0; row < rows; row++) {
+                    buffer.putInt(offset);
+                    offset += strings[column][row].length;
+                }
+                buffer.putInt(offset);
+                buffer.position(start + pad(4 * (rows + 1)));
+                for (int row = 0; row < rows; row++) {
+                    buffer.put(strings[column][row]);
+                }
+            } else {
+                for (int row = 0; row < rows; row++) {
+                    var value = result.get(row).get(column);
+                    if (kind == INT8) {
+                        buffer.put(value == null ? 0 : ((Number) value).byteValue());
+                    } else if (kind == INT16) {
+                        buffer.putShort(value == null ? 0 : ((Number) value).shortValue());
+                    } else if (kind == INT32) {
+                        buffer.putInt(value == null ? 0 : ((Number) value).intValue());
+                    } else if (kind == FLOAT64) {
+                        buffer.putDouble(value == null ? 0 : toDouble((Number) value));
+                    } else {
+                        buffer.put((byte) (Boolean.TRUE.equals(value) ? 1 : 0));
+                    }
+                }
+            }
+            buffer.position(start + pad(dataLength(kind, rows, strings[column])));
+        }
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    /** Picks the most compact kind that holds every value of the column exactly */
+    private static int kind(Result<? extends Record> result, int column) {
+        var type = result.field(column).getType();
+        if (type == Integer.class || type == Short.class || type == Byte.class || type == Long.class) {
+            long min = 0, max = 0;
+            for (var record : result) {
+                var value = (Number) record.get(column);
+                if (value != null) {
+                    min = Math.min(min, value.longValue());
+                    max = Math.max(max, value.longValue());
+                }
+            }
+            if (min >= Byte.MIN_VALUE && max <= Byte.MAX_VALUE) {
+                return INT8;
+            } else if (min >= Short.MIN_VALUE && max <= Short.MAX_VALUE) {
+                return INT16;
+            } else if (min >= Integer.MIN_VALUE && max <= Integer.MAX_VALUE) {
+                return INT32;
+            } else if (min >= -MAX_SAFE_INTEGER && max <= MAX_SAFE_INTEGER) {
+                return FLOAT64;
+            }
+            return STRING;
+        } else if (type == Double.class || type == Float.class) {
+            return FLOAT64;
+        } else if (type == Boolean.class) {
+            return BOOLEAN;
+        }
+        return STRING;
+    }
+
+    private static double toDouble(Number value) {
+        // a float's double value has digits the float never had, e.g. 0.1f is 0.10000000149011612
+        return value instanceof Float ? Double.parseDouble(value.toString()) : value.doubleValue();
+    }
+
+    private static String format(Object value) {
+        return value instanceof byte[] ? Base64.getEncoder().encodeToString((byte[]) value) : value.toString();
+    }
+
+    private static int dataLength(int kind, int rows, byte[][] strings) {
+        switch (kind) {
+            case INT8:
+            case BOOLEAN:
+                return rows;
+            case INT16:
+                return 2 * rows;
+            case INT32:
+                return 4 * rows;
+            case FLOAT64:
+                return 8 * rows;
+            default:
+                int length = pad(4 * (rows + 1));
+                for (var string : strings) {
+                    length += string.length;
+                }
+                return length;
+        }
+    }
+
+    /** Rounds a length up to the next multiple of 8 */
+    private static int pad(int length) {
+        return (length + 7) & ~7;
+    }
+}
@@ -0,0 +1,180 @@
+package co.petrin.remote;
+
+import org.jooq.Configuration;
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListenerProvider;
+import org.jooq.Record;
+import org.jooq.Select;
+import org.jooq.conf.ParamType;
+import org.jooq.conf.SettingsTools;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultExecuteListener;
+import org.jooq.impl.DefaultExecuteListenerProvider;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Explains how the database runs a query, inside the evaluation engine's JVM. Only selects the script has already run
+ * and that only read are explained. The query is run once more to time it, which tells apart the time the database
+ * takes from the time jOOQ takes to turn the rows into records, and the database is then asked to explain it in its
+ * own words, running it yet again only if it is to analyze it.
+ */
+public class Plans {
+
+    private Plans() {
+    }
+
+    /** How a dialect's databases are asked to explain a query */
+    private enum Format {
+        /** The plan comes as a single JSON document */
+        JSON,
+        /** The plan comes as rows of text */
+        TEXT
+    }
+
+    /** Measures where the time of running a query goes */
+    private static class Timing extends DefaultExecuteListener {
+        private static final long serialVersionUID = 1L;
+
+        long executeStart, executeNanos;
+        long fetchStart, fetchNanos;
+        long recordStart, mappingNanos;
+
+        @Override
+        public void executeStart(ExecuteContext ctx) {
+            executeStart = System.nanoTime();
+        }
+
+        @Override
+        public void executeEnd(ExecuteContext ctx) {
+            executeNanos = System.nanoTime() - executeStart;
+        }
+
+        @Override
+        public void fetchStart(ExecuteContext ctx) {
+            fetchStart = System.nanoTime();
+        }
+
+        @Override
+        public void recordStart(ExecuteContext ctx) {
+            recordStart = System.nanoTime();
+        }
+
+        @Override
+        public void recordEnd(ExecuteContext ctx) {
+            mappingNanos += System.nanoTime() - recordStart;
+        }
+
+        @Override
+        public void fetchEnd(ExecuteContext ctx) {
+            fetchNanos = System.nanoTime() - fetchStart;
+        }
+    }
+
+    /**
+     * Explains a query, e.g. <code>{"statement":"EXPLAIN ...","format":"json","plan":[...],"executionMs":1.5,
+     * "fetchMs":0.5,"mappingMs":2.0,"rows":100,"truncated":false}</code>. The execution time is how long the database
+     * took to start answering, the fetch time how long reading the rows from it took and the mapping time how long
+     * jOOQ took to turn the rows into records. The plan is left out for databases that cannot be asked for one.
+     * @param query The query, which must be attached to a connection.
+     * @param maxRows The maximum number of rows fetched when timing the query.
+     * @param timeoutSeconds The query timeout of both runs.
+     * @param analyze Whether databases that can should run the query to analyze the plan.
+     * @return The explanation as JSON, or null if the script has not run the query through its <code>jooq</code>
+     * context, or it may change the database, see {@link QueryLog#ranReadOnly}
+     */
+    public static String explain(Select<?> query, int maxRows, int timeoutSeconds, boolean analyze) {
+        if (!QueryLog.ranReadOnly(query.configuration(), query.getSQL())) {
+            return null;
+        }
+
+        var timing = new Timing();
+        var configuration = derive(query.configuration(), timing, timeoutSeconds);
+
+        int rows;
+        boolean truncated;
+        try (var cursor = DSL.using(configuration).fetchLazy(query)) {
+            rows = cursor.fetchNext(maxRows).size();
+            truncated = cursor.hasNext();
+        }
+
+        var sql = query.getSQL(ParamType.INLINED);
+        var family = configuration.family();
+        String statement = null;
+        Format format = null;
+        switch (family) {
+            case POSTGRES:
+                statement = (analyze ? "EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON) " : "EXPLAIN (FORMAT JSON) ") + sql;
+                format = Format.JSON;
+                break;
+            case MYSQL:
+                statement = "EXPLAIN FORMAT=JSON " + sql;
+                format = Format.JSON;
+                break;
+            case MARIADB:
+                statement = (analyze ? "ANALYZE FORMAT=JSON " : "EXPLAIN FORMAT=JSON ") + sql;
+                format = Format.JSON;
+                break;
+            case H2:
+                statement = (analyze ? "EXPLAIN ANALYZE " : "EXPLAIN ") + sql;
+                format = Format.TEXT;
+                break;
+            case HSQLDB:
+                statement = "EXPLAIN PLAN FOR " + sql;
+                format = Format.TEXT;
+                break;
+            case SQLITE:
+                statement = "EXPLAIN QUERY PLAN " + sql;
+                format = Format.TEXT;
+                break;
+            default:
+                // no way of asking for a plan, the timings are still worth knowing
+        }
+
+        String plan = "null";
+        if (statement != null) {
+            var result = DSL.using(derive(query.configuration(), null, timeoutSeconds)).fetch(statement);
+            if (format == Format.JSON) {
+                plan = result.isEmpty() ? "null" : String.valueOf(result.get(0).get(0));
+            } else {
+                plan = AugmentationRunner.jsonString(result.stream()
+                    .map(Plans::formatRow)
+                    .collect(Collectors.joining("\n")));
+            }
+        }
+
+        return "{\"statement\":" + (statement != null ? AugmentationRunner.jsonString(statement) : "null")
+            + ",\"format\":" + (format != null ? "\"" + format.name().toLowerCase(Locale.ROOT) + "\"" : "null")
+            + ",\"plan\":" + plan
+            + ",\"executionMs\":" + millis(timing.executeNanos)
+            + ",\"fetchMs\":" + millis(Math.max(0, timing.fetchNanos - timing.mappingNanos))
+            + ",\"mappingMs\":" + millis(timing.mappingNanos)
+            + ",\"rows\":" + rows
+            + ",\"truncated\":" + truncated
+            + "}";
+    }
+
+    /** Adds the query timeout and, if given, the timing listener to the query's own configuration */
+    private static Configuration derive(Configuration configuration, Timing timing, int timeoutSeconds) {
+        var settings = SettingsTools.clone(configuration.settings()).withQueryTimeout(timeoutSeconds);
+        var derived = configuration.derive(settings);
+        // the explained query is not one the script ran, so it is kept out of the script's query log
+        var providers = Arrays.stream(configuration.executeListenerProviders())
+            .map(provider -> provider instanceof QueryLog ? QueryLog.unlogged(configuration) : provider);
+        if (timing != null) {
+            providers = Stream.concat(providers, Stream.of(new DefaultExecuteListenerProvider(timing)));
+        }
+        return derived.derive(providers.toArray(ExecuteListenerProvider[]::new));
+    }
+
+    private static String formatRow(Record record) {
+        return Arrays.stream(record.intoArray()).map(String::valueOf).collect(Collectors.joining("  "));
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+}
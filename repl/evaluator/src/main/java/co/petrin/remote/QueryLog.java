@@ -0,0 +1,381 @@
+package co.petrin.remote;
+
+import org.jooq.Configuration;
+import org.jooq.DSLContext;
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListener;
+import org.jooq.ExecuteListenerProvider;
+import org.jooq.ExecuteType;
+import org.jooq.impl.DefaultConnectionProvider;
+import org.jooq.impl.DefaultExecuteListener;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Records every query a script's <code>jooq</code> context runs inside the evaluation engine's JVM: its SQL, how long
+ * jOOQ took to render it, the driver to prepare and bind it, the database to execute it and the rows to be fetched,
+ * and how many rows it returned or changed. A query run over and over again with the same SQL is what an N+1 select
+ * looks like.
+ *
+ * Every evaluation starts a new log when its context is created, the log is found through that context afterwards.
+ * Local evaluators share a JVM, so there is no log the JVM's evaluations could have in common.
+ *
+ * The log also watches the context's connection, noticing when the script uses it other than through the context's
+ * queries, e.g. straight through JDBC.
+ */
+public class QueryLog implements ExecuteListenerProvider {
+
+    /** The maximum number of queries logged per evaluation, further ones are only counted */
+    static final int MAX_QUERIES = 1000;
+
+    /** The statements a query that only reads may start with */
+    private static final Pattern SELECT = Pattern.compile("^\\s*(select|with)\\b", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Words that make a select change the database, e.g. in data-modifying common table expressions such as
+     * <code>with d as (delete from t returning *) select * from d</code>, or <code>select ... into</code>. They are
+     * looked for anywhere, so a select merely mentioning them is not taken to only read either.
+     */
+    private static final Pattern MODIFYING = Pattern.compile("\\b(insert|update|delete|merge|into)\\b",
+        Pattern.CASE_INSENSITIVE);
+
+    /** The methods of the context's connection that cannot change the database */
+    private static final Set<String> HARMLESS_CONNECTION_METHODS = Set.of("close", "isClosed", "isValid", "getMetaData",
+        "getAutoCommit", "isReadOnly", "getTransactionIsolation", "getCatalog", "getSchema", "getWarnings",
+        "clearWarnings", "getHoldability", "getNetworkTimeout", "getClientInfo", "isWrapperFor", "toString", "hashCode",
+        "equals");
+
+    private final long startedAt = System.nanoTime();
+    private final List<Entry> entries = new ArrayList<>();
+    private int dropped;
+    /** The number of the context's queries currently running, which use its connection themselves */
+    private int running;
+    /** Has the context's connection been used other than by the context's queries, or could it not be watched? */
+    private boolean bypassed;
+
+    private QueryLog() {
+    }
+
+    /**
+     * Starts a new log and has the context record its queries in it.
+     * @param context The context of an evaluation, whose listeners are replaced and whose connection is watched.
+     * @return The same context
+     */
+    public static <T extends DSLContext> T record(T context) {
+        var log = new QueryLog();
+        var configuration = context.configuration();
+        configuration.set(log);
+        if (configuration.connectionProvider() instanceof DefaultConnectionProvider) {
+            var provider = (DefaultConnectionProvider) configuration.connectionProvider();
+            provider.setConnection(log.watch(provider.acquire()));
+        } else {
+            log.bypassed = true;
+        }
+        return context;
+    }
+
+    /** Wraps a connection so that using it outside of the context's queries is noticed */
+    private Connection watch(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(QueryLog.class.getClassLoader(), new Class<?>[] { Connection.class },
+            (proxy, method, args) -> {
+                if (!HARMLESS_CONNECTION_METHODS.contains(method.getName())) {
+                    synchronized (this) {
+                        if (running == 0) {
+                            bypassed = true;
+                        }
+                    }
+                }
+                try {
+                    return method.invoke(connection, args);
+                } catch (InvocationTargetException ex) {
+                    throw ex.getCause();
+                }
+            });
+    }
+
+    /** Finds the log a context's configuration records its queries in, or null if it does not record them */
+    private static QueryLog of(Configuration configuration) {
+        return Arrays.stream(configuration.executeListenerProviders())
+            .filter(provider -> provider instanceof QueryLog)
+            .map(provider -> (QueryLog) provider)
+            .findFirst()
+            .orElse(null);
+    }
+
+    /**
+     * Describes the queries of a context's log, e.g. <code>{"queries":[{"sql":"select ...","startMs":1.0,
+     * "renderMs":0.2,"prepareMs":0.1,"executeMs":5.0,"fetchMs":1.5,"rows":10,"error":null}],"dropped":0}</code>. The
+     * times of queries that are still running or being fetched are those so far.
+     * @param context The context of an evaluation, see {@link #record}
+     * @return The log as JSON, or null if no queries have been run
+     */
+    public static String toJson(DSLContext context) {
+        var log = of(context.configuration());
+        if (log == null) {
+            return null;
+        }
+        List<Entry> entries;
+        int dropped;
+        synchronized (log) {
+            entries = new ArrayList<>(log.entries);
+            dropped = log.dropped;
+        }
+        if (entries.isEmpty() && dropped == 0) {
+            return null;
+        }
+        return "{\"queries\":[" + entries.stream().map(entry -> entry.toJson(log.startedAt)).collect(Collectors.joining(","))
+            + "],\"dropped\":" + dropped + "}";
+    }
+
+    /**
+     * Lists the SQL of the queries in a context's log if they were all selects that succeeded, telling whether the
+     * script that ran them may have changed the database through its <code>jooq</code> context. Writes through other
+     * contexts or connections the script opens itself are not seen, and neither are selects calling functions that
+     * write, e.g. <code>nextval</code>.
+     * @param context The context of an evaluation, see {@link #record}
+     * @return The SQL of the queries, each encoded in base64 and separated by spaces, or null if there are no queries,
+     * some did not only read, more were run than could be logged or the connection has been used around jOOQ
+     */
+    public static String readOnlySql(DSLContext context) {
+        var log = of(context.configuration());
+        if (log == null) {
+            return null;
+        }
+        List<Entry> entries;
+        synchronized (log) {
+            if (log.dropped > 0 || log.entries.isEmpty() || log.bypassed || log.running > 0) {
+                return null;
+            }
+            entries = new ArrayList<>(log.entries);
+        }
+        var encoder = Base64.getEncoder();
+        var sql = new ArrayList<String>();
+        for (var entry : entries) {
+            synchronized (entry) {
+                if (!entry.onlyRead()) {
+                    return null;
+                }
+                sql.add(encoder.encodeToString(entry.sql.getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+        return String.join(" ", sql);
+    }
+
+    /**
+     * Tells whether a query has been run through the context of a configuration, successfully and only reading.
+     * @param configuration The configuration of an evaluation's context, see {@link #record}
+     * @param sql The query's SQL, as rendered by that configuration.
+     */
+    static boolean ranReadOnly(Configuration configuration, String sql) {
+        var log = of(configuration);
+        if (log == null) {
+            return false;
+        }
+        List<Entry> entries;
+        synchronized (log) {
+            entries = new ArrayList<>(log.entries);
+        }
+        for (var entry : entries) {
+            synchronized (entry) {
+                if (sql.equals(entry.sql) && entry.onlyRead()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Provides the listeners of queries run on the context's connection that are not the script's own, e.g. to explain
+     * them: they are not logged, but are not taken for the connection being used around jOOQ either.
+     * @param configuration The configuration of an evaluation's context, see {@link #record}
+     * @return The provider, or null if the configuration does not record its queries
+     */
+    static ExecuteListenerProvider unlogged(Configuration configuration) {
+        var log = of(configuration);
+        return log != null ? () -> new Running(log) : null;
+    }
+
+    private synchronized void queryStarted() {
+        running++;
+    }
+
+    private synchronized void queryEnded() {
+        running--;
+    }
+
+    @Override
+    public ExecuteListener provide() {
+        // jOOQ asks for a listener per query, so every entry keeps track of its own query
+        var entry = new Entry(this);
+        synchronized (this) {
+            if (entries.size() < MAX_QUERIES) {
+                entries.add(entry);
+            } else {
+                dropped++;
+            }
+        }
+        return entry;
+    }
+
+    /** Tells the log when a query starts and ends using the context's connection */
+    private static class Running extends DefaultExecuteListener {
+        private static final long serialVersionUID = 1L;
+
+        final QueryLog log;
+
+        Running(QueryLog log) {
+            this.log = log;
+        }
+
+        @Override
+        public void start(ExecuteContext ctx) {
+            log.queryStarted();
+        }
+
+        @Override
+        public void end(ExecuteContext ctx) {
+            log.queryEnded();
+        }
+    }
+
+    /** The timings of one query */
+    private static class Entry extends Running {
+        private static final long serialVersionUID = 1L;
+
+        private String sql;
+        private String error;
+        private ExecuteType type;
+        private long startNanos, renderStart, renderNanos, prepareStart, prepareNanos, executeStart, executeNanos;
+        private long fetchStart, fetchNanos;
+        private boolean fetching;
+        private int records;
+        private int rows = -1;
+
+        Entry(QueryLog log) {
+            super(log);
+        }
+
+        @Override
+        public synchronized void start(ExecuteContext ctx) {
+            super.start(ctx);
+            startNanos = System.nanoTime();
+            type = ctx.type();
+        }
+
+        @Override
+        public synchronized void renderStart(ExecuteContext ctx) {
+            renderStart = System.nanoTime();
+        }
+
+        @Override
+        public synchronized void renderEnd(ExecuteContext ctx) {
+            renderNanos += System.nanoTime() - renderStart;
+        }
+
+        @Override
+        public synchronized void prepareStart(ExecuteContext ctx) {
+            prepareStart = System.nanoTime();
+        }
+
+        @Override
+        public synchronized void prepareEnd(ExecuteContext ctx) {
+            prepareNanos += System.nanoTime() - prepareStart;
+        }
+
+        @Override
+        public synchronized void bindStart(ExecuteContext ctx) {
+            prepareStart = System.nanoTime();
+        }
+
+        @Override
+        public synchronized void bindEnd(ExecuteContext ctx) {
+            prepareNanos += System.nanoTime() - prepareStart;
+        }
+
+        @Override
+        public synchronized void executeStart(ExecuteContext ctx) {
+            executeStart = System.nanoTime();
+        }
+
+        @Override
+        public synchronized void executeEnd(ExecuteContext ctx) {
+            executeNanos = System.nanoTime() - executeStart;
+            sql = sql(ctx);
+            rows = ctx.rows();
+        }
+
+        @Override
+        public synchronized void fetchStart(ExecuteContext ctx) {
+            fetchStart = System.nanoTime();
+            fetching = true;
+        }
+
+        @Override
+        public synchronized void recordEnd(ExecuteContext ctx) {
+            records++;
+        }
+
+        @Override
+        public synchronized void fetchEnd(ExecuteContext ctx) {
+            fetchNanos = System.nanoTime() - fetchStart;
+            fetchStart = 0;
+        }
+
+        @Override
+        public synchronized void exception(ExecuteContext ctx) {
+            error = ctx.exception() != null ? ctx.exception().getMessage() : null;
+        }
+
+        @Override
+        public synchronized void end(ExecuteContext ctx) {
+            if (sql == null) {
+                sql = sql(ctx);
+            }
+            super.end(ctx);
+        }
+
+        /** Did the query succeed, and was it a select that cannot have changed the database? */
+        synchronized boolean onlyRead() {
+            return type == ExecuteType.READ && error == null && sql != null
+                && SELECT.matcher(sql).find() && !MODIFYING.matcher(sql).find();
+        }
+
+        private static String sql(ExecuteContext ctx) {
+            if (ctx.sql() != null) {
+                return ctx.sql();
+            }
+            var batch = ctx.batchSQL();
+            return batch != null && batch.length > 0 ? String.join(";\n", Arrays.asList(batch)) : null;
+        }
+
+        synchronized String toJson(long logStartedAt) {
+            // a query whose rows are still being fetched, e.g. by a cursor, has been fetching until now
+            long fetched = fetchStart != 0 ? System.nanoTime() - fetchStart : fetchNanos;
+            return "{\"sql\":" + (sql != null ? AugmentationRunner.jsonString(sql) : "null")
+                + ",\"startMs\":" + millis(Math.max(0, startNanos - logStartedAt))
+                + ",\"renderMs\":" + millis(renderNanos)
+                + ",\"prepareMs\":" + millis(prepareNanos)
+                + ",\"executeMs\":" + millis(executeNanos)
+                + ",\"fetchMs\":" + millis(fetched)
+                + ",\"rows\":" + (fetching ? Integer.toString(records) : rows >= 0 ? Integer.toString(rows) : "null")
+                + ",\"error\":" + (error != null ? AugmentationRunner.jsonString(error) : "null")
+                + "}";
+        }
+
+        private static String millis(long nanos) {
+            return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package co.petrin.remote;
+
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+
+/**
+ * Describes the first rows of a jOOQ result produced along the way of a script, inside the evaluation engine's JVM,
+ * so that they can be sent with the script's progress. Only the grid of a script's final result can be paged through.
+ */
+public class StepGrid {
+
+    private StepGrid() {
+    }
+
+    /**
+     * Creates the grid data for a result, e.g. <code>{"rows":250,"fields":[...],"records":[[1,"a"],[2,"b"]]}</code>,
+     * where the fields and records are formatted by jOOQ's <code>formatJSON</code>.
+     * @param result The result to describe.
+     * @param maxRows The maximum number of records to include.
+     * @return The grid data as JSON, or null if there is no result
+     */
+    public static String toJson(Result<? extends Record> result, int maxRows) {
+        if (result == null) {
+            return null;
+        }
+        Result<Record> shown = DSL.using(SQLDialect.DEFAULT).newResult(result.fields());
+        shown.addAll(result.subList(0, Math.min(result.size(), maxRows)));
+        return "{\"rows\":" + result.size() + "," + shown.formatJSON().substring(1);
+    }
+}
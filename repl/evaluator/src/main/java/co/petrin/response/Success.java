@@ -1,10 +1,8 @@
 package co.petrin.response;
 
-import co.petrin.AugmentedOutput;
+import co.petrin.Augmentation;
 import co.petrin.EvaluationResponse;
 
-import java.util.function.Supplier;
-
 /**
  * Response of a successful evaluation.
  */
@@ -13,12 +11,21 @@ public class Success implements EvaluationResponse {
     public final String errorOutput;
     public final long durationInMs;
 
-    public final Supplier<AugmentedOutput> augmentedOutput;
+    /** How much of the duration was spent compiling the script's snippets */
+    public final long compileMs;
+
+    /** How much of the duration was spent running the script's compiled snippets */
+    public final long executeMs;
+
+    /** Produces the evaluation's augmented output on demand, see {@link co.petrin.augmentation.JooqGrid} */
+    public final Augmentation augmentedOutput;
 
-    public Success(String output, String errorOutput, long durationInMs, Supplier<AugmentedOutput> augmentedOutputs) {
+    public Success(String output, String errorOutput, long durationInMs, long compileMs, long executeMs, Augmentation augmentedOutputs) {
         this.output = output;
         this.errorOutput = errorOutput;
         this.durationInMs = durationInMs;
+        this.compileMs = compileMs;
+        this.executeMs = executeMs;
         this.augmentedOutput = augmentedOutputs;
     }
 
@@ -0,0 +1,28 @@
+package co.petrin.response;
+
+/**
+ * The evaluation exceeded its time limit and was stopped.
+ */
+public class Timeout implements Error {
+    public final String error;
+    public final long durationInMs;
+
+    /** Did the evaluation engine have to be destroyed because the script did not react to being stopped? */
+    public final boolean processDestroyed;
+
+    public Timeout(String error, long durationInMs, boolean processDestroyed) {
+        this.error = error;
+        this.durationInMs = durationInMs;
+        this.processDestroyed = processDestroyed;
+    }
+
+    @Override
+    public Status getEvaluationStatus() {
+        return Status.TIMEOUT;
+    }
+
+    @Override
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,437 @@
+package co.petrin.worker;
+
+import co.petrin.Evaluator;
+import co.petrin.SecurityProperties;
+import jdk.jshell.execution.Util;
+import jdk.jshell.spi.ExecutionControl;
+import jdk.jshell.spi.ExecutionEnv;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * A standalone process that launches evaluation engines on behalf of evaluators running elsewhere, so that the
+ * machines serving the web interface do not have to run the scripts themselves. Every evaluator that connects gets
+ * an engine process of its own, launched the same way a spawned evaluator would launch it, and the worker relays
+ * JShell's commands and the engine's output between the two.
+ *
+ * Only evaluators knowing the worker's secret are served: every connection starts with the worker sending a random
+ * challenge that has to be answered with its HMAC under the secret. The engines are only launched with the options
+ * evaluators generate themselves, and the sandbox's security policy is written by the worker. Paths on the classpath
+ * evaluators add to their engines must exist on the worker's machine too.
+ */
+public class Worker implements AutoCloseable {
+
+    /** A system property definition that identifies an engine process among the processes the worker starts */
+    private static final String SESSION_PROPERTY = "-Dco.petrin.worker.session=";
+
+    /** How long a client has to answer the challenge */
+    private static final int HANDSHAKE_TIMEOUT_MS = 5000;
+
+    /**
+     * The options evaluators may launch an engine with, see {@link #checkOptions(List)}. Paths containing whitespace
+     * must be quoted, or they would be split into further options.
+     */
+    private static final Pattern ALLOWED_OPTIONS = Pattern.compile(
+        "-Xshare:auto|-XX:SharedArchiveFile=[^\\s\"]+|\"-XX:SharedArchiveFile=[^\"]+\"|-Dco\\.petrin\\.evaluator=[-0-9a-f]+");
+
+    /** The value of the <code>--class-path</code> option, quoted if it contains whitespace */
+    private static final Pattern CLASS_PATH = Pattern.compile("[^\\s\"]+|\"[^\"]+\"");
+
+    /** A host and port the sandbox may connect to, e.g. <code>db.internal:5432</code> or <code>[::1]:5432</code> */
+    private static final Pattern SANDBOX_HOST = Pattern.compile("[\\w.\\-\\[\\]:*]+");
+
+    private final ServerSocket server;
+    private final int maxSessions;
+    private final byte[] secret;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ExecutorService connections = Executors.newCachedThreadPool(r -> {
+        var thread = new Thread(r, "worker-connection");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** An engine launched for an evaluator */
+    private static class Session {
+        final String id = UUID.randomUUID().toString();
+        volatile ExecutionControl engine;
+        volatile ProcessHandle process;
+    }
+
+    /**
+     * Opens the worker's server socket; {@link #start()} starts accepting connections.
+     * @param bindAddress The address to listen on, null for the loopback address.
+     * @param port The port to listen on, 0 for any free one.
+     * @param maxSessions The maximum number of engines to run at the same time.
+     * @param secret The secret evaluators must prove to know, see {@link WorkerEndpoint#SECRET_VARIABLE}.
+     * @throws IllegalArgumentException If the secret is blank
+     */
+    public Worker(InetAddress bindAddress, int port, int maxSessions, String secret) throws IOException {
+        this.secret = WorkerEndpoint.secretKey(secret);
+        this.server = new ServerSocket(port, 50, bindAddress != null ? bindAddress : InetAddress.getLoopbackAddress());
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * Runs a worker until it is killed.
+     * Usage: Worker [--port &lt;port&gt;] [--bind &lt;address&gt;] [--max-sessions &lt;count&gt;]
+     * The worker's own classpath must contain the evaluator module, and its secret is read from the
+     * {@link WorkerEndpoint#SECRET_VARIABLE} environment variable. It only listens on the loopback address unless
+     * told otherwise.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = 7100;
+        InetAddress bindAddress = InetAddress.getLoopbackAddress();
+        int maxSessions = Runtime.getRuntime().availableProcessors() * 2;
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                switch (args[i]) {
+                    case "--port":
+                        port = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "--bind":
+                        bindAddress = InetAddress.getByName(args[i + 1]);
+                        break;
+                    case "--max-sessions":
+                        maxSessions = Integer.parseInt(args[i + 1]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (RuntimeException ex) {
+            System.err.println("Usage: Worker [--port <port>] [--bind <address>] [--max-sessions <count>]");
+            System.exit(1);
+        }
+        var secret = System.getenv(WorkerEndpoint.SECRET_VARIABLE);
+        if (secret == null || secret.isBlank()) {
+            System.err.println("The secret evaluators authenticate with must be set in " + WorkerEndpoint.SECRET_VARIABLE);
+            System.exit(1);
+        }
+        var worker = new Worker(bindAddress, port, maxSessions, secret);
+        System.out.println("Worker listening on " + bindAddress.getHostAddress() + ":" + worker.getPort()
+            + " for up to " + maxSessions + " engines");
+        worker.start();
+    }
+
+    /** The port the worker listens on */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /** Starts accepting connections on a thread of its own */
+    public Worker start() {
+        var acceptor = new Thread(this::accept, "worker-acceptor");
+        acceptor.start();
+        return this;
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                var socket = server.accept();
+                socket.setTcpNoDelay(true);
+                connections.execute(() -> handle(socket));
+            } catch (IOException ex) {
+                if (!server.isClosed()) {
+                    System.err.println("Could not accept a connection: " + ex);
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (socket) {
+            var in = new DataInputStream(socket.getInputStream());
+            var out = new DataOutputStream(socket.getOutputStream());
+            if (!authenticate(socket, in, out)) {
+                System.err.println("Refused a connection from " + socket.getRemoteSocketAddress()
+                    + " that does not know the secret");
+                return;
+            }
+            var command = in.readUTF();
+            if (command.equals(WorkerEndpoint.OPEN)) {
+                open(socket, in, out);
+                return;
+            } else if (command.equals(WorkerEndpoint.LOAD)) {
+                out.writeInt(sessions.size());
+                out.writeInt(maxSessions);
+            } else {
+                out.writeLong(control(command, sessions.get(in.readUTF())));
+            }
+            out.flush();
+        } catch (SocketException ex) {
+            // the other side went away
+        } catch (IOException | RuntimeException ex) {
+            System.err.println("Could not handle a connection: " + ex);
+        }
+    }
+
+    /**
+     * Challenges the client to prove it knows the secret, without the secret itself going over the wire.
+     * @return Whether the client answered with the challenge's HMAC under the secret
+     */
+    private boolean authenticate(Socket socket, DataInputStream in, DataOutputStream out) throws IOException {
+        var challenge = new byte[WorkerEndpoint.CHALLENGE_BYTES];
+        random.nextBytes(challenge);
+        out.write(challenge);
+        out.flush();
+
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+        var response = new byte[WorkerEndpoint.RESPONSE_BYTES];
+        in.readFully(response);
+        socket.setSoTimeout(0);
+        return MessageDigest.isEqual(response, WorkerEndpoint.sign(secret, challenge));
+    }
+
+    /** Stops, destroys or measures a session's engine */
+    private long control(String command, Session session) {
+        if (session == null) {
+            return -1;
+        }
+        switch (command) {
+            case WorkerEndpoint.STOP:
+                try {
+                    session.engine.stop();
+                    return 0;
+                } catch (ExecutionControl.ExecutionControlException ex) {
+                    return -1;
+                }
+            case WorkerEndpoint.DESTROY:
+                findProcess(session).ifPresent(ProcessHandle::destroyForcibly);
+                return 0;
+            case WorkerEndpoint.CPU:
+                return findProcess(session)
+                    .flatMap(process -> process.info().totalCpuDuration())
+                    .map(Duration::toNanos)
+                    .orElse(-1L);
+            default:
+                throw new IllegalArgumentException("Unknown command " + command);
+        }
+    }
+
+    /**
+     * Launches an engine and relays between it and the evaluator until either goes away.
+     */
+    private void open(Socket socket, DataInputStream in, DataOutputStream out) throws IOException {
+        var options = new ArrayList<String>();
+        for (int count = in.readInt(); count > 0; count--) {
+            options.add(in.readUTF());
+        }
+        List<String> sandboxHosts = null;
+        if (in.readBoolean()) {
+            sandboxHosts = new ArrayList<>();
+            for (int count = in.readInt(); count > 0; count--) {
+                sandboxHosts.add(in.readUTF());
+            }
+        }
+
+        var refusal = checkOptions(options);
+        if (refusal == null && sandboxHosts != null) {
+            refusal = sandboxHosts.stream()
+                .filter(host -> !SANDBOX_HOST.matcher(host).matches())
+                .findFirst()
+                .map(host -> "the sandbox cannot be opened to " + host)
+                .orElse(null);
+        }
+        if (refusal != null) {
+            out.writeBoolean(false);
+            out.writeUTF(refusal);
+            out.flush();
+            return;
+        }
+
+        var session = new Session();
+        synchronized (sessions) {
+            if (sessions.size() >= maxSessions) {
+                out.writeBoolean(false);
+                out.writeUTF("it is already running " + maxSessions + " engines");
+                out.flush();
+                return;
+            }
+            sessions.put(session.id, session);
+        }
+        try {
+            if (sandboxHosts != null) {
+                options.add("-Djava.security.manager");
+                options.add(Evaluator.quoteRemoteVMOption(
+                    "-Djava.security.policy=" + SecurityProperties.getPath(sandboxHosts).toAbsolutePath()));
+            }
+            options.add(SESSION_PROPERTY + session.id);
+
+            var env = new Environment(options, socket);
+            try {
+                session.engine = ExecutionControl.generate(env, "jdi:launch(true)");
+            } catch (Throwable ex) {
+                out.writeBoolean(false);
+                out.writeUTF(String.valueOf(ex));
+                out.flush();
+                return;
+            }
+            out.writeBoolean(true);
+            out.writeUTF(session.id);
+            out.flush();
+
+            try {
+                Util.forwardExecutionControlAndIO(session.engine, socket.getInputStream(), socket.getOutputStream(),
+                    Map.of("out", env.out::setTarget, "err", env.err::setTarget),
+                    Map.of("in", env.in::setTarget));
+            } finally {
+                session.engine.close();
+            }
+        } finally {
+            sessions.remove(session.id);
+        }
+    }
+
+    /**
+     * Checks that an engine is only launched with the options evaluators generate: its classpath, the class data
+     * sharing archive and the marker the evaluator finds its engine's process by.
+     * @return Why the options are refused, or null if they are fine
+     */
+    static String checkOptions(List<String> options) {
+        for (int i = 0; i < options.size(); i++) {
+            var option = options.get(i);
+            if (option.equals("--class-path") && i + 1 < options.size()) {
+                if (!CLASS_PATH.matcher(options.get(++i)).matches()) {
+                    return "the classpath " + options.get(i) + " is not allowed";
+                }
+            } else if (!ALLOWED_OPTIONS.matcher(option).matches()) {
+                return "the option " + option + " is not allowed";
+            }
+        }
+        return null;
+    }
+
+    /** Finds the process of a session's engine */
+    private Optional<ProcessHandle> findProcess(Session session) {
+        var process = session.process;
+        if (process == null || !process.isAlive()) {
+            var marker = SESSION_PROPERTY + session.id;
+            process = ProcessHandle.current().descendants()
+                .filter(child -> child.info().arguments().map(args -> List.of(args).contains(marker)).orElse(false))
+                .findAny()
+                .orElse(null);
+            session.process = process;
+        }
+        return Optional.ofNullable(process);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        sessions.values().forEach(session -> findProcess(session).ifPresent(ProcessHandle::destroyForcibly));
+        connections.shutdownNow();
+    }
+
+    /**
+     * The environment an engine is launched in. Its streams are connected to the evaluator's once the relaying
+     * starts; when the engine goes away, so does the connection to the evaluator.
+     */
+    private static class Environment implements ExecutionEnv {
+        final RelayOutputStream out = new RelayOutputStream();
+        final RelayOutputStream err = new RelayOutputStream();
+        final RelayInputStream in = new RelayInputStream();
+        private final PrintStream userOut = new PrintStream(out, true, StandardCharsets.UTF_8);
+        private final PrintStream userErr = new PrintStream(err, true, StandardCharsets.UTF_8);
+        private final List<String> options;
+        private final Socket socket;
+
+        Environment(List<String> options, Socket socket) {
+            this.options = List.copyOf(options);
+            this.socket = socket;
+        }
+
+        @Override
+        public InputStream userIn() {
+            return in;
+        }
+
+        @Override
+        public PrintStream userOut() {
+            return userOut;
+        }
+
+        @Override
+        public PrintStream userErr() {
+            return userErr;
+        }
+
+        @Override
+        public List<String> extraRemoteVMOptions() {
+            return options;
+        }
+
+        @Override
+        public void closeDown() {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                // already closed
+            }
+        }
+    }
+
+    private static class RelayOutputStream extends OutputStream {
+        private volatile OutputStream target = OutputStream.nullOutputStream();
+
+        void setTarget(OutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+    }
+
+    private static class RelayInputStream extends InputStream {
+        private volatile InputStream source = InputStream.nullInputStream();
+
+        void setTarget(InputStream source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return source.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return source.read(b, off, len);
+        }
+    }
+}
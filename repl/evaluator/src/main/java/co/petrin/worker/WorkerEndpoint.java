@@ -0,0 +1,233 @@
+package co.petrin.worker;
+
+import jdk.jshell.execution.Util;
+import jdk.jshell.spi.ExecutionEnv;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The address of a {@link Worker}, a standalone process that launches evaluation engines for evaluators running
+ * elsewhere, e.g. on the machines of the web tier.
+ */
+public class WorkerEndpoint {
+
+    static final String OPEN = "OPEN";
+    static final String STOP = "STOP";
+    static final String DESTROY = "DESTROY";
+    static final String CPU = "CPU";
+    static final String LOAD = "LOAD";
+
+    /** The environment variable holding the secret shared by the workers and the evaluators using them */
+    public static final String SECRET_VARIABLE = "EVALUATOR_WORKER_SECRET";
+
+    static final int CHALLENGE_BYTES = 32;
+    static final int RESPONSE_BYTES = 32;
+    private static final String HMAC = "HmacSHA256";
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int COMMAND_TIMEOUT_MS = 5000;
+
+    /** How long the worker may take to launch an engine */
+    private static final int LAUNCH_TIMEOUT_MS = 60_000;
+
+    private final String host;
+    private final int port;
+    private final byte[] secret;
+
+    /**
+     * @param secret The secret the worker was started with.
+     * @throws IllegalArgumentException If the secret is blank
+     */
+    public WorkerEndpoint(String host, int port, String secret) {
+        this.host = host;
+        this.port = port;
+        this.secret = secretKey(secret);
+    }
+
+    /**
+     * Parses an endpoint given as <code>host:port</code>.
+     * @param secret The secret the worker was started with.
+     * @throws IllegalArgumentException If the endpoint is not given as host and port, or the secret is blank
+     */
+    public static WorkerEndpoint parse(String hostAndPort, String secret) {
+        int colon = hostAndPort.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("A worker must be given as host:port, not " + hostAndPort);
+        }
+        int port;
+        try {
+            port = Integer.parseInt(hostAndPort.substring(colon + 1));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("A worker must be given as host:port, not " + hostAndPort);
+        }
+        return new WorkerEndpoint(hostAndPort.substring(0, colon), port, secret);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /** How busy a worker is */
+    public static class Load {
+        /** The number of engines the worker is running */
+        public final int sessions;
+        /** The number of engines the worker is willing to run */
+        public final int maxSessions;
+
+        Load(int sessions, int maxSessions) {
+            this.sessions = sessions;
+            this.maxSessions = maxSessions;
+        }
+    }
+
+    /**
+     * Asks the worker how busy it is, which doubles as a health check.
+     * @throws IOException If the worker cannot be reached
+     */
+    public Load load() throws IOException {
+        try (var socket = connect(COMMAND_TIMEOUT_MS)) {
+            var out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF(LOAD);
+            out.flush();
+            var in = new DataInputStream(socket.getInputStream());
+            return new Load(in.readInt(), in.readInt());
+        }
+    }
+
+    /**
+     * Has the worker launch an engine for a JShell instance and connects to it. The engine is launched with the
+     * environment's remote VM options, which the worker only accepts if an evaluator would generate them.
+     * @param sandboxHosts The <code>host:port</code>s the sandboxed engine may connect to, or null to not sandbox
+     *                     it. The worker writes the security policy itself.
+     * @throws IOException If the worker cannot be reached or refuses to launch another engine
+     */
+    public WorkerExecutionControl open(ExecutionEnv env, List<String> sandboxHosts) throws IOException {
+        var socket = connect(LAUNCH_TIMEOUT_MS);
+        try {
+            var options = env.extraRemoteVMOptions();
+            var out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF(OPEN);
+            out.writeInt(options.size());
+            for (var option : options) {
+                out.writeUTF(option);
+            }
+            out.writeBoolean(sandboxHosts != null);
+            if (sandboxHosts != null) {
+                out.writeInt(sandboxHosts.size());
+                for (var host : sandboxHosts) {
+                    out.writeUTF(host);
+                }
+            }
+            out.flush();
+
+            var in = new DataInputStream(socket.getInputStream());
+            if (!in.readBoolean()) {
+                throw new IOException("Worker " + this + " did not launch an engine: " + in.readUTF());
+            }
+            var sessionId = in.readUTF();
+            // from now on the engine is as slow to answer as the snippets it runs
+            socket.setSoTimeout(0);
+
+            // the same streams JShell's own remote engines are given
+            return (WorkerExecutionControl) Util.remoteInputOutput(
+                socket.getInputStream(),
+                socket.getOutputStream(),
+                Map.of("out", env.userOut(), "err", env.userErr()),
+                Map.of("in", env.userIn()),
+                (objectIn, objectOut) -> new WorkerExecutionControl(objectOut, objectIn, this, sessionId, socket)
+            );
+        } catch (IOException | RuntimeException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Sends a command about a session on a connection of its own, since the session's connection is busy while a
+     * snippet runs.
+     * @return What the worker replied with
+     */
+    long command(String command, String sessionId) throws IOException {
+        try (var socket = connect(COMMAND_TIMEOUT_MS)) {
+            var out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF(command);
+            out.writeUTF(sessionId);
+            out.flush();
+            return new DataInputStream(socket.getInputStream()).readLong();
+        }
+    }
+
+    /** Connects to the worker and answers its challenge */
+    private Socket connect(int timeoutMs) throws IOException {
+        var socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(timeoutMs);
+            socket.setTcpNoDelay(true);
+            var challenge = new byte[CHALLENGE_BYTES];
+            new DataInputStream(socket.getInputStream()).readFully(challenge);
+            socket.getOutputStream().write(sign(secret, challenge));
+            return socket;
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+
+    /** Checks a secret and turns it into the key challenges are signed with */
+    static byte[] secretKey(String secret) {
+        if (secret == null || secret.isBlank()) {
+            throw new IllegalArgumentException(
+                "Workers need a secret to authenticate evaluators with, see " + SECRET_VARIABLE);
+        }
+        return secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Signs a worker's challenge with the shared secret */
+    static byte[] sign(byte[] secret, byte[] challenge) {
+        try {
+            var mac = Mac.getInstance(HMAC);
+            mac.init(new SecretKeySpec(secret, HMAC));
+            return mac.doFinal(challenge);
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("The JVM cannot sign with " + HMAC, ex);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof WorkerEndpoint)) {
+            return false;
+        }
+        var other = (WorkerEndpoint) o;
+        return port == other.port && host.equals(other.host);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(host, port);
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
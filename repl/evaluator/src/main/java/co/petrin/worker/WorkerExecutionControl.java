@@ -0,0 +1,73 @@
+package co.petrin.worker;
+
+import jdk.jshell.execution.StreamingExecutionControl;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.net.Socket;
+
+/**
+ * Runs JShell's snippets in an engine a {@link Worker} has launched, talking to the engine through the worker over
+ * a socket. Stopping, destroying and measuring the engine go through separate connections to the worker, so that
+ * they work while a snippet is running.
+ */
+public class WorkerExecutionControl extends StreamingExecutionControl {
+
+    private final WorkerEndpoint worker;
+    private final String sessionId;
+    private final Socket socket;
+
+    WorkerExecutionControl(ObjectOutput out, ObjectInput in, WorkerEndpoint worker, String sessionId, Socket socket) {
+        super(out, in);
+        this.worker = worker;
+        this.sessionId = sessionId;
+        this.socket = socket;
+    }
+
+    /** The worker running the engine */
+    public WorkerEndpoint getWorker() {
+        return worker;
+    }
+
+    @Override
+    public void stop() throws EngineTerminationException, InternalException {
+        try {
+            worker.command(WorkerEndpoint.STOP, sessionId);
+        } catch (IOException ex) {
+            throw new InternalException("Could not ask worker " + worker + " to stop the engine: " + ex.getMessage());
+        }
+    }
+
+    /** Has the worker destroy the engine's process, e.g. because it does not react to being stopped */
+    public void destroy() {
+        try {
+            worker.command(WorkerEndpoint.DESTROY, sessionId);
+        } catch (IOException ex) {
+            // the worker cannot be reached, at least the engine's connection to it can be dropped
+            close();
+        }
+    }
+
+    /** Measures the CPU time the engine's process has used, in nanoseconds, or returns -1 if it cannot */
+    public long cpuNanos() {
+        try {
+            return worker.command(WorkerEndpoint.CPU, sessionId);
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            super.close();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                // nothing left to clean up
+            }
+        }
+    }
+}
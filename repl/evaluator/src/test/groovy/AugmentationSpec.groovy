@@ -0,0 +1,528 @@
+import co.petrin.AugmentationSink
+import co.petrin.Database
+import co.petrin.EvaluationRequest
+import co.petrin.Evaluator
+import co.petrin.augmentation.Augmentor
+import co.petrin.augmentation.GridFormat
+import co.petrin.augmentation.GridPage
+import co.petrin.remote.AugmentationRunner
+import co.petrin.remote.GridColumns
+import co.petrin.response.Success
+import groovy.json.JsonSlurper
+import spock.lang.*
+
+class AugmentationSpec extends Specification {
+
+    static final String RESULT_SCRIPT = '''
+        var ctx = org.jooq.impl.DSL.using(org.jooq.SQLDialect.DEFAULT);
+        var id = org.jooq.impl.DSL.field(org.jooq.impl.DSL.name("id"), Integer.class);
+        var result = ctx.newResult(id);
+        for (int i = 0; i < 1234; i++) { result.add(ctx.newRecord(id).values(i)); }
+        var grid = result;
+    '''
+
+    /**
+     * Spawned with jOOQ and the evaluator's own classes from the test classpath, as the grid and the other outputs are
+     * produced by the evaluation engine
+     */
+    @Shared @AutoCleanup Evaluator evaluator = Evaluator.spawn(
+        System.getProperty("java.class.path").split(File.pathSeparator).findAll { it.contains("jooq") } +
+            new File(AugmentationRunner.protectionDomain.codeSource.location.toURI()).path, false)
+
+    /** Collects the lines and the next page written into it */
+    static class CollectingSink implements AugmentationSink {
+        List<Map> lines = []
+        GridPage nextPage
+        GridFormat gridFormat = GridFormat.RECORDS
+
+        void writeLine(String json) {
+            lines << new JsonSlurper().parseText(json)
+        }
+
+        void morePages(GridPage page) {
+            nextPage = page
+        }
+
+        GridFormat gridFormat() {
+            gridFormat
+        }
+
+        boolean acceptsScriptSteps() {
+            true
+        }
+
+        List<Integer> getIds() {
+            lines.findAll { it.type == "json/jooq-grid-records" }.collectMany { it.records }.collect { it[0] }
+        }
+    }
+
+    List<Map> stream(Success success) {
+        def sink = new CollectingSink()
+        success.augmentedOutput.writeTo(sink)
+        return sink.lines
+    }
+
+    def "jOOQ results are streamed as a header followed by chunks of records"() {
+        when:
+        def response = evaluator.evaluate(null, new EvaluationRequest(RESULT_SCRIPT), null) as Success
+        def lines = stream(response)
+
+        then: 'the header comes first and has the fields but no records'
+        lines[0].type == "json/jooq-grid"
+        lines[0].name == "Grid"
+        lines[0].fields*.name == ["id"]
+        lines[0].records == []
+
+        and: 'the records follow in chunks, in order, up to the default row limit'
+        lines.size() == 3
+        lines.drop(1).every { it.type == "json/jooq-grid-records" }
+        lines.drop(1).collectMany { it.records }.collect { it[0] } == (0..<1000).toList()
+    }
+
+    def "Grids can be streamed column by column to clients that decode them"() {
+        given:
+        def sink = new CollectingSink(gridFormat: GridFormat.COLUMNS)
+
+        when: 'a grid of numbers is streamed'
+        (evaluator.evaluate(null, new EvaluationRequest(RESULT_SCRIPT), null) as Success).augmentedOutput.writeTo(sink)
+
+        then: 'the header is still JSON, the records come as columns'
+        sink.lines*.type == ["json/jooq-grid"] + ["base64/jooq-grid-columns"] * 2
+        sink.lines[0].fields*.name == ["id"]
+        sink.lines[1..2].collectMany { decodeColumns(it.columns)[0] } == (0..<1000).toList()
+        sink.nextPage.offset == 1000
+
+        when: 'a grid of text is streamed'
+        sink = new CollectingSink(gridFormat: GridFormat.COLUMNS)
+        (evaluator.evaluate(null, new EvaluationRequest('var grid = org.jooq.impl.DSL.using(org.jooq.SQLDialect.DEFAULT).fetchFromCSV("title\\nOne\\nTwo\\nThree")'), null) as Success)
+            .augmentedOutput.writeTo(sink)
+
+        then: 'its records come as JSON, which is smaller'
+        sink.lines*.type == ["json/jooq-grid", "json/jooq-grid-records"]
+        sink.lines[1].records == [["One"], ["Two"], ["Three"]]
+    }
+
+    def "Columns are encoded in the most compact kind that holds their values"() {
+        given:
+        def ctx = org.jooq.impl.DSL.using(org.jooq.SQLDialect.DEFAULT)
+        def fields = [
+            org.jooq.impl.DSL.field("tiny", Integer), org.jooq.impl.DSL.field("small", Long), org.jooq.impl.DSL.field("id", Integer),
+            org.jooq.impl.DSL.field("price", Double), org.jooq.impl.DSL.field("big", Long), org.jooq.impl.DSL.field("title", String),
+            org.jooq.impl.DSL.field("active", Boolean)
+        ]
+        def result = ctx.newResult(*fields)
+        [
+            [1, 300L, 100_000, 9.99d, Long.MAX_VALUE, "Žižek", true],
+            [null, null, null, null, null, null, null],
+            [-3, -2L, -3, 0.5d, 42L, "", false]
+        ].each { result.add(ctx.newRecord(*fields).values(*it)) }
+
+        when:
+        def encoded = GridColumns.encode(result)
+
+        then:
+        kinds(encoded) == [GridColumns.INT8, GridColumns.INT16, GridColumns.INT32, GridColumns.FLOAT64, GridColumns.STRING,
+                           GridColumns.STRING, GridColumns.BOOLEAN]
+        decodeColumns(encoded) == [
+            [1, null, -3],
+            [300, null, -2],
+            [100_000, null, -3],
+            [9.99d, null, 0.5d],
+            [Long.MAX_VALUE.toString(), null, "42"],
+            ["Žižek", null, ""],
+            [true, null, false]
+        ]
+    }
+
+    def "Clients that don't stream grids get every page in a single line"() {
+        given:
+        def sink = new CollectingSink(gridFormat: GridFormat.SINGLE_LINE)
+        def quoted = new CollectingSink(gridFormat: GridFormat.SINGLE_LINE)
+        def quotedScript = '''
+            var ctx = org.jooq.impl.DSL.using(org.jooq.SQLDialect.DEFAULT);
+            var title = org.jooq.impl.DSL.field("title", String.class);
+            var result = ctx.newResult(title);
+            result.add(ctx.newRecord(title).values("say \\"hi\\" \\\\ \\n"));
+            var grid = result;
+        '''
+
+        when:
+        evaluator.evaluate(null, new EvaluationRequest(RESULT_SCRIPT), null).augmentedOutput.writeTo(sink)
+        evaluator.evaluate(null, new EvaluationRequest(quotedScript), null).augmentedOutput.writeTo(quoted)
+
+        then: 'the page is formatted by jOOQ, up to the row limit'
+        sink.lines.size() == 1
+        sink.lines[0].type == "json/jooq-grid"
+        def page = new JsonSlurper().parseText(sink.lines[0].output)
+        page.fields*.name == ["id"]
+        page.records.collect { it[0] } == (0..<1000).toList()
+        sink.nextPage.offset == 1000
+
+        and:
+        new JsonSlurper().parseText(quoted.lines[0].output).records == [['say "hi" \\ \n']]
+    }
+
+    def "Results that are not jOOQ results are not augmented"() {
+        when:
+        def response = evaluator.evaluate(null, new EvaluationRequest("var x = 42"), null) as Success
+
+        then:
+        stream(response).isEmpty()
+        evaluator.evaluate(null, new EvaluationRequest("1 + 1"), null).output == "2"
+    }
+
+    def "Grids are cut off at the row limit and the remaining rows can be paged through"() {
+        given: 'a database with a row limit of 1000'
+        def db = new Database("jdbc:none", "limited", null, null, null, null, 0, 0, null, 1000, Database.DEFAULT_TIMEOUT_SECONDS, 0)
+
+        when: 'the grid is written with the limit'
+        def first = new CollectingSink()
+        evaluator.evaluate(null, new EvaluationRequest(RESULT_SCRIPT), null).augmentedOutput.writeTo(first)
+
+        then: 'the default limit applies to scripts without a database'
+        first.ids == (0..<1000).toList()
+        first.nextPage.offset == 1000
+
+        when: 'the next page is requested'
+        def second = new CollectingSink()
+        evaluator.page(first.nextPage, db, second)
+
+        then: 'the rest of the rows are written without a header, and there are no more pages'
+        second.lines.every { it.type == "json/jooq-grid-records" }
+        second.ids == (1000..<1234).toList()
+        second.nextPage == null
+    }
+
+    def "Lazy cursors are paged through as well"() {
+        given:
+        def script = RESULT_SCRIPT + 'var cursor = ctx.fetchLazy(new org.jooq.tools.jdbc.MockResultSet(result));'
+
+        when:
+        def first = new CollectingSink()
+        evaluator.evaluate(null, new EvaluationRequest(script), null).augmentedOutput.writeTo(first)
+        def second = new CollectingSink()
+        evaluator.page(first.nextPage, null, second)
+
+        then:
+        first.lines[0].type == "json/jooq-grid"
+        first.ids == (0..<1000).toList()
+        first.nextPage.cursor
+        second.ids == (1000..<1234).toList()
+        second.nextPage == null
+    }
+
+    def "Queries are augmented with their SQL"() {
+        when:
+        def response = evaluator.evaluate(null, new EvaluationRequest(
+            'org.jooq.impl.DSL.using(org.jooq.SQLDialect.H2).selectOne().where(org.jooq.impl.DSL.val(1).eq(2))'), null) as Success
+        def lines = stream(response)
+
+        then: 'the bind values are inlined'
+        lines.size() == 1
+        lines[0].name == "SQL"
+        lines[0].type == "text/sql"
+        lines[0].output.contains("1 = 2")
+    }
+
+    def "Results with numbers are augmented with chart data after their grid"() {
+        given:
+        def script = '''
+            var ctx = org.jooq.impl.DSL.using(org.jooq.SQLDialect.DEFAULT);
+            var name = org.jooq.impl.DSL.field(org.jooq.impl.DSL.name("name"), String.class);
+            var count = org.jooq.impl.DSL.field(org.jooq.impl.DSL.name("count"), Integer.class);
+            var result = ctx.newResult(name, count);
+            result.add(ctx.newRecord(name, count).values("a", 1));
+            result.add(ctx.newRecord(name, count).values("b", null));
+            result.add(ctx.newRecord(name, count).values("c", 3));
+            var chart = result;
+        '''
+
+        when:
+        def lines = stream(evaluator.evaluate(null, new EvaluationRequest(script), null) as Success)
+        def chart = new JsonSlurper().parseText(lines.last().output)
+
+        then:
+        lines*.type == ["json/jooq-grid", "json/jooq-grid-records", "json/chart"]
+        chart.labels == ["a", "b", "c"]
+        chart.series == [[name: "count", values: [1, null, 3]]]
+    }
+
+    def "Augmentors run alongside each other and slow ones are given up on"() {
+        given: 'a quick augmentor and one that takes longer than its budget'
+        def evaluator = Evaluator.local().withAugmentors([
+            augmentor("Slow", 500, 'sleep(10_000, "late")'),
+            augmentor("Quick", 5000, 'sleep(200, "early")'),
+        ])
+        evaluator.evaluate(null, new EvaluationRequest('''
+            String sleep(long ms, String result) {
+                try { Thread.sleep(ms); } catch (InterruptedException ex) { }
+                return result;
+            }
+        '''), null)
+
+        when:
+        def startedAt = System.currentTimeMillis()
+        def lines = stream(evaluator.evaluate(null, new EvaluationRequest("42"), null) as Success)
+        def took = System.currentTimeMillis() - startedAt
+
+        then: 'only the quick output is written, without waiting for the slow one'
+        lines == [[name: "Quick", type: "text/plain", output: "early"]]
+        took < 5000
+
+        cleanup:
+        evaluator.close()
+    }
+
+    def "Selects the script ran are explained using the script's connection"() {
+        given:
+        def db = new Database("jdbc:h2:mem:explain;DB_CLOSE_DELAY=-1", "explain", "sa", "", null, null,
+            0, 1800, null, Database.DEFAULT_GRID_ROW_LIMIT, Database.DEFAULT_TIMEOUT_SECONDS, 0, 0, analyze)
+        def evaluator = Evaluator.local()
+
+        when:
+        def query = 'jooq.selectFrom(table("SYSTEM_RANGE(1, 50)")).where(field("X").gt(10))'
+        def lines = stream(evaluator.evaluate(db, new EvaluationRequest("${query}.fetch();\n$query"), [db]) as Success)
+        def plan = new JsonSlurper().parseText(lines.find { it.type == "json/explain" }.output)
+
+        then: 'the plan comes from the database, and the query was timed'
+        lines*.type.sort() == ["json/explain", "json/query-timeline", "text/sql"]
+        plan.statement.startsWith(statement)
+        plan.format == "text"
+        plan.plan.contains("SYSTEM_RANGE")
+        plan.rows == 40
+        !plan.truncated
+        [plan.executionMs, plan.fetchMs, plan.mappingMs].every { it >= 0 }
+
+        and: 'explaining is neither logged nor taken for using the connection around jOOQ'
+        evaluator.readOnlyQueries().size() == 1
+
+        and: 'the connection is released afterwards'
+        evaluator.evaluate(db, new EvaluationRequest('jooq.fetchValue("select 1")'), [db]).output == "1"
+
+        cleanup:
+        evaluator.close()
+
+        where:
+        analyze | statement
+        false   | "EXPLAIN select"
+        true    | "EXPLAIN ANALYZE select"
+    }
+
+    def "Selects are neither run nor explained unless the script ran them, and only read"() {
+        given:
+        def db = new Database("jdbc:h2:mem:explainwrites;DB_CLOSE_DELAY=-1", "explainwrites", "sa", "", null, null)
+        def evaluator = Evaluator.local()
+        evaluator.evaluate(db, new EvaluationRequest('jooq.execute("create table if not exists actor (id int)")'), [db])
+        def inserting = 'jooq.select(field("ID")).from("final table (insert into actor values (1))")'
+
+        when: 'a select that writes is only built'
+        def lines = stream(evaluator.evaluate(db, new EvaluationRequest(inserting), [db]) as Success)
+
+        then:
+        !lines*.type.contains("json/explain")
+        evaluator.evaluate(db, new EvaluationRequest('jooq.fetchCount(table("ACTOR"))'), [db]).output == "0"
+
+        when: 'the script runs it itself'
+        lines = stream(evaluator.evaluate(db, new EvaluationRequest("${inserting}.fetch();\n$inserting"), [db]) as Success)
+
+        then: 'it is run exactly once'
+        lines*.type.contains("text/sql")
+        !lines*.type.contains("json/explain")
+        evaluator.evaluate(db, new EvaluationRequest('jooq.fetchCount(table("ACTOR"))'), [db]).output == "1"
+
+        cleanup:
+        evaluator.close()
+    }
+
+    def "The queries a script ran are listed with their timings"() {
+        given:
+        def db = new Database("jdbc:h2:mem:timeline;DB_CLOSE_DELAY=-1", "timeline", "sa", "", null, null)
+        def evaluator = Evaluator.local()
+        def script = '''
+            jooq.execute("create table if not exists film (id int primary key)");
+            jooq.execute("merge into film select x from system_range(1, 3)");
+            for (int id = 1; id <= 3; id++) { jooq.fetchOne("select * from film where id = ?", id); }
+            var films = jooq.fetch("select * from film");
+        '''
+
+        when:
+        def lines = stream(evaluator.evaluate(db, new EvaluationRequest(script), [db]) as Success)
+        def timeline = new JsonSlurper().parseText(lines.find { it.type == "json/query-timeline" }.output)
+
+        then: 'every query is listed in the order it ran, a select run in a loop shows up once per run'
+        timeline.queries*.sql == ["create table if not exists film (id int primary key)", "merge into film select x from system_range(1, 3)"] +
+            ["select * from film where id = ?"] * 3 + ["select * from film"]
+        timeline.queries*.rows == [0, 3, 1, 1, 1, 3]
+        timeline.queries.every { [it.renderMs, it.prepareMs, it.executeMs, it.fetchMs].every { ms -> ms >= 0 } && it.error == null }
+        timeline.queries*.startMs == timeline.queries*.startMs.sort(false)
+        timeline.dropped == 0
+
+        when: 'the next script starts a new timeline'
+        lines = stream(evaluator.evaluate(db, new EvaluationRequest('var count = jooq.fetchCount(table("FILM"))'), [db]) as Success)
+        timeline = new JsonSlurper().parseText(lines.find { it.type == "json/query-timeline" }.output)
+
+        then:
+        timeline.queries.size() == 1
+        timeline.queries[0].sql.toLowerCase().contains("count(*)")
+
+        cleanup:
+        evaluator.close()
+    }
+
+    def "Scripts that only ran selects are told apart from ones that may have changed the database"() {
+        given:
+        def db = new Database("jdbc:h2:mem:readonly;DB_CLOSE_DELAY=-1", "readonly", "sa", "", null, null)
+        def evaluator = Evaluator.local()
+        evaluator.evaluate(db, new EvaluationRequest('jooq.execute("create table if not exists actor (id int)")'), [db])
+
+        when:
+        evaluator.evaluate(db, new EvaluationRequest(script), [db])
+
+        then:
+        evaluator.readOnlyQueries() == queries
+
+        cleanup:
+        evaluator.close()
+
+        where:
+        script                                                                  | queries
+        'jooq.fetch("select * from actor"); jooq.fetch("select id from actor")' | ["select * from actor", "select id from actor"]
+        'jooq.execute("insert into actor values (1)")'                          | null
+        'jooq.fetch("select * from actor"); jooq.execute("delete from actor")'  | null
+        '1 + 1'                                                                 | null
+        'jooq.fetch("with a as (select id from actor) select * from a")'       | ["with a as (select id from actor) select * from a"]
+        'jooq.fetch("select * from final table (insert into actor values (2))")' | null
+        'jooq.fetch("select * from actor"); jooq.connection(c -> c.createStatement().execute("delete from actor"))' | null
+        'jooq.fetch("select * from actor"); jooq.configuration().connectionProvider().acquire().createStatement().execute("delete from actor")' | null
+    }
+
+    def "Local evaluators sharing a JVM keep their query logs apart"() {
+        given:
+        def db = new Database("jdbc:h2:mem:shared;DB_CLOSE_DELAY=-1", "shared", "sa", "", null, null)
+        def reading = Evaluator.local()
+        def writing = Evaluator.local()
+        writing.evaluate(db, new EvaluationRequest('jooq.execute("create table if not exists actor (id int)")'), [db])
+
+        when:
+        reading.evaluate(db, new EvaluationRequest('jooq.fetch("select * from actor")'), [db])
+        writing.evaluate(db, new EvaluationRequest('jooq.execute("insert into actor values (1)")'), [db])
+
+        then:
+        reading.readOnlyQueries() == ["select * from actor"]
+        writing.readOnlyQueries() == null
+
+        cleanup:
+        reading.close()
+        writing.close()
+    }
+
+    def "Every snippet of a script is reported as soon as it has run, with the first rows of its results"() {
+        given:
+        def steps = new CollectingSink()
+        def script = RESULT_SCRIPT + '''
+            System.out.println("almost done");
+            grid.size() * 2
+        '''
+
+        when:
+        def response = evaluator.evaluate(null, new EvaluationRequest(script), null, steps) as Success
+
+        then: 'all snippets are reported in order, the last one before the script\'s result'
+        response.output.readLines().last() == "2468"
+        steps.lines*.type.unique() == ["json/script-step"]
+        steps.lines*.index == (0..<7).toList()
+        steps.lines*.status.unique() == ["SUCCESS"]
+        steps.lines*.line == [2, 3, 4, 5, 6, 8, 9]
+        steps.lines[6].value == "2468"
+        steps.lines[5].output == "almost done\n"
+
+        and: 'results along the way come with their first rows'
+        steps.lines[1].grid == null
+        steps.lines[2].grid.rows == 0
+        steps.lines[4].grid.rows == 1234
+        steps.lines[4].grid.fields*.name == ["id"]
+        steps.lines[4].grid.records.collect { it[0] } == (0..<100).toList()
+    }
+
+    def "A failing snippet is the script's last step"() {
+        given:
+        def steps = new CollectingSink()
+
+        when:
+        def response = evaluator.evaluate(null, new EvaluationRequest(script), null, steps)
+
+        then:
+        !response.evaluationStatus.success
+        steps.lines*.status == statuses
+        steps.lines.last().error.contains(error)
+
+        where:
+        script                                                  | statuses                  | error
+        'int a = 1;\nint b = a / 0;\nint c = 3;'                | ["SUCCESS", "EXCEPTION"]  | "ArithmeticException"
+        'int a = 1;\nint b = undefined;\nint c = 3;'             | ["SUCCESS", "REJECTED"]   | "row 2"
+    }
+
+    def "Scripts of a single snippet have no steps to report"() {
+        given:
+        def steps = new CollectingSink()
+
+        when:
+        evaluator.evaluate(null, new EvaluationRequest("1 + 1"), null, steps)
+
+        then:
+        steps.lines.isEmpty()
+    }
+
+    /** Reads the columns encoded by {@link co.petrin.remote.GridColumns} back into lists of values */
+    static List<List> decodeColumns(String base64) {
+        readColumns(base64) { kind, rows, valid, buffer, start ->
+            (0..<rows).collect { row ->
+                if ((valid[row >> 3] & (1 << (row & 7))) == 0) {
+                    return null
+                }
+                switch (kind) {
+                    case GridColumns.INT8: return (int) buffer.get(start + row)
+                    case GridColumns.INT16: return (int) buffer.getShort(start + 2 * row)
+                    case GridColumns.INT32: return buffer.getInt(start + 4 * row)
+                    case GridColumns.FLOAT64: return buffer.getDouble(start + 8 * row)
+                    case GridColumns.BOOLEAN: return buffer.get(start + row) == 1
+                    default:
+                        int bytesStart = start + pad(4 * (rows + 1))
+                        int from = buffer.getInt(start + 4 * row)
+                        int to = buffer.getInt(start + 4 * row + 4)
+                        return new String(buffer.array(), bytesStart + from, to - from, "UTF-8")
+                }
+            }
+        }
+    }
+
+    /** Reads the kinds of the columns encoded by {@link co.petrin.remote.GridColumns} */
+    static List<Integer> kinds(String base64) {
+        readColumns(base64) { kind, rows, valid, buffer, start -> kind }
+    }
+
+    /** Walks the columns encoded by {@link co.petrin.remote.GridColumns}, reading each of them with the closure */
+    static List readColumns(String base64, Closure column) {
+        def buffer = java.nio.ByteBuffer.wrap(Base64.decoder.decode(base64)).order(java.nio.ByteOrder.LITTLE_ENDIAN)
+        int rows = buffer.getInt()
+        int columns = buffer.getInt()
+        (0..<columns).collect {
+            int kind = buffer.getInt()
+            int length = buffer.getInt()
+            def valid = new byte[pad((rows + 7).intdiv(8))]
+            buffer.get(valid)
+            int start = buffer.position()
+            def values = column(kind, rows, valid, buffer, start)
+            buffer.position(start + pad(length))
+            values
+        }
+    }
+
+    static int pad(int length) {
+        (length + 7) & ~7
+    }
+
+    Augmentor augmentor(String name, long budgetMs, String expression) {
+        [getName: { name }, getType: { "text/plain" }, getBudgetMs: { budgetMs }, createExpression: { event, db -> expression }] as Augmentor
+    }
+}
@@ -0,0 +1,56 @@
+import co.petrin.ClassDataArchive
+import co.petrin.EvaluationRequest
+import co.petrin.EvaluationResponse
+import co.petrin.Evaluator
+import spock.lang.*
+
+import java.nio.file.Files
+
+class ClassDataSharingSpec extends Specification {
+
+    static final String FIRST_SCRIPT = 'org.jooq.impl.DSL.using(org.jooq.SQLDialect.DEFAULT).selectOne().getSQL()'
+
+    /** The jOOQ jars from the test classpath, so spawned evaluators have something worth sharing */
+    List<String> getJooqClasspath() {
+        System.getProperty("java.class.path")
+            .split(File.pathSeparator)
+            .findAll { it.contains("jooq") && it.endsWith(".jar") }
+    }
+
+    def "Evaluators load jOOQ from the class data sharing archive"() {
+        given:
+        def archive = Files.createTempDirectory("cds").resolve("evaluator.jsa")
+        def classLoadLog = Files.createTempFile("cds", ".log")
+
+        when: 'the archive is created for the jOOQ classpath'
+        ClassDataArchive.create(archive, jooqClasspath)
+
+        then:
+        Files.isRegularFile(archive)
+
+        when: 'an evaluator is spawned that fails to start unless the archive can be mapped'
+        def shared = Evaluator.spawn(jooqClasspath, false, archive)
+        shared.remoteVMOptions.addAll("-Xshare:on", "-Xlog:class+load=info:file=" + classLoadLog)
+        def result = shared.evaluate(null, new EvaluationRequest(FIRST_SCRIPT), null)
+
+        then: 'it works and its jOOQ classes come from the archive'
+        result.evaluationStatus == EvaluationResponse.Status.SUCCESS
+        Files.readAllLines(classLoadLog).any { it.contains("org.jooq.impl.DSL source: shared objects file") }
+
+        cleanup:
+        shared?.close()
+        Files.deleteIfExists(archive)
+        Files.deleteIfExists(classLoadLog)
+    }
+
+    def "A missing archive is ignored"() {
+        given:
+        def eval = Evaluator.spawn(jooqClasspath, false, Files.createTempDirectory("cds").resolve("missing.jsa"))
+
+        expect:
+        eval.evaluate(null, new EvaluationRequest("1 + 1"), null).output == "2"
+
+        cleanup:
+        eval.close()
+    }
+}
@@ -0,0 +1,137 @@
+import co.petrin.Database
+import co.petrin.EvaluationRequest
+import co.petrin.EvaluationResponse
+import co.petrin.Evaluator
+import co.petrin.remote.ConnectionPool
+import spock.lang.*
+
+class ConnectionPoolSpec extends Specification {
+
+    static final String SESSION_ID = 'jooq.fetchValue("select session_id()")'
+
+    Database pooledDatabase(String name, int size) {
+        new Database("jdbc:h2:mem:$name;DB_CLOSE_DELAY=-1", name, "sa", "", null, null, size, 1800, "select 1", Database.DEFAULT_GRID_ROW_LIMIT, Database.DEFAULT_TIMEOUT_SECONDS, 0)
+    }
+
+    def "Evaluations against a pooled database reuse the same physical connection"() {
+        given:
+        def db = pooledDatabase("reuse", 2)
+        def eval = Evaluator.local()
+
+        when:
+        def first = eval.evaluate(db, new EvaluationRequest(SESSION_ID), [db])
+        def second = eval.evaluate(db, new EvaluationRequest(SESSION_ID), [db])
+
+        then:
+        first.evaluationStatus == EvaluationResponse.Status.SUCCESS
+        second.evaluationStatus == EvaluationResponse.Status.SUCCESS
+        first.output == second.output
+
+        and: 'the connection is back in the pool after each evaluation'
+        poolOf(db).idleCount() == 1
+
+        cleanup:
+        eval.close()
+    }
+
+    def "Connections left open by a script are closed when the evaluation ends"() {
+        given: 'a pool with a single connection'
+        def db = pooledDatabase("leak", 1)
+        def eval = Evaluator.local()
+
+        when: 'a script leaves a lazy cursor open'
+        def leaking = eval.evaluate(db, new EvaluationRequest('var cursor = jooq.selectOne().fetchLazy(); 1'), [db])
+
+        then: 'the connection is not returned to the pool in an unknown state'
+        leaking.evaluationStatus == EvaluationResponse.Status.SUCCESS
+        poolOf(db).idleCount() == 0
+
+        when: 'the next evaluation needs a connection'
+        def next = eval.evaluate(db, new EvaluationRequest('jooq.fetchValue("select 42")'), [db])
+
+        then: 'it gets one'
+        next.evaluationStatus == EvaluationResponse.Status.SUCCESS
+        next.output == "42"
+
+        cleanup:
+        eval.close()
+    }
+
+    def "Ending an evaluation leaves the connections of other evaluators sharing the JVM alone"() {
+        given: 'a connection borrowed by someone else from the same pool'
+        def db = pooledDatabase("shared", 2)
+        def other = poolOf(db).lease("someone else")
+        def connection = other.acquire()
+        def eval = Evaluator.local()
+
+        when:
+        def response = eval.evaluate(db, new EvaluationRequest('jooq.fetchValue("select 42")'), [db])
+
+        then:
+        response.output == "42"
+        !connection.isClosed()
+
+        cleanup:
+        other?.close()
+        eval.close()
+    }
+
+    def "Databases without a pool size open their own connections"() {
+        given:
+        def db = new Database("jdbc:h2:mem:unpooled;DB_CLOSE_DELAY=-1", "unpooled", "sa", "", null, null)
+        def eval = Evaluator.local()
+
+        when:
+        def first = eval.evaluate(db, new EvaluationRequest(SESSION_ID), [db])
+        def second = eval.evaluate(db, new EvaluationRequest(SESSION_ID), [db])
+
+        then:
+        !db.pooled
+        first.evaluationStatus == EvaluationResponse.Status.SUCCESS
+        first.output != second.output
+
+        cleanup:
+        eval.close()
+    }
+
+    def "A reused evaluator compiles the connection snippet only once per database"() {
+        given:
+        def db = pooledDatabase("compiled", 2)
+        def eval = Evaluator.local()
+
+        when: 'the evaluator is reset between evaluations against the same database'
+        def first = eval.evaluate(db, new EvaluationRequest(SESSION_ID), [db])
+        def scrubbed = eval.reset(db)
+        def second = eval.evaluate(db, new EvaluationRequest(SESSION_ID), [db])
+
+        then: 'the evaluations get a working connection from the snippet compiled by the first one'
+        scrubbed
+        first.evaluationStatus == EvaluationResponse.Status.SUCCESS
+        second.output == first.output
+        connectionSnippets(eval) == 1
+        poolOf(db).idleCount() == 1
+
+        when: 'a script redefines the jooq variable'
+        eval.reset(db)
+        def redefining = eval.evaluate(db, new EvaluationRequest('var jooq = 42; jooq'), [db])
+        eval.reset(db)
+        def third = eval.evaluate(db, new EvaluationRequest(SESSION_ID), [db])
+
+        then: 'the connection snippet is compiled again'
+        redefining.output == "42"
+        third.output == first.output
+        poolOf(db).idleCount() == 1
+
+        cleanup:
+        eval.close()
+    }
+
+    int connectionSnippets(Evaluator eval) {
+        eval.jShell.snippets().filter { it.source().startsWith("var jooq = co.petrin.remote.QueryLog.record(") }.count()
+    }
+
+    /** Local evaluators share this JVM, so the pool can be inspected directly */
+    ConnectionPool poolOf(Database db) {
+        ConnectionPool.get(db.connectionString, db.user, db.password, db.poolSize, db.poolMaxLifetimeSeconds * 1000L, db.poolValidationQuery)
+    }
+}
@@ -5,6 +5,8 @@ import co.petrin.response.Success
 import spock.lang.Specification
 import spock.lang.Timeout
 
+import java.util.concurrent.TimeUnit
+
 
 class NativeEvaluatorSpec extends Specification {
     def "Simple expressions can be evaluated"() {
@@ -48,6 +50,77 @@ class NativeEvaluatorSpec extends Specification {
         result.output == "a box"
     }
 
+    def "Successful evaluations report how long compiling and running the script took"() {
+        given:
+        def eval = Evaluator.local()
+        eval.prepare(null, null)
+        long invokeNanosBefore = eval.execution.invokeNanos
+
+        when:
+        def result = (Success)eval.evaluate(null, new EvaluationRequest("""
+            int x = 1;
+            System.out.print(x);
+        """), null)
+
+        then: 'the time spent running is the time the engine recorded for running the snippets'
+        result.executeMs == TimeUnit.NANOSECONDS.toMillis(eval.execution.invokeNanos - invokeNanosBefore)
+        result.compileMs >= 0
+        result.compileMs + result.executeMs <= result.durationInMs
+
+        cleanup:
+        eval.close()
+    }
+
+    def "A reused evaluator runs the statements it has run before from their classes"() {
+        given:
+        def eval = Evaluator.local()
+        def script = 'for (int i = 0; i < 3; i++) { System.out.print(i); }'
+        def first = eval.evaluate(null, new EvaluationRequest(script), null)
+        def compiledClass = eval.execution.lastInvokedClass
+        eval.reset(null)
+        def snippets = eval.jShell.snippets().count()
+
+        when:
+        def second = eval.evaluate(null, new EvaluationRequest(script), null)
+
+        then: 'the class the statement was compiled to is run again, without JShell compiling it'
+        first.output == "012"
+        second.output == "012"
+        eval.execution.lastInvokedClass == compiledClass
+        eval.jShell.snippets().count() == snippets
+
+        when: 'the same statement is run after a declaration it could refer to'
+        eval.reset(null)
+        def third = eval.evaluate(null, new EvaluationRequest('int i = 5;\n' + script), null)
+
+        then: 'it is compiled again'
+        third.output == "012"
+        eval.execution.lastInvokedClass != compiledClass
+
+        cleanup:
+        eval.close()
+    }
+
+    def "Exceptions of statements run from their classes are reported"() {
+        given:
+        def eval = Evaluator.local()
+        def script = 'if (Boolean.getBoolean("co.petrin.test.fail")) throw new IllegalStateException("boom");'
+        eval.evaluate(null, new EvaluationRequest(script), null)
+        eval.reset(null)
+
+        when:
+        System.setProperty("co.petrin.test.fail", "true")
+        def result = eval.evaluate(null, new EvaluationRequest(script), null)
+
+        then:
+        result.evaluationStatus == EvaluationResponse.Status.EVALUATION_ERROR
+        result.error == "java.lang.IllegalStateException: boom"
+
+        cleanup:
+        System.clearProperty("co.petrin.test.fail")
+        eval.close()
+    }
+
     @Timeout(10)
     def "Evaluation can be stopped"() {
         given: 'an evaluator that will get closed after 5 seconds'
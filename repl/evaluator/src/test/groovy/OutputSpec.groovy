@@ -1,6 +1,9 @@
+import co.petrin.AugmentationSink
 import co.petrin.EvaluationRequest
 import co.petrin.EvaluationResponse
 import co.petrin.Evaluator
+import co.petrin.OutputBuffer
+import groovy.json.JsonSlurper
 import spock.lang.Specification
 import spock.lang.Subject
 
@@ -98,4 +101,95 @@ class OutputSpec extends Specification {
         expect: 'error to be reported in the correct place'
         evaluator.evaluate(null, new EvaluationRequest(script), null).error == 'unclosed string literal (row 4, character 0)'
     }
+
+    def "Only the most recent output is kept, once a script prints more than the limit"() {
+        given:
+        def limited = Evaluator.local().withOutputLimit(1000)
+
+        when:
+        def result = limited.evaluate(null, new EvaluationRequest('for (int i = 0; i < 1000; i++) { System.out.println(i); }'), null)
+
+        then:
+        result.output.startsWith("[... 2890 bytes of output dropped ...]\n")
+        result.output.endsWith("997\n998\n999\n")
+        result.output.length() < 1100
+
+        cleanup:
+        limited.close()
+    }
+
+    def "Output buffers never split characters when dropping or reading output"() {
+        given:
+        def buffer = new OutputBuffer(7)
+        def bytes = "aéééé".getBytes("UTF-8")
+
+        when: 'the first character and half of the second are overwritten'
+        buffer.write(bytes, 0, bytes.length)
+
+        then:
+        buffer.text() == "[... 3 bytes of output dropped ...]\nééé"
+        buffer.read(7) == "é"
+
+        when: 'a character is only partially written'
+        buffer.write("é".getBytes("UTF-8"), 0, 1)
+
+        then:
+        buffer.completePosition() == 9
+        buffer.position() == 10
+    }
+
+    def "Output is passed on while the script is still running"() {
+        given:
+        def chunks = Collections.synchronizedList([])
+        def sink = new AugmentationSink() {
+            void writeLine(String json) {
+                chunks << [at: System.currentTimeMillis(), line: new JsonSlurper().parseText(json)]
+            }
+
+            boolean acceptsOutputChunks() {
+                true
+            }
+        }
+        def script = 'System.out.println("started");\nThread.sleep(1000);\nSystem.out.println("done");'
+
+        when:
+        def result = evaluator.evaluate(null, new EvaluationRequest(script), null, sink)
+        def finishedAt = System.currentTimeMillis()
+
+        then: 'the first line arrived long before the script ended'
+        result.output == "started\ndone\n"
+        chunks*.line*.type.unique() == ["text/output-chunk"]
+        // output printed right before the script ends may be left to the response
+        "started\ndone\n".startsWith(chunks*.line*.output.join(""))
+        chunks[0].line.output == "started\n"
+        finishedAt - chunks[0].at > 500
+    }
+
+    def "Chunks a slow receiver has no room for are skipped rather than waited for"() {
+        given:
+        def offered = Collections.synchronizedList([])
+        def sink = new AugmentationSink() {
+            void writeLine(String json) {
+                // a receiver that never catches up
+                Thread.sleep(Long.MAX_VALUE)
+            }
+
+            boolean offerLine(String json) {
+                offered << json
+                false
+            }
+
+            boolean acceptsOutputChunks() {
+                true
+            }
+        }
+        def script = 'for (int i = 0; i < 5; i++) { System.out.println(i); Thread.sleep(100); }'
+
+        when:
+        def result = evaluator.evaluate(null, new EvaluationRequest(script), null, sink)
+
+        then: 'the script is neither held up nor missing output'
+        result.output == "0\n1\n2\n3\n4\n"
+        !offered.isEmpty()
+    }
 }
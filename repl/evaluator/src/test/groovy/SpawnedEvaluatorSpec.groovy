@@ -52,6 +52,31 @@ class SpawnedEvaluatorSpec extends Specification {
         cowfulEvaluator.evaluate(null, command, null).output.contains('indigenous')
     }
 
+    def "Additional JARs can be provided from paths containing spaces, but not double quotes"() {
+        given:
+        def command = new EvaluationRequest('com.github.ricksbrown.cowsay.Cowsay.say(new String[] {"moo"});')
+        def cowjar = new File(getClass().classLoader.getResource("cowsay-1.0.3.jar").file)
+        def directory = File.createTempDir("cow pasture", "")
+        def spacedJar = new File(directory, "cow say.jar")
+        spacedJar.bytes = cowjar.bytes
+
+        when:
+        def eval = Evaluator.spawn([spacedJar.path], false)
+
+        then:
+        eval.evaluate(null, command, null).output.contains('moo')
+
+        when:
+        Evaluator.quoteRemoteVMOption('-Dpath=/tmp/"cows"')
+
+        then:
+        thrown(IllegalArgumentException)
+
+        cleanup:
+        eval?.close()
+        directory.deleteDir()
+    }
+
     def "Code inside spawned evaluators does not have access to the same classpath as the code that created the evaluator"() {
         expect:
         Evaluator.spawn(null, false).evaluate(null, new EvaluationRequest("spock.lang.Specification.class"), null).evaluationStatus == EvaluationResponse.Status.EVALUATION_ERROR
@@ -87,4 +112,44 @@ class SpawnedEvaluatorSpec extends Specification {
         and: 'calling stop again does not break anything'
         eval.stop()
     }
-}
\ No newline at end of file
+
+    def "Spawned evaluators can be scrubbed and reused"() {
+        given: 'an evaluator that has evaluated a script'
+        def eval = Evaluator.spawn(null, false)
+        eval.evaluate(null, new EvaluationRequest("var leftover = 42;"), null)
+
+        when: 'it is reset'
+        def scrubbed = eval.reset(null)
+
+        then: 'the reset is verified and no state of the previous script remains'
+        scrubbed
+        eval.evaluate(null, new EvaluationRequest("leftover"), null).evaluationStatus == EvaluationResponse.Status.PARSE_ERROR
+
+        and: 'the evaluator still works'
+        eval.evaluate(null, new EvaluationRequest("1 + 1"), null).output == "2"
+
+        cleanup:
+        eval?.close()
+    }
+
+    def "Health checks reveal threads left running by a script"() {
+        given:
+        def eval = Evaluator.spawn(null, false)
+        eval.evaluate(null, new EvaluationRequest("1"), null)
+        def healthBefore = eval.checkHealth()
+
+        when: 'a script leaves threads running behind it'
+        eval.evaluate(null, new EvaluationRequest("""
+            for (int a = 0; a < 5; a++) {
+                new Thread(() -> { try { Thread.sleep(60_000); } catch (InterruptedException ex) {} }).start();
+            }
+        """), null)
+        eval.reset(null)
+
+        then: 'the threads survive the reset but are reported by the health check'
+        eval.checkHealth().threadCount == healthBefore.threadCount + 5
+
+        cleanup:
+        eval?.close()
+    }
+}
@@ -51,4 +51,28 @@ class SuggestionsSpec extends Specification {
         suggestions.suggestions.find { it.continuation == "substring(" }
     }
 
-}
\ No newline at end of file
+    def "A kept shell only follows the changes to the script's imports"() {
+        given: 'a script importing a package'
+        def imported = 'import java.util.concurrent.*;\nConcurrentHash'
+        def notImported = 'ConcurrentHash'
+
+        when: 'asking for suggestions, keeping the shell'
+        def first = evaluator.suggest(null, new EvaluationRequest(imported), null, true)
+        def shell = evaluator.@jShell
+
+        and: 'asking again after the import was removed'
+        def second = evaluator.suggest(null, new EvaluationRequest(notImported), null, true)
+
+        then: 'the same shell served both requests'
+        shell != null
+        evaluator.@jShell.is(shell)
+
+        and: 'the suggestions followed the imports'
+        first.suggestions.find { it.continuation == "ConcurrentHashMap" }
+        !second.suggestions.find { it.continuation == "ConcurrentHashMap" }
+
+        cleanup:
+        evaluator.close()
+    }
+
+}
@@ -0,0 +1,65 @@
+import co.petrin.Database
+import co.petrin.EvaluationRequest
+import co.petrin.EvaluationResponse
+import co.petrin.Evaluator
+import co.petrin.remote.QueryLog
+import co.petrin.response.Timeout
+import spock.lang.*
+
+class TimeoutSpec extends Specification {
+
+    /**
+     * Spawned with jOOQ, H2 and the evaluator's own classes from the test classpath, as the connection is created and
+     * its queries are logged by the evaluation engine
+     */
+    @Shared @AutoCleanup Evaluator evaluator = Evaluator.spawn(
+        System.getProperty("java.class.path").split(File.pathSeparator).findAll { it.contains("jooq") || it.contains("h2") } +
+            new File(QueryLog.protectionDomain.codeSource.location.toURI()).path, false)
+
+    Database limitedDatabase(int timeoutSeconds, int cpuTimeoutSeconds) {
+        new Database("jdbc:h2:mem:", "limited", "sa", "", null, null, 0, 1800, null, Database.DEFAULT_GRID_ROW_LIMIT, timeoutSeconds, cpuTimeoutSeconds)
+    }
+
+    def "Scripts running longer than the timeout are stopped"() {
+        given:
+        def db = limitedDatabase(3, 0)
+
+        when:
+        def response = evaluator.evaluate(db, new EvaluationRequest("while (true) { Thread.sleep(10); }"), [db])
+
+        then:
+        response.evaluationStatus == EvaluationResponse.Status.TIMEOUT
+        !((Timeout) response).processDestroyed
+
+        and: 'the evaluator keeps working'
+        evaluator.evaluate(db, new EvaluationRequest("1 + 1"), [db]).output == "2"
+    }
+
+    def "Scripts using too much CPU time are stopped"() {
+        given:
+        def db = limitedDatabase(0, 1)
+
+        when:
+        def response = evaluator.evaluate(db, new EvaluationRequest("long i = 0; while (true) { i++; }"), [db])
+
+        then:
+        response.evaluationStatus == EvaluationResponse.Status.TIMEOUT
+        ((Timeout) response).error.contains("CPU")
+    }
+
+    def "Scripts that refuse to stop get their evaluation engine destroyed"() {
+        given:
+        def db = limitedDatabase(3, 0)
+        def stubborn = "while (true) { try { while (true) { Thread.sleep(10); } } catch (Throwable ignored) { } }"
+
+        when:
+        def response = evaluator.evaluate(db, new EvaluationRequest(stubborn), [db])
+
+        then:
+        response.evaluationStatus == EvaluationResponse.Status.TIMEOUT
+        ((Timeout) response).processDestroyed
+
+        and: 'a new engine is started for the next script'
+        evaluator.evaluate(db, new EvaluationRequest("1 + 1"), [db]).output == "2"
+    }
+}
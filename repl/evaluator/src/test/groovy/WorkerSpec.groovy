@@ -0,0 +1,136 @@
+import co.petrin.Database
+import co.petrin.EvaluationRequest
+import co.petrin.EvaluationResponse
+import co.petrin.Evaluator
+import co.petrin.response.Timeout
+import co.petrin.worker.Worker
+import co.petrin.worker.WorkerEndpoint
+import spock.lang.*
+import spock.util.concurrent.PollingConditions
+
+class WorkerSpec extends Specification {
+
+    /** jOOQ, H2 and the evaluator's own classes from the test classpath, which exist on the worker's machine too */
+    @Shared List<String> classpath =
+        System.getProperty("java.class.path").split(File.pathSeparator).findAll { it.contains("jooq") || it.contains("h2") } +
+            new File(Worker.protectionDomain.codeSource.location.toURI()).path
+
+    static final String SECRET = "worker-spec"
+
+    @Shared @AutoCleanup Worker worker = new Worker(null, 0, 2, SECRET).start()
+
+    @Shared WorkerEndpoint endpoint = new WorkerEndpoint(InetAddress.loopbackAddress.hostAddress, worker.port, SECRET)
+
+    Database database(int timeoutSeconds) {
+        new Database("jdbc:h2:mem:", "worker", "sa", "", null, null, 0, 1800, null, Database.DEFAULT_GRID_ROW_LIMIT, timeoutSeconds, 0)
+    }
+
+    def "Scripts are evaluated in an engine launched by a worker"() {
+        given:
+        def db = database(0)
+        def evaluator = Evaluator.remote({ endpoint }, classpath, false)
+
+        when:
+        def response = evaluator.evaluate(db, new EvaluationRequest(
+            'System.out.println("from the worker"); jooq.selectOne().fetchOne(0)'), [db])
+
+        then:
+        response.evaluationStatus == EvaluationResponse.Status.SUCCESS
+        response.output.readLines() == ["from the worker", "1"]
+        endpoint.load().sessions == 1
+
+        when:
+        evaluator.close()
+
+        then: 'the worker lets go of the engine'
+        new PollingConditions(timeout: 10).eventually {
+            assert endpoint.load().sessions == 0
+        }
+    }
+
+    def "Scripts that refuse to stop get their engine destroyed by the worker"() {
+        given:
+        def db = database(3)
+        def evaluator = Evaluator.remote({ endpoint }, classpath, false)
+        def stubborn = "while (true) { try { while (true) { Thread.sleep(10); } } catch (Throwable ignored) { } }"
+
+        when:
+        def response = evaluator.evaluate(db, new EvaluationRequest(stubborn), [db])
+
+        then:
+        response.evaluationStatus == EvaluationResponse.Status.TIMEOUT
+        ((Timeout) response).processDestroyed
+
+        and: 'a new engine is launched for the next script'
+        evaluator.evaluate(db, new EvaluationRequest("1 + 1"), [db]).output == "2"
+
+        cleanup:
+        evaluator.close()
+    }
+
+    def "A worker running as many engines as it may refuses to launch more"() {
+        given:
+        def evaluators = (1..3).collect { Evaluator.remote({ endpoint }, classpath, false) }
+
+        when:
+        evaluators[0].init([])
+        evaluators[1].init([])
+        evaluators[2].init([])
+
+        then:
+        def ex = thrown(IllegalStateException)
+        ex.message.contains("2 engines")
+        endpoint.load().sessions == 2
+
+        cleanup:
+        evaluators*.close()
+    }
+
+    def "Workers only serve evaluators that know their secret"() {
+        given:
+        def impostor = new WorkerEndpoint(InetAddress.loopbackAddress.hostAddress, worker.port, "guessed")
+
+        when:
+        impostor.load()
+
+        then:
+        thrown(IOException)
+    }
+
+    def "Workers launch engines only with the options evaluators generate, and sandbox them with a policy of their own"() {
+        given:
+        def evaluator = Evaluator.remote({ endpoint }, classpath, true)
+        evaluator.remoteVMOptions.add("-Djava.security.policy==/tmp/anything-goes.policy")
+
+        when:
+        evaluator.init([])
+
+        then:
+        def ex = thrown(IllegalStateException)
+        ex.message.contains("-Djava.security.policy==/tmp/anything-goes.policy is not allowed")
+
+        when:
+        evaluator.remoteVMOptions.clear()
+        def result = evaluator.evaluate(null, new EvaluationRequest('new java.io.File("/").isDirectory()'), null)
+
+        then: 'the policy written by the worker keeps the script off the file system'
+        result.error.contains "java.security.AccessControlException: access denied"
+
+        cleanup:
+        evaluator.close()
+    }
+
+    def "Options cannot be smuggled past the worker in unquoted paths"() {
+        expect:
+        (Worker.checkOptions(options) == null) == allowed
+
+        where:
+        options                                                  | allowed
+        ["--class-path", "/libs/a.jar:/libs/b.jar"]              | true
+        ["--class-path", '"/my libs/a.jar"']                     | true
+        ["--class-path", "/libs/a.jar -Djava.security.manager="] | false
+        ['"-XX:SharedArchiveFile=/my archives/jooq.jsa"']        | true
+        ["-XX:SharedArchiveFile=/a.jsa -agentlib:evil"]          | false
+        ["-agentlib:evil"]                                       | false
+    }
+}
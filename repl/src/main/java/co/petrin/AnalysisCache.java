@@ -0,0 +1,135 @@
+package co.petrin;
+
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Remembers the results of completion or javadoc requests, so the lookups many users make (e.g. {@code jooq.}) are
+ * answered without touching a shell. Results are keyed by the database, the imports before the cursor and the rest
+ * of the script up to the cursor, with whitespace normalized. The least recently used results are evicted once the
+ * cache is full, and everything is forgotten when the evaluator classpath changes.
+ * @param <T> The type of the cached results
+ */
+public class AnalysisCache<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(AnalysisCache.class);
+
+    private static final Pattern IMPORT = Pattern.compile("(?m)^\\s*import\\s+(static\\s+)?[\\w.]+(\\s*\\.\\s*\\*)?\\s*;");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /** How often the classpath is checked for changes */
+    private static final long CLASSPATH_CHECK_INTERVAL_MS = 10_000;
+
+    private final int maxSize;
+    private final Supplier<String> classpathFingerprint;
+    private final Map<String, T> results;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private String knownFingerprint;
+    private long classpathCheckedAt;
+
+    /**
+     * @param maxSize The maximum number of results to keep; 0 disables caching.
+     * @param classpathFingerprint Describes the evaluator classpath; the cache is cleared whenever it changes.
+     */
+    public AnalysisCache(int maxSize, Supplier<String> classpathFingerprint) {
+        this.maxSize = maxSize;
+        this.classpathFingerprint = classpathFingerprint;
+        this.results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+                return size() > maxSize;
+            }
+        };
+        this.knownFingerprint = classpathFingerprint.get();
+        this.classpathCheckedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the cached result for the request, computing and caching it if there is none.
+     * @param db The database the request is for, may be null.
+     * @param request The script and cursor position of the request.
+     * @param compute Computes the result on a cache miss; it is called without holding any locks.
+     */
+    public T get(Database db, EvaluationRequest request, Supplier<T> compute) {
+        if (maxSize <= 0) {
+            return compute.get();
+        }
+        var key = key(db, request);
+        synchronized (this) {
+            checkClasspath();
+            var cached = results.get(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+        misses.incrementAndGet();
+        var result = compute.get();
+        if (result != null) {
+            synchronized (this) {
+                results.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    /** The number of requests answered from the cache */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** The number of requests that had to be computed */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** The number of cached results */
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /** Forgets all cached results */
+    public synchronized void clear() {
+        results.clear();
+    }
+
+    private void checkClasspath() {
+        long now = System.currentTimeMillis();
+        if (now - classpathCheckedAt < CLASSPATH_CHECK_INTERVAL_MS) {
+            return;
+        }
+        classpathCheckedAt = now;
+        var fingerprint = classpathFingerprint.get();
+        if (!fingerprint.equals(knownFingerprint)) {
+            LOG.info("The evaluator classpath has changed, forgetting " + results.size() + " cached analysis results");
+            knownFingerprint = fingerprint;
+            results.clear();
+        }
+    }
+
+    /**
+     * Normalizes a request into a cache key: the database, the sorted imports before the cursor and the rest of the
+     * script up to the cursor, with all whitespace runs collapsed.
+     */
+    static String key(Database db, EvaluationRequest request) {
+        var script = request.getScript();
+        var prefix = script.substring(0, Math.max(0, Math.min(request.getCursorPosition(), script.length())));
+
+        var imports = new TreeSet<String>();
+        var matcher = IMPORT.matcher(prefix);
+        while (matcher.find()) {
+            imports.add(WHITESPACE.matcher(matcher.group().trim()).replaceAll(" "));
+        }
+        var code = WHITESPACE.matcher(IMPORT.matcher(prefix).replaceAll(" ")).replaceAll(" ").stripLeading();
+
+        return (db != null ? Integer.toString(db.id) : "-") + "\n" + String.join("\n", imports) + "\n\n" + code;
+    }
+}
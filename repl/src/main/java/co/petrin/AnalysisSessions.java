@@ -0,0 +1,227 @@
+package co.petrin;
+
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Keeps an evaluator alive for each user session and database, so completions and javadoc lookups don't pay for
+ * starting a shell and running the imports on every keystroke. Evaluators that are not used for a while, or that
+ * are pushed out by newer sessions, are given back to the evaluator pool.
+ *
+ * Requests lease a session's evaluator for as long as they use it. An evaluator whose session ends while it is
+ * leased is only given back once the last lease has ended.
+ */
+public class AnalysisSessions implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(AnalysisSessions.class);
+
+    /** An evaluator dedicated to one session's analysis requests against one database */
+    private class Session {
+        final Database database;
+        private Evaluator evaluator;
+
+        /** The number of leases that have not ended yet, guarded by the sessions' lock */
+        int leases;
+
+        /** Has the session ended? Guarded by the sessions' lock */
+        boolean ended;
+        volatile long idleSince = System.currentTimeMillis();
+
+        Session(Database database) {
+            this.database = database;
+        }
+
+        /** Gets the session's evaluator, creating it on first use */
+        synchronized Evaluator evaluator() {
+            if (evaluator == null) {
+                evaluator = factory.apply(database);
+            }
+            return evaluator;
+        }
+
+        /** Gives the evaluator back, if it has been created */
+        synchronized void release() {
+            if (evaluator != null) {
+                releaser.accept(evaluator, database);
+                evaluator = null;
+            }
+        }
+    }
+
+    /** A session's evaluator, kept from being given back until the lease ends */
+    public class Lease implements AutoCloseable {
+        private final Session session;
+        private boolean closed;
+
+        private Lease(Session session) {
+            this.session = session;
+        }
+
+        /**
+         * The session's evaluator. It keeps belonging to the session; it must not be closed or released by the
+         * caller, nor used once the lease has ended.
+         */
+        public Evaluator evaluator() {
+            return session.evaluator();
+        }
+
+        @Override
+        public void close() {
+            boolean release;
+            synchronized (AnalysisSessions.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                session.leases--;
+                session.idleSince = System.currentTimeMillis();
+                release = session.ended && session.leases == 0;
+            }
+            if (release) {
+                session.release();
+            }
+        }
+    }
+
+    /** Gets a new evaluator for a database */
+    private final Function<Database, Evaluator> factory;
+
+    /** Gives evaluators that are no longer needed back to the evaluator pool */
+    private final BiConsumer<Evaluator, Database> releaser;
+    private final long maxIdleMs;
+    private final int maxSessions;
+
+    /** The sessions by session ID and database, guarded by this object's lock */
+    private final Map<String, Session> sessions = new HashMap<>();
+
+    private final ScheduledExecutorService expiryExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "analysis-sessions-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Creates the session store with its limits read from environment variables.
+     * @param factory Gets a new evaluator for a database.
+     * @param releaser Gives evaluators back to the pool once their session is over.
+     */
+    public AnalysisSessions(Function<Database, Evaluator> factory, BiConsumer<Evaluator, Database> releaser) {
+        this(factory, releaser,
+            Environment.getInt("REPL_ANALYSIS_IDLE_SECONDS", 600) * 1000L,
+            Environment.getInt("REPL_ANALYSIS_MAX_SESSIONS", 32));
+    }
+
+    /**
+     * @param factory Gets a new evaluator for a database.
+     * @param releaser Gives evaluators back to the pool once their session is over.
+     * @param maxIdleMs How long a session's evaluator is kept without being used.
+     * @param maxSessions The maximum number of evaluators kept; 0 disables keeping them.
+     */
+    public AnalysisSessions(Function<Database, Evaluator> factory, BiConsumer<Evaluator, Database> releaser, long maxIdleMs, int maxSessions) {
+        this.factory = factory;
+        this.releaser = releaser;
+        this.maxIdleMs = maxIdleMs;
+        this.maxSessions = maxSessions;
+        long expiryPeriod = Math.max(1000, maxIdleMs / 2);
+        expiryExecutor.scheduleWithFixedDelay(this::evictExpired, expiryPeriod, expiryPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /** Can evaluators be kept between requests at all? */
+    public boolean isEnabled() {
+        return maxSessions > 0;
+    }
+
+    /**
+     * Leases the session's evaluator for the database, creating one if there is none yet. If there are too many
+     * sessions, the least recently used one is ended to make room. The lease must be closed once the evaluator is
+     * no longer used.
+     */
+    public Lease lease(String sessionId, Database database) {
+        var key = sessionId + "/" + (database != null ? database.id : "-");
+        var ended = new ArrayList<Session>();
+        Session session;
+        synchronized (this) {
+            session = sessions.get(key);
+            if (session == null) {
+                while (!sessions.isEmpty() && sessions.size() >= maxSessions) {
+                    sessions.entrySet().stream()
+                        .min(Comparator.comparingLong(entry -> entry.getValue().idleSince))
+                        .map(oldest -> end(oldest.getKey()))
+                        .ifPresent(ended::add);
+                }
+                session = new Session(database);
+                sessions.put(key, session);
+            }
+            session.leases++;
+            session.idleSince = System.currentTimeMillis();
+        }
+        releaseEnded(ended);
+        return new Lease(session);
+    }
+
+    /** The number of evaluators kept for sessions */
+    public synchronized int size() {
+        return sessions.size();
+    }
+
+    /** Ends all sessions, giving back their evaluators, e.g. because the evaluator classpath has changed */
+    public void clear() {
+        List<Session> ended;
+        synchronized (this) {
+            ended = new ArrayList<>(sessions.keySet()).stream().map(this::end).collect(toList());
+        }
+        releaseEnded(ended);
+    }
+
+    @Override
+    public void close() {
+        expiryExecutor.shutdownNow();
+        clear();
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        var ended = new ArrayList<Session>();
+        synchronized (this) {
+            new ArrayList<>(sessions.entrySet()).forEach(entry -> {
+                if (entry.getValue().leases == 0 && now - entry.getValue().idleSince > maxIdleMs) {
+                    LOG.debug("Analysis session " + entry.getKey() + " has been idle for too long, releasing its evaluator");
+                    ended.add(end(entry.getKey()));
+                }
+            });
+        }
+        releaseEnded(ended);
+    }
+
+    /** Removes a session; its evaluator must be given back by calling {@link #releaseEnded} outside of the lock */
+    private Session end(String key) {
+        var session = sessions.remove(key);
+        session.ended = true;
+        return session;
+    }
+
+    /** Gives back the evaluators of ended sessions that are not leased */
+    private void releaseEnded(List<Session> ended) {
+        for (var session : ended) {
+            boolean leased;
+            synchronized (this) {
+                leased = session.leases > 0;
+            }
+            if (!leased) {
+                session.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package co.petrin;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Reads application settings from environment variables.
+ */
+public class Environment {
+
+    private Environment() {
+    }
+
+    /**
+     * Reads a whole, non-negative number from an environment variable.
+     * @param name The name of the environment variable.
+     * @param defaultValue The value to use if the variable is not set or is not a number.
+     */
+    public static int getInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (StringUtils.isNumeric(value)) {
+            return Integer.parseInt(value);
+        } else {
+            return defaultValue;
+        }
+    }
+
+    /** Is the environment variable present at all, regardless of its value? */
+    public static boolean isSet(String name) {
+        return System.getenv().containsKey(name);
+    }
+}
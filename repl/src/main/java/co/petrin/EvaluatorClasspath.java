@@ -0,0 +1,207 @@
+package co.petrin;
+
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * The classpath given to evaluators in addition to their own. Its directories are searched for JAR files, including
+ * their subdirectories, once rather than whenever an evaluator creates its shell. Once watched, the classpath is
+ * resolved again whenever JAR files are added to its directories, changed or removed, and the listeners are told,
+ * e.g. to replace the evaluators that were started with the old JAR files.
+ */
+public class EvaluatorClasspath implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(EvaluatorClasspath.class);
+
+    /** Name of the system variable containing a whitespace-separated classpath to provide a remote evaluator with */
+    private static final String ENVIRONMENT_VARIABLE = "EVALUATOR_CLASSPATH";
+
+    /** Copying a JAR file causes a burst of events; the classpath is only resolved again once they have stopped */
+    private static final long QUIET_PERIOD_MS = 1000;
+
+    private final List<String> entries;
+    private volatile List<String> resolved;
+    private volatile String fingerprint;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private WatchService watchService;
+
+    /** @param entries The classpath entries, directories or JAR files. */
+    public EvaluatorClasspath(List<String> entries) {
+        this.entries = List.copyOf(entries);
+        this.resolved = Evaluator.resolveClasspath(this.entries);
+        this.fingerprint = fingerprint(resolved);
+    }
+
+    /** Reads the classpath from the <code>EVALUATOR_CLASSPATH</code> environment variable */
+    public static EvaluatorClasspath fromEnvironment() {
+        var classpath = StringUtils.defaultString(System.getenv(ENVIRONMENT_VARIABLE));
+        return new EvaluatorClasspath(Arrays.stream(classpath.split("\\s")).filter(StringUtils::isNotBlank).collect(Collectors.toList()));
+    }
+
+    /** The configured classpath entries */
+    public List<String> getEntries() {
+        return entries;
+    }
+
+    /** The classpath entries, each followed by the JAR files it contains if it is a directory */
+    public List<String> getResolved() {
+        return resolved;
+    }
+
+    /** Describes the files on the classpath by their names, sizes and modification times */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /** Adds a listener that is run, on the watching thread, after the classpath has changed */
+    public void onChange(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Starts watching the classpath's directories for changed JAR files on a thread of its own. Does nothing if none
+     * of the entries are directories.
+     */
+    public synchronized void watch() {
+        if (watchService != null) {
+            return;
+        }
+        var directories = entries.stream().map(Path::of).filter(Files::isDirectory).collect(Collectors.toList());
+        if (directories.isEmpty()) {
+            return;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException ex) {
+            LOG.warn("The evaluator classpath cannot be watched for changes", ex);
+            return;
+        }
+        directories.forEach(this::register);
+
+        var thread = new Thread(this::run, "evaluator-classpath-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        LOG.info("Watching " + directories.size() + " evaluator classpath directories for changed JAR files");
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                boolean changed = handle(watchService.take());
+                WatchKey next;
+                while ((next = watchService.poll(QUIET_PERIOD_MS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= handle(next);
+                }
+                if (changed) {
+                    refresh();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            // closed
+        }
+    }
+
+    /** Registers a directory and all of its subdirectories with the watch service */
+    private void register(Path directory) {
+        try (var paths = Files.walk(directory)) {
+            paths.filter(Files::isDirectory).forEach(dir -> {
+                try {
+                    dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                } catch (IOException ex) {
+                    LOG.warn("Could not watch " + dir + " for changed JAR files", ex);
+                }
+            });
+        } catch (IOException | UncheckedIOException ex) {
+            LOG.warn("Could not watch " + directory + " for changed JAR files", ex);
+        }
+    }
+
+    /** Handles the events of a watched directory, telling whether any of them may have changed the classpath */
+    private boolean handle(WatchKey key) {
+        var directory = (Path) key.watchable();
+        boolean changed = false;
+        for (var event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                changed = true;
+                continue;
+            }
+            var path = directory.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                // a directory may have been moved here along with its JAR files
+                register(path);
+                changed = true;
+            } else if (path.toString().endsWith(".jar")) {
+                changed = true;
+            } else if (event.kind() == ENTRY_DELETE) {
+                var prefix = path + File.separator;
+                changed |= resolved.stream().anyMatch(cp -> cp.startsWith(prefix));
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /** Resolves the classpath again, telling the listeners if any of its files have changed */
+    void refresh() {
+        var newResolved = Evaluator.resolveClasspath(entries);
+        var newFingerprint = fingerprint(newResolved);
+        if (newFingerprint.equals(fingerprint)) {
+            return;
+        }
+        resolved = newResolved;
+        fingerprint = newFingerprint;
+        LOG.info("The evaluator classpath has changed, it now has " + newResolved.size() + " entries");
+        for (var listener : listeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException ex) {
+                LOG.error("Could not apply the changed evaluator classpath", ex);
+            }
+        }
+    }
+
+    private static String fingerprint(List<String> classpath) {
+        return classpath.stream()
+            .map(Path::of)
+            .map(path -> {
+                try {
+                    return path + ":" + Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis();
+                } catch (IOException ex) {
+                    return path + ":missing";
+                }
+            })
+            .collect(Collectors.joining("\n"));
+    }
+
+    /** Stops watching the classpath */
+    @Override
+    public synchronized void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ex) {
+                LOG.warn("Could not stop watching the evaluator classpath", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package co.petrin;
+
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a number of spawned evaluators initialized and waiting, so requests don't have to wait for a new JVM to
+ * start up. Idle evaluators are kept separately for each database because they already have that database's
+ * script prefix imported. Whenever an evaluator is taken, a replacement is spawned on a dedicated thread.
+ *
+ * By default every evaluator runs a single request and is then closed. In reuse mode, evaluators that are given
+ * back are scrubbed and returned to the pool instead, so a warmed-up JVM can serve many requests.
+ */
+public class EvaluatorPool implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(EvaluatorPool.class);
+
+    /** The pool's tunables */
+    public static class Settings {
+        /** The number of idle evaluators to keep ready for each database */
+        public int minIdle = 1;
+
+        /** The maximum number of idle evaluators across all databases */
+        public int maxSize = 8;
+
+        /** The minimum delay between spawning two evaluators */
+        public long refillIntervalMs = 500;
+
+        /** How long an evaluator may stay in the pool before it is replaced with a fresh one, 0 for forever */
+        public long maxIdleMs = 600_000;
+
+        /** Should evaluators be scrubbed and reused after a request instead of being closed? */
+        public boolean reuse = false;
+
+        /** How many scripts a reused evaluator may run before it is retired */
+        public int maxUses = 50;
+
+        /** A reused evaluator whose heap use exceeds this many bytes after a request is retired */
+        public long maxHeapBytes = 256L * 1024 * 1024;
+
+        /** A reused evaluator with more live threads than this after a request is retired */
+        public int maxThreads = 16;
+
+        /** Reads the settings from the environment, using the defaults for any that are not set */
+        public static Settings fromEnvironment() {
+            var settings = new Settings();
+            settings.minIdle = Environment.getInt("REPL_POOL_MIN_IDLE", settings.minIdle);
+            settings.maxSize = Environment.getInt("REPL_POOL_MAX_SIZE", settings.maxSize);
+            settings.refillIntervalMs = Environment.getInt("REPL_POOL_REFILL_INTERVAL_MS", (int)settings.refillIntervalMs);
+            settings.maxIdleMs = Environment.getInt("REPL_POOL_MAX_IDLE_SECONDS", (int)(settings.maxIdleMs / 1000)) * 1000L;
+            settings.reuse = Environment.isSet("REPL_EVALUATOR_REUSE");
+            settings.maxUses = Environment.getInt("REPL_EVALUATOR_MAX_USES", settings.maxUses);
+            settings.maxHeapBytes = Environment.getInt("REPL_EVALUATOR_MAX_HEAP_MB", (int)(settings.maxHeapBytes / 1024 / 1024)) * 1024L * 1024;
+            settings.maxThreads = Environment.getInt("REPL_EVALUATOR_MAX_THREADS", settings.maxThreads);
+            return settings;
+        }
+    }
+
+    /** The pool key used for requests that do not target a database */
+    private static final int NO_DATABASE_KEY = -1;
+
+    /** An idle evaluator together with the time it entered the pool */
+    private static class PooledEvaluator {
+        final Evaluator evaluator;
+        final long idleSince = System.currentTimeMillis();
+
+        PooledEvaluator(Evaluator evaluator) {
+            this.evaluator = evaluator;
+        }
+    }
+
+    private final Supplier<Evaluator> evaluatorFactory;
+    private final List<Database> databases;
+
+    /** The databases we keep evaluators ready for; contains a null if we are pooling database-less evaluators */
+    private final List<Database> pooledDatabases;
+
+    private final Settings settings;
+
+    /** Idle evaluators, keyed by database ID */
+    private final Map<Integer, ConcurrentLinkedDeque<PooledEvaluator>> idle = new ConcurrentHashMap<>();
+
+    /** Spawns replacement evaluators and retires old ones */
+    private final ScheduledExecutorService refillExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "evaluator-pool-refill");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Scrubs evaluators given back in reuse mode, separate from the refill so slow spawns don't delay reuse */
+    private final ExecutorService recycleExecutor = Executors.newSingleThreadExecutor(r -> {
+        var thread = new Thread(r, "evaluator-pool-recycle");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Is a refill already scheduled? Prevents refill tasks from piling up when many evaluators are taken at once */
+    private final AtomicBoolean refillScheduled = new AtomicBoolean();
+
+    /** Counts how often the pool was renewed; evaluators spawned before the last renewal are never reused */
+    private volatile int generation;
+
+    /** The generation each evaluator that is still around was spawned in */
+    private final Map<Evaluator, Integer> generations = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Creates a pool with the settings read from environment variables and starts filling it.
+     * @param evaluatorFactory Creates new, uninitialized evaluators.
+     * @param databases All the configured databases.
+     */
+    public EvaluatorPool(Supplier<Evaluator> evaluatorFactory, List<Database> databases) {
+        this(evaluatorFactory, databases, Settings.fromEnvironment());
+    }
+
+    /**
+     * Creates a pool and starts filling it.
+     * @param evaluatorFactory Creates new, uninitialized evaluators.
+     * @param databases All the configured databases.
+     * @param settings The pool's size limits and reuse policy.
+     */
+    public EvaluatorPool(Supplier<Evaluator> evaluatorFactory, List<Database> databases, Settings settings) {
+        this.evaluatorFactory = evaluatorFactory;
+        this.databases = databases;
+        this.settings = settings;
+
+        pooledDatabases = new ArrayList<>(databases);
+        if (pooledDatabases.isEmpty()) {
+            pooledDatabases.add(null);
+        }
+        for (var db : pooledDatabases) {
+            idle.put(key(db), new ConcurrentLinkedDeque<>());
+        }
+
+        LOG.info("Evaluator pool keeps " + settings.minIdle + " evaluator(s) per database ready, at most " + settings.maxSize + " in total");
+        if (settings.reuse) {
+            LOG.info("Evaluators are reused up to " + settings.maxUses + " times");
+        }
+        if (settings.maxIdleMs > 0) {
+            long evictionPeriod = Math.max(1000, settings.maxIdleMs / 2);
+            refillExecutor.scheduleWithFixedDelay(this::evictExpired, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+        }
+        scheduleRefill(0);
+    }
+
+    /**
+     * Takes an initialized evaluator for the given database out of the pool, or creates one on the spot if none
+     * are waiting. The caller owns the returned evaluator and must hand it back via {@link #release} when done.
+     * @param db The database the evaluator will be used with, may be null.
+     */
+    public Evaluator take(Database db) {
+        var queue = idle.get(key(db));
+        PooledEvaluator pooled = null;
+        if (queue != null) {
+            while ((pooled = queue.pollFirst()) != null && isExpired(pooled)) {
+                pooled.evaluator.close();
+            }
+        }
+        scheduleRefill(0);
+
+        if (pooled != null) {
+            return pooled.evaluator;
+        } else {
+            LOG.debug("No idle evaluator available, spawning one on demand");
+            return spawn(db);
+        }
+    }
+
+    /**
+     * Gives back an evaluator that was taken from the pool. In reuse mode, the evaluator is scrubbed in the
+     * background and put back into the pool if it is still healthy, otherwise it is closed.
+     * @param evaluator The evaluator to give back.
+     * @param db The database the evaluator was taken for.
+     * @param reusable False if the evaluator should not be reused in any case, e.g. because its request was aborted.
+     */
+    public void release(Evaluator evaluator, Database db, boolean reusable) {
+        if (settings.reuse && reusable && !recycleExecutor.isShutdown()) {
+            recycleExecutor.execute(() -> recycle(evaluator, db));
+        } else {
+            evaluator.close();
+        }
+    }
+
+    /**
+     * Replaces all evaluators with freshly spawned ones, e.g. because the evaluator classpath has changed. Idle
+     * evaluators are closed right away; the ones currently taken are closed instead of being reused once they are
+     * given back.
+     */
+    public synchronized void renew() {
+        generation++;
+        int closed = 0;
+        for (var queue : idle.values()) {
+            PooledEvaluator pooled;
+            while ((pooled = queue.pollFirst()) != null) {
+                pooled.evaluator.close();
+                closed++;
+            }
+        }
+        LOG.info("Renewing the evaluator pool, closed " + closed + " idle evaluator(s)");
+        scheduleRefill(0);
+    }
+
+    /** The number of evaluators currently waiting in the pool */
+    public int size() {
+        return idle.values().stream().mapToInt(ConcurrentLinkedDeque::size).sum();
+    }
+
+    /** Closes all idle evaluators and stops refilling the pool */
+    @Override
+    public void close() {
+        refillExecutor.shutdownNow();
+        recycleExecutor.shutdownNow();
+        idle.values().forEach(queue -> {
+            PooledEvaluator pooled;
+            while ((pooled = queue.pollFirst()) != null) {
+                pooled.evaluator.close();
+            }
+        });
+    }
+
+    private void scheduleRefill(long delayMs) {
+        if (!refillExecutor.isShutdown() && refillScheduled.compareAndSet(false, true)) {
+            refillExecutor.schedule(this::refill, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Spawns a single evaluator for the database that lacks them the most, rescheduling itself if more are needed */
+    private void refill() {
+        var slot = mostNeededDatabase();
+        if (slot.isPresent()) {
+            var db = slot.get().database;
+            try {
+                var evaluator = spawn(db);
+                if (isOutdated(evaluator)) {
+                    // the pool was renewed while the evaluator was being spawned
+                    evaluator.close();
+                } else {
+                    idle.get(key(db)).addLast(new PooledEvaluator(evaluator));
+                }
+            } catch (RuntimeException ex) {
+                LOG.error("Could not spawn an evaluator for the pool", ex);
+            }
+        }
+
+        refillScheduled.set(false);
+        // check again, evaluators may have been taken while we were busy spawning
+        if (mostNeededDatabase().isPresent()) {
+            scheduleRefill(slot.isPresent() ? settings.refillIntervalMs : 0);
+        }
+    }
+
+    /** Scrubs a used evaluator and puts it back into the pool, or retires it if it cannot be safely reused */
+    private void recycle(Evaluator evaluator, Database db) {
+        var queue = idle.get(key(db));
+        String retirementReason = null;
+        try {
+            if (queue == null) {
+                retirementReason = "its database is not pooled";
+            } else if (isOutdated(evaluator)) {
+                retirementReason = "the pool has been renewed since it was spawned";
+            } else if (evaluator.getUses() >= settings.maxUses) {
+                retirementReason = "it was used " + evaluator.getUses() + " times";
+            } else if (size() >= settings.maxSize) {
+                retirementReason = "the pool is full";
+            } else if (!evaluator.reset(db)) {
+                retirementReason = "its state could not be scrubbed";
+            } else {
+                var health = evaluator.checkHealth();
+                if (health == null) {
+                    retirementReason = "its health could not be checked";
+                } else if (health.usedHeapBytes > settings.maxHeapBytes || health.threadCount > settings.maxThreads) {
+                    retirementReason = "it is polluted (" + health + ")";
+                }
+            }
+        } catch (RuntimeException ex) {
+            retirementReason = "scrubbing failed: " + ex.getMessage();
+        }
+
+        if (retirementReason == null) {
+            queue.addFirst(new PooledEvaluator(evaluator));
+        } else {
+            LOG.debug("Retiring evaluator because " + retirementReason);
+            evaluator.close();
+            scheduleRefill(0);
+        }
+    }
+
+    /** Creates an evaluator and runs the database's imports in it */
+    private Evaluator spawn(Database db) {
+        var evaluator = evaluatorFactory.get();
+        generations.put(evaluator, generation);
+        evaluator.prepare(db, databases);
+        return evaluator;
+    }
+
+    /** Was the evaluator spawned before the pool was last renewed? */
+    private boolean isOutdated(Evaluator evaluator) {
+        int current = generation;
+        return generations.getOrDefault(evaluator, current) != current;
+    }
+
+    /** Finds the pooled database with the fewest idle evaluators, if any of them are below the minimum */
+    private Optional<DatabaseSlot> mostNeededDatabase() {
+        if (size() >= settings.maxSize) {
+            return Optional.empty();
+        }
+        DatabaseSlot neediest = null;
+        for (var db : pooledDatabases) {
+            int available = idle.get(key(db)).size();
+            if (available < settings.minIdle && (neediest == null || available < neediest.available)) {
+                neediest = new DatabaseSlot(db, available);
+            }
+        }
+        return Optional.ofNullable(neediest);
+    }
+
+    /** Closes evaluators that have been waiting for too long; the refill will replace them */
+    private void evictExpired() {
+        for (var queue : idle.values()) {
+            for (var pooled : queue) {
+                // a request may have taken the evaluator in the meantime, only close it if we removed it ourselves
+                if (isExpired(pooled) && queue.remove(pooled)) {
+                    pooled.evaluator.close();
+                }
+            }
+        }
+        scheduleRefill(0);
+    }
+
+    private boolean isExpired(PooledEvaluator pooled) {
+        return settings.maxIdleMs > 0 && System.currentTimeMillis() - pooled.idleSince > settings.maxIdleMs;
+    }
+
+    private static int key(Database db) {
+        return db != null ? db.id : NO_DATABASE_KEY;
+    }
+
+    /** A database together with the number of evaluators waiting for it */
+    private static class DatabaseSlot {
+        final Database database;
+        final int available;
+
+        DatabaseSlot(Database database, int available) {
+            this.database = database;
+            this.available = available;
+        }
+    }
+}
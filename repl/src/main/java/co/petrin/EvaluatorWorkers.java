@@ -0,0 +1,134 @@
+package co.petrin;
+
+import co.petrin.worker.WorkerEndpoint;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * The standalone worker processes evaluators launch their engines on instead of spawning them on this machine, see
+ * {@link co.petrin.worker.Worker}. Every worker is regularly asked how many engines it runs, which doubles as a
+ * health check, and new engines go to the healthy worker with the fewest.
+ */
+public class EvaluatorWorkers implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(EvaluatorWorkers.class);
+
+    /** A worker and what was last heard from it */
+    static class Member {
+        final WorkerEndpoint endpoint;
+        volatile boolean healthy = true;
+        volatile int sessions;
+        volatile int maxSessions = Integer.MAX_VALUE;
+        /** The engines launched on the worker since it was last asked how many it runs */
+        final AtomicInteger picked = new AtomicInteger();
+
+        Member(WorkerEndpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        int getLoad() {
+            return sessions + picked.get();
+        }
+    }
+
+    private final List<Member> members;
+
+    private final ScheduledExecutorService healthChecks = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "evaluator-workers-health");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Reads the workers from the <code>EVALUATOR_WORKERS</code> environment variable, a whitespace- or
+     * comma-separated list of <code>host:port</code>s, and the secret they were started with from
+     * <code>EVALUATOR_WORKER_SECRET</code>.
+     * @return The workers, or null if none are configured and evaluators should spawn their engines themselves
+     * @throws IllegalArgumentException If workers are configured without a secret
+     */
+    public static EvaluatorWorkers fromEnvironment() {
+        var workers = StringUtils.defaultString(System.getenv("EVALUATOR_WORKERS"));
+        var secret = System.getenv(WorkerEndpoint.SECRET_VARIABLE);
+        var endpoints = Arrays.stream(workers.split("[\\s,]"))
+            .filter(StringUtils::isNotBlank)
+            .map(worker -> WorkerEndpoint.parse(worker, secret))
+            .collect(toList());
+        if (endpoints.isEmpty()) {
+            return null;
+        }
+        return new EvaluatorWorkers(endpoints, Environment.getInt("EVALUATOR_WORKER_HEALTH_SECONDS", 10) * 1000L);
+    }
+
+    /**
+     * @param endpoints The workers.
+     * @param healthCheckMs How often the workers are asked how many engines they run.
+     */
+    public EvaluatorWorkers(List<WorkerEndpoint> endpoints, long healthCheckMs) {
+        this.members = endpoints.stream().map(Member::new).collect(toList());
+        // until the first check, every worker is assumed to be healthy and idle
+        healthChecks.scheduleWithFixedDelay(this::checkHealth, healthCheckMs, healthCheckMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Picks the worker to launch the next engine on: the healthy worker running the fewest engines, preferring the
+     * ones that have not reached their limit. If no worker is healthy, they are all tried, as one may have recovered
+     * since it was last checked.
+     */
+    public WorkerEndpoint pick() {
+        var healthy = members.stream().filter(member -> member.healthy).collect(toList());
+        var candidates = healthy.isEmpty() ? members : healthy;
+        var member = candidates.stream()
+            .min(Comparator.<Member, Boolean>comparing(candidate -> candidate.getLoad() >= candidate.maxSessions)
+                .thenComparingInt(Member::getLoad))
+            .orElseThrow();
+        member.picked.incrementAndGet();
+        return member.endpoint;
+    }
+
+    /** Asks every worker how many engines it runs, marking the ones that do not answer as unhealthy */
+    void checkHealth() {
+        for (var member : members) {
+            try {
+                var load = member.endpoint.load();
+                member.sessions = load.sessions;
+                member.maxSessions = load.maxSessions;
+                member.picked.set(0);
+                if (!member.healthy) {
+                    LOG.info("Worker " + member.endpoint + " is reachable again");
+                    member.healthy = true;
+                }
+            } catch (IOException ex) {
+                if (member.healthy) {
+                    LOG.warn("Worker " + member.endpoint + " is not reachable: " + ex.getMessage());
+                    member.healthy = false;
+                }
+            }
+        }
+    }
+
+    /** The number of workers that answered the last health check */
+    public int getHealthy() {
+        return (int) members.stream().filter(member -> member.healthy).count();
+    }
+
+    /** The number of workers */
+    public int size() {
+        return members.size();
+    }
+
+    @Override
+    public void close() {
+        healthChecks.shutdownNow();
+    }
+}
@@ -0,0 +1,167 @@
+package co.petrin;
+
+import co.petrin.response.EvaluationError;
+import co.petrin.response.Success;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Runs a script against several databases at once, e.g. to compare the same query on a replica, on staging and in
+ * every dialect. Each database gets an evaluator of its own from the pool, and each response is streamed as soon as
+ * it is ready, followed by a table of how long every database took once they are all done.
+ */
+public class FanOut implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(FanOut.class);
+
+    /** The type of the line listing how long every database took */
+    public static final String TIMINGS_TYPE = "json/fanout-timings";
+
+    private final EvaluatorPool pool;
+    private final Metrics metrics;
+    private final List<Database> databases;
+    private final WorkerExecutor executor;
+
+    /**
+     * @param pool The pool to take the evaluators from.
+     * @param databases All the configured databases.
+     * @param concurrency The maximum number of scripts run at once, across all fan-outs.
+     */
+    public FanOut(Vertx vertx, EvaluatorPool pool, Metrics metrics, List<Database> databases, int concurrency) {
+        this.pool = pool;
+        this.metrics = metrics;
+        this.databases = databases;
+        this.executor = vertx.createSharedWorkerExecutor("fanout-worker", concurrency);
+    }
+
+    /** How one database's evaluation went */
+    private static class Timing {
+        final Database db;
+        final EvaluationResponse response;
+        final long totalMs;
+
+        Timing(Database db, EvaluationResponse response, long totalMs) {
+            this.db = db;
+            this.response = response;
+            this.totalMs = totalMs;
+        }
+    }
+
+    /**
+     * Evaluates the script against every database in parallel. Every line written into the sink is tagged with the
+     * database it belongs to: each response followed by its augmented output, in the order the databases finish.
+     * Grids are cut off at their database's row limit, as there is no request to page through them with. The table
+     * of timings comes last. Blocks until all evaluations are done.
+     * @param targets The databases to run the script against.
+     * @param sink Where to write the responses to; written into by several threads at once, a line at a time.
+     * @param onAbort Is given what to run when the client goes away, which stops the evaluations still running.
+     */
+    public void evaluate(EvaluationRequest request, List<Database> targets, AugmentationSink sink, Consumer<Runnable> onAbort) {
+        var running = ConcurrentHashMap.<Evaluator>newKeySet();
+        var aborted = new AtomicBoolean();
+        onAbort.accept(() -> {
+            aborted.set(true);
+            running.forEach(Evaluator::stop);
+        });
+
+        List<Future<Timing>> evaluations = new ArrayList<>();
+        for (var db : targets) {
+            Future<Timing> evaluation = Future.future();
+            executor.<Timing>executeBlocking(future -> future.complete(evaluateOn(db, request, sink, running, aborted)), false, evaluation);
+            evaluations.add(evaluation);
+        }
+        // the responses are written by the evaluations themselves, this thread only waits for the table of timings
+        var done = new CompletableFuture<Void>();
+        CompositeFuture.join(new ArrayList<>(evaluations)).setHandler(all -> done.complete(null));
+        done.join();
+
+        var timings = new JsonArray();
+        for (int i = 0; i < targets.size(); i++) {
+            var evaluation = evaluations.get(i);
+            timings.add(evaluation.succeeded()
+                ? toJson(evaluation.result())
+                : new JsonObject().put("database", targets.get(i).id).put("status", "FAILED").put("error", String.valueOf(evaluation.cause())));
+        }
+        if (!aborted.get()) {
+            sink.writeLine(new JsonObject().put("type", TIMINGS_TYPE).put("timings", timings).encode());
+        }
+    }
+
+    private Timing evaluateOn(Database db, EvaluationRequest request, AugmentationSink sink, Set<Evaluator> running, AtomicBoolean aborted) {
+        long startedAt = System.nanoTime();
+        var evaluator = pool.take(db);
+        running.add(evaluator);
+        boolean reusable = false;
+        var evaluationFinished = metrics.evaluationStarted();
+        try {
+            if (aborted.get()) {
+                return new Timing(db, null, toMillis(System.nanoTime() - startedAt));
+            }
+            var response = evaluator.evaluate(db, request, databases);
+            metrics.evaluated(db, response);
+            var tagged = tag(sink, db);
+            tagged.writeLine(Json.encode(response));
+            if (response instanceof Success) {
+                ((Success) response).augmentedOutput.writeTo(tagged);
+            }
+            // a stopped evaluation may have left the evaluator in any state
+            reusable = !aborted.get();
+            return new Timing(db, response, toMillis(System.nanoTime() - startedAt));
+        } catch (RuntimeException ex) {
+            LOG.warn("Evaluating a script against " + db + " failed", ex);
+            throw ex;
+        } finally {
+            evaluationFinished.run();
+            running.remove(evaluator);
+            pool.release(evaluator, db, reusable);
+        }
+    }
+
+    /** Tags every line written into the sink with the database it belongs to */
+    private static AugmentationSink tag(AugmentationSink sink, Database db) {
+        var prefix = "{\"database\":" + db.id;
+        // every line is a JSON object
+        return json -> sink.writeLine(json.length() > 2 ? prefix + "," + json.substring(1) : prefix + "}");
+    }
+
+    private static JsonObject toJson(Timing timing) {
+        var json = new JsonObject()
+            .put("database", timing.db.id)
+            .put("description", timing.db.description)
+            .put("status", timing.response != null ? timing.response.getEvaluationStatus().name() : "ABORTED")
+            .put("totalMs", timing.totalMs);
+        if (timing.response instanceof Success) {
+            var success = (Success) timing.response;
+            json.put("durationMs", success.durationInMs)
+                .put("compileMs", success.compileMs)
+                .put("executeMs", success.executeMs);
+        } else if (timing.response instanceof EvaluationError) {
+            json.put("durationMs", ((EvaluationError) timing.response).durationInMs);
+        }
+        return json;
+    }
+
+    private static long toMillis(long nanos) {
+        return Duration.ofNanos(nanos).toMillis();
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
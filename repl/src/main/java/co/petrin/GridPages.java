@@ -0,0 +1,129 @@
+package co.petrin;
+
+import co.petrin.augmentation.GridPage;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps evaluators whose grids have more rows than were sent to the client, so the client can ask for the further
+ * pages. Each such evaluator is reachable through a random token. Evaluators that are not asked for another page in
+ * time, or that are pushed out by newer ones, are given back to the evaluator pool.
+ */
+public class GridPages implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(GridPages.class);
+
+    /** An evaluator waiting for its next page to be requested */
+    public static class Session {
+        public final Evaluator evaluator;
+        public final Database database;
+        public final GridPage page;
+        final long idleSince = System.currentTimeMillis();
+
+        Session(Evaluator evaluator, Database database, GridPage page) {
+            this.evaluator = evaluator;
+            this.database = database;
+            this.page = page;
+        }
+    }
+
+    /** Gives evaluators that are no longer needed back to the evaluator pool */
+    private final BiConsumer<Evaluator, Database> releaser;
+    private final long maxIdleMs;
+    private final int maxSessions;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService expiryExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "grid-pages-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Creates the page store with its limits read from environment variables.
+     * @param releaser Gives evaluators back to the pool once their pages are no longer needed.
+     */
+    public GridPages(BiConsumer<Evaluator, Database> releaser) {
+        this(releaser,
+            Environment.getInt("REPL_GRID_PAGE_IDLE_SECONDS", 300) * 1000L,
+            Environment.getInt("REPL_GRID_PAGE_MAX_SESSIONS", 16));
+    }
+
+    /**
+     * @param releaser Gives evaluators back to the pool once their pages are no longer needed.
+     * @param maxIdleMs How long an evaluator waits for its next page to be requested.
+     * @param maxSessions The maximum number of evaluators kept waiting; 0 disables paging.
+     */
+    public GridPages(BiConsumer<Evaluator, Database> releaser, long maxIdleMs, int maxSessions) {
+        this.releaser = releaser;
+        this.maxIdleMs = maxIdleMs;
+        this.maxSessions = maxSessions;
+        long expiryPeriod = Math.max(1000, maxIdleMs / 2);
+        expiryExecutor.scheduleWithFixedDelay(this::evictExpired, expiryPeriod, expiryPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Keeps an evaluator until its next page is requested.
+     * @param token The token the session was previously kept under, or null to create a new one.
+     * @return The token to request the next page with, or null if the evaluator could not be kept (and was released)
+     */
+    public String keep(String token, Evaluator evaluator, Database database, GridPage page) {
+        if (maxSessions <= 0) {
+            releaser.accept(evaluator, database);
+            return null;
+        }
+        while (sessions.size() >= maxSessions) {
+            sessions.entrySet().stream()
+                .min(Comparator.comparingLong(entry -> entry.getValue().idleSince))
+                .ifPresent(oldest -> discard(oldest.getKey()));
+        }
+        var key = token != null ? token : UUID.randomUUID().toString();
+        sessions.put(key, new Session(evaluator, database, page));
+        return key;
+    }
+
+    /**
+     * Takes a session out of the store; the caller becomes responsible for its evaluator.
+     * @return The session, or null if there is no such session (any more)
+     */
+    public Session take(String token) {
+        return token != null ? sessions.remove(token) : null;
+    }
+
+    /** The number of evaluators waiting for their next page */
+    public int size() {
+        return sessions.size();
+    }
+
+    @Override
+    public void close() {
+        expiryExecutor.shutdownNow();
+        sessions.keySet().forEach(this::discard);
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        sessions.forEach((token, session) -> {
+            if (now - session.idleSince > maxIdleMs) {
+                LOG.debug("Grid page " + session.page + " has not been requested in time, releasing its evaluator");
+                discard(token);
+            }
+        });
+    }
+
+    private void discard(String token) {
+        // only release the evaluator if a page request hasn't taken it in the meantime
+        var session = sessions.remove(token);
+        if (session != null) {
+            releaser.accept(session.evaluator, session.database);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package co.petrin;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Collects the application's metrics and serves them in the Prometheus text format. Evaluators report how long
+ * their steps take through the {@link PhaseListener} interface.
+ */
+public class Metrics implements PhaseListener {
+
+    private final PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+
+    /** The number of evaluations currently running */
+    private final AtomicInteger inFlightEvaluations = new AtomicInteger();
+
+    public Metrics() {
+        Gauge.builder("repl.evaluations.in.flight", inFlightEvaluations, AtomicInteger::get)
+            .description("The number of evaluations currently running")
+            .register(registry);
+    }
+
+    @Override
+    public void phaseCompleted(Phase phase, long durationNanos) {
+        timer("repl.evaluation.phase", "phase", phase.name().toLowerCase()).record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Times how long it takes to turn an evaluation response into JSON */
+    public <T> T timeSerialization(Supplier<T> serialization) {
+        return timer("repl.response.serialization").record(serialization);
+    }
+
+    /** Counts a request to one of the endpoints */
+    public void requestReceived(String endpoint) {
+        Counter.builder("repl.requests").tag("endpoint", endpoint).register(registry).increment();
+    }
+
+    /** Counts the outcome of an evaluation */
+    public void evaluated(Database db, EvaluationResponse response) {
+        Counter.builder("repl.evaluations")
+            .tag("status", response != null ? response.getEvaluationStatus().name() : "NONE")
+            .tag("database", db != null ? Integer.toString(db.id) : "none")
+            .register(registry)
+            .increment();
+    }
+
+    /** Marks the start of an evaluation; the returned runnable marks its end */
+    public Runnable evaluationStarted() {
+        inFlightEvaluations.incrementAndGet();
+        return inFlightEvaluations::decrementAndGet;
+    }
+
+    /** Reports the number of evaluators waiting in the pool */
+    public void monitorPool(EvaluatorPool pool) {
+        Gauge.builder("repl.pool.idle", pool, EvaluatorPool::size)
+            .description("The number of evaluators waiting in the pool")
+            .register(registry);
+    }
+
+    /** Reports how many of the workers evaluators launch their engines on are reachable */
+    public void monitorWorkers(EvaluatorWorkers workers) {
+        Gauge.builder("repl.workers.healthy", workers, EvaluatorWorkers::getHealthy)
+            .description("The number of workers that answered the last health check")
+            .register(registry);
+    }
+
+    /** Reports how many requests are running or waiting in a worker lane */
+    public void monitorLane(String name, WorkerLane lane) {
+        Gauge.builder("repl.lane.admitted", lane, WorkerLane::getAdmitted)
+            .tag("lane", name)
+            .description("The number of requests running or waiting in the lane")
+            .register(registry);
+    }
+
+    /** Reports the hits and misses of an analysis cache */
+    public void monitorCache(String name, AnalysisCache<?> cache) {
+        FunctionCounter.builder("repl.analysis.cache.hits", cache, AnalysisCache::getHits).tag("cache", name).register(registry);
+        FunctionCounter.builder("repl.analysis.cache.misses", cache, AnalysisCache::getMisses).tag("cache", name).register(registry);
+    }
+
+    /** Reports the hits, misses and size of the cache of read-only scripts' responses */
+    public void monitorResultCache(ResultCache cache) {
+        FunctionCounter.builder("repl.result.cache.hits", cache, ResultCache::getHits).register(registry);
+        FunctionCounter.builder("repl.result.cache.misses", cache, ResultCache::getMisses).register(registry);
+        Gauge.builder("repl.result.cache.bytes", cache, ResultCache::getBytes)
+            .description("The estimated memory taken by cached responses")
+            .register(registry);
+    }
+
+    /** Serves the metrics to Prometheus */
+    public void serve(RoutingContext ctx) {
+        ctx.response()
+            .putHeader("content-type", TextFormat.CONTENT_TYPE_004)
+            .end(scrape());
+    }
+
+    /** The current metrics in the Prometheus text format */
+    public String scrape() {
+        return registry.scrape();
+    }
+
+    private Timer timer(String name, String... tags) {
+        return Timer.builder(name)
+            .tags(tags)
+            .publishPercentileHistogram()
+            .register(registry);
+    }
+}
@@ -0,0 +1,92 @@
+package co.petrin;
+
+import co.petrin.augmentation.GridFormat;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Writes NDJSON lines into a chunked HTTP response from a worker thread. When the response's write queue is full, the
+ * writing thread is blocked until the client has caught up, so a slow client cannot make the server buffer an entire
+ * result in memory.
+ */
+public class ResponseSink implements AugmentationSink {
+
+    /** How often to check whether the client has gone away while waiting for the write queue to drain */
+    private static final long CLOSED_CHECK_INTERVAL_MS = 500;
+
+    private final HttpServerResponse response;
+
+    private final GridFormat gridFormat;
+
+    /**
+     * Creates a sink writing grids in single lines, which every client understands.
+     * @param response A chunked response, with its status and headers already set
+     */
+    public ResponseSink(HttpServerResponse response) {
+        this(response, GridFormat.SINGLE_LINE);
+    }
+
+    /**
+     * @param response A chunked response, with its status and headers already set
+     * @param gridFormat How the client accepts grids.
+     */
+    public ResponseSink(HttpServerResponse response, GridFormat gridFormat) {
+        this.response = response;
+        this.gridFormat = gridFormat;
+    }
+
+    /** Writes a line, silently dropping it if the client has already gone away */
+    @Override
+    public void writeLine(String json) {
+        if (!awaitWritable()) {
+            return;
+        }
+        response.write(Buffer.buffer(json.length() + 1).appendString(json).appendString("\n"));
+    }
+
+    /** Writes a line unless the client has gone away or has not caught up yet */
+    @Override
+    public boolean offerLine(String json) {
+        if (response.closed() || response.writeQueueFull()) {
+            return false;
+        }
+        response.write(Buffer.buffer(json.length() + 1).appendString(json).appendString("\n"));
+        return true;
+    }
+
+    @Override
+    public GridFormat gridFormat() {
+        return gridFormat;
+    }
+
+    /**
+     * Blocks until the response's write queue has room.
+     * @return False if the response has been closed in the meantime
+     */
+    private boolean awaitWritable() {
+        while (!response.closed() && response.writeQueueFull()) {
+            var drained = new CompletableFuture<Void>();
+            response.drainHandler(v -> drained.complete(null));
+            // the queue may have drained before the handler was set
+            if (!response.writeQueueFull()) {
+                break;
+            }
+            try {
+                drained.get(CLOSED_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                // check whether the response is still open and wait some more
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException ex) {
+                return false;
+            }
+        }
+        return !response.closed();
+    }
+}
@@ -0,0 +1,208 @@
+package co.petrin;
+
+import co.petrin.augmentation.GridFormat;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Remembers the responses of scripts that only ran selects, so that the same script submitted again (e.g. by a
+ * tutorial or a dashboard) is answered without running it. Responses are keyed by the database, whether the client
+ * decodes grids column by column and the script, with line endings and trailing whitespace normalized.
+ *
+ * Caching is enabled per database by how long its responses may be reused for, see
+ * {@link Database#resultCacheSeconds}. The least recently used responses are evicted once the cached lines take up
+ * more than the memory limit, and the responses whose queries read a table can be forgotten when it changes.
+ *
+ * Whether a script only read is told by the evaluator from the queries of its <code>jooq</code> context, and scripts
+ * using that context's connection around jOOQ are not cached. Writes through other contexts or connections a script
+ * opens itself go unnoticed, as do selects calling functions that write (e.g. <code>select nextval('s')</code>), so
+ * caching is only meant for databases scripts are not expected to change that way.
+ */
+public class ResultCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ResultCache.class);
+
+    /** The memory a cached line is assumed to take in addition to its characters */
+    private static final int LINE_OVERHEAD_BYTES = 64;
+
+    /** A cached response */
+    public static class Cached {
+        final int databaseId;
+        /** The response's status code */
+        public final int status;
+        /** The NDJSON lines of the response */
+        public final List<String> lines;
+        /** The SQL of the queries the script ran, in lower case */
+        final List<String> queries;
+        final long expiresAt;
+        final long bytes;
+
+        Cached(int databaseId, int status, List<String> lines, List<String> queries, long expiresAt) {
+            this.databaseId = databaseId;
+            this.status = status;
+            this.lines = List.copyOf(lines);
+            this.queries = queries.stream().map(sql -> sql.toLowerCase(Locale.ROOT)).collect(Collectors.toList());
+            this.expiresAt = expiresAt;
+            this.bytes = lines.stream().mapToLong(ResultCache::size).sum();
+        }
+    }
+
+    private final long maxBytes;
+    private final Map<String, Cached> responses = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates the cache with its memory limit read from the <code>REPL_RESULT_CACHE_MB</code> environment variable.
+     */
+    public ResultCache() {
+        this(Environment.getInt("REPL_RESULT_CACHE_MB", 64) * 1024L * 1024L);
+    }
+
+    /** @param maxBytes The maximum size of all cached lines; 0 disables caching. */
+    public ResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** Are the responses of scripts run against the database cached? */
+    public boolean isEnabled(Database db) {
+        return maxBytes > 0 && db != null && db.resultCacheSeconds > 0;
+    }
+
+    /**
+     * The largest response worth caching: anything larger would push out too many others.
+     * @return The maximum size in bytes, as measured by {@link #size(String)}
+     */
+    public long getMaxResponseBytes() {
+        return maxBytes / 4;
+    }
+
+    /**
+     * Gets the cached response to a script.
+     * @return The response, or null if it is not cached or has expired
+     */
+    public Cached get(Database db, EvaluationRequest request, GridFormat gridFormat) {
+        if (!isEnabled(db)) {
+            return null;
+        }
+        var key = key(db, request, gridFormat);
+        synchronized (this) {
+            var cached = responses.get(key);
+            if (cached != null && cached.expiresAt > System.currentTimeMillis()) {
+                hits.incrementAndGet();
+                return cached;
+            } else if (cached != null) {
+                remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches the response to a script that only ran selects.
+     * @param lines The NDJSON lines of the response.
+     * @param queries The SQL of the queries the script ran, see {@link Evaluator#readOnlyQueries()}.
+     */
+    public void put(Database db, EvaluationRequest request, GridFormat gridFormat, int status, List<String> lines, List<String> queries) {
+        if (!isEnabled(db)) {
+            return;
+        }
+        var cached = new Cached(db.id, status, lines, queries, System.currentTimeMillis() + db.resultCacheSeconds * 1000L);
+        if (cached.bytes > getMaxResponseBytes()) {
+            return;
+        }
+        var key = key(db, request, gridFormat);
+        synchronized (this) {
+            remove(key);
+            responses.put(key, cached);
+            bytes += cached.bytes;
+            // looking entries up would count as using them, so the eldest are found by iterating
+            var eldest = responses.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().bytes;
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Forgets the responses of the scripts that read a table, e.g. because its rows have changed.
+     * @param db The database the table is in.
+     * @param table The name of the table, unqualified; null forgets all of the database's responses.
+     * @return The number of responses forgotten
+     */
+    public int invalidate(Database db, String table) {
+        var name = table != null
+            ? Pattern.compile("(?<![\\w$])" + Pattern.quote(table.toLowerCase(Locale.ROOT)) + "(?![\\w$])")
+            : null;
+        int invalidated = 0;
+        synchronized (this) {
+            var entries = responses.values().iterator();
+            while (entries.hasNext()) {
+                var cached = entries.next();
+                if (cached.databaseId == db.id
+                    && (name == null || cached.queries.stream().anyMatch(sql -> name.matcher(sql).find()))) {
+                    bytes -= cached.bytes;
+                    entries.remove();
+                    invalidated++;
+                }
+            }
+        }
+        LOG.info("Forgot " + invalidated + " cached responses reading " + (table != null ? table : "anything") + " from " + db);
+        return invalidated;
+    }
+
+    /** The number of scripts answered from the cache */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** The number of scripts against databases with caching enabled that had to be run */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** The number of cached responses */
+    public synchronized int size() {
+        return responses.size();
+    }
+
+    /** The size of all cached lines, in bytes */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    private void remove(String key) {
+        var removed = responses.remove(key);
+        if (removed != null) {
+            bytes -= removed.bytes;
+        }
+    }
+
+    /** Estimates how much memory a cached line takes */
+    public static long size(String line) {
+        return 2L * line.length() + LINE_OVERHEAD_BYTES;
+    }
+
+    /**
+     * Normalizes a request into a cache key: the database, the format grids are written in and the script
+     * with line endings unified and the whitespace at the end of every line and around the script removed. Other
+     * whitespace is kept, as it may be part of a string.
+     */
+    static String key(Database db, EvaluationRequest request, GridFormat gridFormat) {
+        var script = request.getScript().lines()
+            .map(String::stripTrailing)
+            .collect(Collectors.joining("\n"))
+            .strip();
+        return db.id + ":" + gridFormat + "\n" + script;
+    }
+}
@@ -1,25 +1,32 @@
 package co.petrin;
 
+import co.petrin.augmentation.GridFormat;
+import co.petrin.augmentation.GridPage;
+import co.petrin.augmentation.JooqGrid;
 import co.petrin.response.Success;
 import io.vertx.core.Vertx;
-import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.Cookie;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
-import static java.util.stream.Collectors.toList;
-
 /**
  * Lists available databases and executes code on them.
  */
@@ -30,6 +37,25 @@ public class ScriptHandler {
     private static final String DATABASE_CTX_KEY = "database";
     private static final String REQUEST_CTX_KEY = "request";
     private static final String EVALUATION_RESULT_KEY = "evalresult";
+    private static final String EVALUATOR_RELEASED_CTX_KEY = "evaluatorReleased";
+
+    /** The cookie identifying a user's session, so their completions can be served by the same evaluator */
+    private static final String SESSION_COOKIE = "repl-session";
+
+    /**
+     * Clients listing this media type in their Accept header get grids as a header followed by chunks of records;
+     * others get every page of a grid in a single line
+     */
+    static final String GRID_RECORDS_MEDIA_TYPE = "application/x-jooq-grid-records";
+
+    /** Clients listing this media type in their Accept header get the records of grids column by column */
+    static final String GRID_COLUMNS_MEDIA_TYPE = "application/x-jooq-grid-columns";
+
+    /** Clients listing this media type in their Accept header get every snippet of a script as soon as it has run */
+    static final String SCRIPT_STEPS_MEDIA_TYPE = "application/x-jooq-script-steps";
+
+    /** Clients listing this media type in their Accept header get the output of a script while it runs */
+    static final String OUTPUT_CHUNKS_MEDIA_TYPE = "application/x-jooq-output-chunks";
 
     /** Paths can either have a database ID prefixed or not */
     private static final String DB_ENDPOINTS_PREFIX = "(?:/[0-9]+)?";
@@ -37,22 +63,51 @@ public class ScriptHandler {
     /** Maximum length of scripts incoming in request bodies in bytes */
     private static final long BODY_SIZE_LIMIT = 100_000; // is this enough?
 
-    /** Separator between JSON records */
-    private static final Buffer NEWLINE_BUFFER = Buffer.buffer("\n");
-
     /** All the configured databases, read on instantiation form environment variables */
     private final List<Database> databases;
 
     /** The database list in JSON form for sending down to clients */
     private final String databasesJson;
 
-    /** Name of the system variable containing a whitespace-separated classpath to provide a remote evaluator with */
-    private static final String EVALUATOR_CLASSPATH_ENVIRONMENT_VARIABLE = "EVALUATOR_CLASSPATH";
+    private static final String EVALUATOR_CDS_ARCHIVE_ENVIRONMENT_VARIABLE = "EVALUATOR_CDS_ARCHIVE";
+
+    /** The classpath given to evaluators in addition to their own, resolved once and watched for changes */
+    private final EvaluatorClasspath evaluatorClasspath = EvaluatorClasspath.fromEnvironment();
 
     /** Run Evaluators using the Java security manager? */
     private final boolean useJavaSandboxing;
 
-    public ScriptHandler() {
+    /** The workers evaluators launch their engines on, or null if they spawn them on this machine */
+    private final EvaluatorWorkers workers;
+
+    /** Evaluators that have already been spawned and initialized, waiting for requests */
+    private final EvaluatorPool evaluatorPool;
+
+    /** Evaluators holding the rest of grids that were too large to send at once */
+    private final GridPages gridPages;
+
+    /** Evaluators kept alive for each session's completions and javadoc lookups */
+    private final AnalysisSessions analysisSessions;
+
+    /** Records how the evaluations and requests went */
+    private final Metrics metrics;
+
+    /** How much of a script's output, and of its error output, is kept; the earliest output is dropped beyond that */
+    private final int evaluatorOutputBytes = Environment.getInt("REPL_EVALUATOR_MAX_OUTPUT_KB", Evaluator.DEFAULT_OUTPUT_LIMIT_BYTES / 1024) * 1024;
+
+    /** The responses of scripts that only ran selects */
+    private final ResultCache resultCache = new ResultCache();
+
+    /** Completions and javadocs that have already been looked up */
+    private final AnalysisCache<SuggestionResponse> suggestionCache;
+    private final AnalysisCache<List<DocumentationResponse>> javadocCache;
+
+    /**
+     * Reads the databases from the environment and starts filling the evaluator pool.
+     * @param metrics Records how the evaluations and requests went.
+     */
+    public ScriptHandler(Metrics metrics) {
+        this.metrics = metrics;
         databases = Database.parseFromEnvironment();
         databasesJson = getDatabasesJson(databases);
         if (databases.isEmpty()) {
@@ -65,6 +120,27 @@ public class ScriptHandler {
         }
         useJavaSandboxing = System.getenv().containsKey("USE_JAVA_SANDBOX");
         LOG.info("Eval scripts inside Java Sandboxes: " + useJavaSandboxing);
+        workers = EvaluatorWorkers.fromEnvironment();
+        if (workers != null) {
+            LOG.info("Evaluating scripts on " + workers.size() + " workers");
+            metrics.monitorWorkers(workers);
+        }
+        evaluatorPool = new EvaluatorPool(this::createEvaluator, databases);
+        gridPages = new GridPages((evaluator, db) -> evaluatorPool.release(evaluator, db, true));
+        analysisSessions = new AnalysisSessions(evaluatorPool::take, (evaluator, db) -> evaluatorPool.release(evaluator, db, true));
+        int analysisCacheSize = Environment.getInt("REPL_ANALYSIS_CACHE_SIZE", 2000);
+        suggestionCache = new AnalysisCache<>(analysisCacheSize, evaluatorClasspath::getFingerprint);
+        javadocCache = new AnalysisCache<>(analysisCacheSize, evaluatorClasspath::getFingerprint);
+        // evaluators started with the old JAR files are replaced; their grid pages can still be loaded
+        evaluatorClasspath.onChange(() -> {
+            evaluatorPool.renew();
+            analysisSessions.clear();
+        });
+        evaluatorClasspath.watch();
+        metrics.monitorPool(evaluatorPool);
+        metrics.monitorCache("suggest", suggestionCache);
+        metrics.monitorCache("javadoc", javadocCache);
+        metrics.monitorResultCache(resultCache);
     }
 
     /**
@@ -75,14 +151,28 @@ public class ScriptHandler {
 
         var router = Router.router(vertx);
 
+        // each kind of request gets its own workers, so e.g. busy evaluations don't hold up completions
+        var evalLane = new WorkerLane(vertx, "eval", WorkerLane.Settings.fromEnvironment("eval", 8, 16));
+        var suggestLane = new WorkerLane(vertx, "suggest", WorkerLane.Settings.fromEnvironment("suggest", 4, 32));
+        var javadocLane = new WorkerLane(vertx, "javadoc", WorkerLane.Settings.fromEnvironment("javadoc", 2, 16));
+        metrics.monitorLane("eval", evalLane);
+        metrics.monitorLane("suggest", suggestLane);
+        metrics.monitorLane("javadoc", javadocLane);
+
+        // count every request, including the ones a full lane turns away
+        router.route().handler(ctx -> {
+            metrics.requestReceived(getEndpoint(ctx));
+            ctx.next();
+        });
+
         // simple list request
         router.get("/").handler(this::listDatabases);
 
         // evaluation requests
         router.routeWithRegex("/([0-9]+).*").handler(this::populateDatabaseId);
-        router.post().handler(BodyHandler.create(false).setBodyLimit(BODY_SIZE_LIMIT)).blockingHandler(this::extractEvaluationRequest);
+        router.post().handler(BodyHandler.create(false).setBodyLimit(BODY_SIZE_LIMIT)).handler(this::extractEvaluationRequest);
 
-        router.postWithRegex(DB_ENDPOINTS_PREFIX + "/eval").blockingHandler(ctx -> {
+        router.postWithRegex(DB_ENDPOINTS_PREFIX + "/eval").handler(evalLane.handler(ctx -> {
             Database db = ctx.get(DATABASE_CTX_KEY);
             EvaluationRequest req = ctx.get(REQUEST_CTX_KEY);
             if (SCRIPT_LOG.isInfoEnabled()) {
@@ -90,50 +180,121 @@ public class ScriptHandler {
                 SCRIPT_LOG.info("Evaluating script (" + dbDescriptor + "): " + req.getScript());
             }
 
-            var response = getEvaluator(ctx).evaluate(db, req, databases);
-            ctx.put(EVALUATION_RESULT_KEY, response);
-            ctx.next();
-        }).handler(ctx -> {
-            EvaluationResponse response = ctx.get(EVALUATION_RESULT_KEY);
-            int returnStatus = 200;
-            if (response != null && !response.getEvaluationStatus().success) {
-                returnStatus = 400;
+            var cached = resultCache.get(db, req, gridFormat(ctx));
+            if (cached != null) {
+                replay(ctx, cached);
+                return;
+            }
+
+            var evaluationFinished = metrics.evaluationStarted();
+            try {
+                evaluate(ctx, db, req);
+            } finally {
+                evaluationFinished.run();
+            }
+        }));
+
+        // the same script against several databases at once, e.g. to compare a query across dialects
+        var fanOut = new FanOut(vertx, evaluatorPool, metrics, databases, Environment.getInt("REPL_FANOUT_CONCURRENCY", 8));
+        router.post("/fanout/eval").handler(evalLane.handler(ctx -> {
+            EvaluationRequest req = ctx.get(REQUEST_CTX_KEY);
+            var targets = getFanOutDatabases(ctx);
+            if (targets == null) {
+                ctx.response().setStatusCode(400).end("The databases must be given by their ids, e.g. ?databases=1,2");
+                return;
+            }
+            if (SCRIPT_LOG.isInfoEnabled()) {
+                SCRIPT_LOG.info("Evaluating script (" + targets.stream().map(Database::toString).collect(Collectors.joining(", ")) + "): " + req.getScript());
+            }
+
+            // every database's response has a status of its own
+            var sink = new ResponseSink(startResponse(ctx, 200), gridFormat(ctx));
+            fanOut.evaluate(req, targets, sink, abort -> ctx.response().closeHandler(v -> abort.run()));
+            if (!ctx.response().closed()) {
+                ctx.response().end();
+            }
+        }));
+
+        router.getWithRegex(DB_ENDPOINTS_PREFIX + "/page").handler(evalLane.handler(ctx -> {
+            var token = ctx.request().getParam("token");
+            var session = gridPages.take(token);
+            if (session == null) {
+                ctx.response().setStatusCode(404).end("These rows are no longer available, please run the script again.");
+                return;
             }
 
             ctx.response()
                 .setChunked(true)
-                .setStatusCode(returnStatus)
                 .putHeader("content-type", "application/json; charset=UTF-8")
-                .write(Json.encode(response));
-
-            // TODO: this should be done asynchronously!
-            if (response instanceof Success) {
-                var success = (Success)response;
-                var augmentedOutput = success.augmentedOutput.get();
-                if (augmentedOutput != null) {
-                    ctx.response().write(NEWLINE_BUFFER).write(Json.encode(augmentedOutput));
+                .putHeader("vary", "accept");
+
+            var kept = new AtomicBoolean();
+            var sink = new ResponseSink(ctx.response(), gridFormat(ctx)) {
+                @Override
+                public void morePages(GridPage page) {
+                    kept.set(true);
+                    if (gridPages.keep(token, session.evaluator, session.database, page) != null) {
+                        writeLine(createMorePagesLine(ctx, token));
+                    }
+                }
+            };
+            try {
+                session.evaluator.page(session.page, session.database, sink);
+            } finally {
+                if (!kept.get()) {
+                    evaluatorPool.release(session.evaluator, session.database, true);
                 }
             }
 
-            ctx.response().end(NEWLINE_BUFFER);
+            if (!ctx.response().closed()) {
+                ctx.response().end();
+            }
+        }));
+
+        // forgets the cached responses of scripts that read a table, e.g. after it has been changed
+        router.deleteWithRegex(DB_ENDPOINTS_PREFIX + "/cache").handler(ctx -> {
+            Database db = ctx.get(DATABASE_CTX_KEY);
+            if (db == null) {
+                ctx.response().setStatusCode(400).end("A database must be given");
+                return;
+            }
+            int invalidated = resultCache.invalidate(db, StringUtils.trimToNull(ctx.request().getParam("table")));
+            ctx.response()
+                .putHeader("content-type", "application/json; charset=UTF-8")
+                .end(new JsonObject().put("invalidated", invalidated).encode());
         });
 
-        router.postWithRegex(DB_ENDPOINTS_PREFIX + "/suggest").blockingHandler(ctx -> {
+        router.postWithRegex(DB_ENDPOINTS_PREFIX + "/suggest").handler(suggestLane.handler(ctx -> {
             Database db = ctx.get(DATABASE_CTX_KEY);
             EvaluationRequest req = ctx.get(REQUEST_CTX_KEY);
-            ctx.put(EVALUATION_RESULT_KEY, getEvaluator(ctx).suggest(db, req, databases));
+            var suggestions = suggestionCache.get(db, req, () -> {
+                if (!analysisSessions.isEnabled()) {
+                    return getEvaluator(ctx).suggest(db, req, databases);
+                }
+                try (var lease = leaseAnalysisEvaluator(ctx)) {
+                    return lease.evaluator().suggest(db, req, databases, true);
+                }
+            });
+            ctx.put(EVALUATION_RESULT_KEY, suggestions.movedTo(req.getCursorPosition()));
             ctx.next();
-        }).handler(ctx -> ctx
+        })).handler(ctx -> ctx
             .response()
             .putHeader("content-type", "application/json; charset=UTF-8")
             .end(Json.encode(ctx.get(EVALUATION_RESULT_KEY))));
 
-        router.postWithRegex(DB_ENDPOINTS_PREFIX + "/javadoc").blockingHandler(ctx -> {
+        router.postWithRegex(DB_ENDPOINTS_PREFIX + "/javadoc").handler(javadocLane.handler(ctx -> {
             Database db = ctx.get(DATABASE_CTX_KEY);
             EvaluationRequest req = ctx.get(REQUEST_CTX_KEY);
-            ctx.put(EVALUATION_RESULT_KEY, getEvaluator(ctx).javadoc(db, req, databases));
+            ctx.put(EVALUATION_RESULT_KEY, javadocCache.get(db, req, () -> {
+                if (!analysisSessions.isEnabled()) {
+                    return getEvaluator(ctx).javadoc(db, req, databases);
+                }
+                try (var lease = leaseAnalysisEvaluator(ctx)) {
+                    return lease.evaluator().javadoc(db, req, databases, true);
+                }
+            }));
             ctx.next();
-        }).handler(ctx -> ctx
+        })).handler(ctx -> ctx
             .response()
             .putHeader("content-type", "application/json; charset=UTF-8")
             .end(Json.encode(ctx.get(EVALUATION_RESULT_KEY)))
@@ -143,6 +304,98 @@ public class ScriptHandler {
         return router;
     }
 
+    /** Evaluates the script and streams the response, including any augmented output, to the client */
+    private void evaluate(RoutingContext ctx, Database db, EvaluationRequest req) {
+        var evaluator = getEvaluator(ctx);
+        boolean streamSteps = accepts(ctx, SCRIPT_STEPS_MEDIA_TYPE);
+        boolean streamOutput = accepts(ctx, OUTPUT_CHUNKS_MEDIA_TYPE);
+        boolean streamProgress = streamSteps || streamOutput;
+        AugmentationSink progress = null;
+        if (streamProgress) {
+            // the progress is sent while the script runs, so the status is sent before it is known whether it fails
+            startResponse(ctx, 200);
+            progress = new ResponseSink(ctx.response()) {
+                @Override
+                public boolean acceptsScriptSteps() {
+                    return streamSteps;
+                }
+
+                @Override
+                public boolean acceptsOutputChunks() {
+                    return streamOutput;
+                }
+            };
+        }
+        var response = evaluator.evaluate(db, req, databases, progress);
+        metrics.evaluated(db, response);
+        int returnStatus = 200;
+        if (response != null && !response.getEvaluationStatus().success) {
+            returnStatus = 400;
+        }
+        if (!streamProgress) {
+            startResponse(ctx, returnStatus);
+        }
+
+        // the response of a script that only ran selects can be reused, unless its grid has further pages; its progress
+        // is not part of it, as a cached response is sent at once
+        var gridFormat = gridFormat(ctx);
+        var recorded = new AtomicReference<List<String>>(
+            resultCache.isEnabled(db) && response instanceof Success ? new ArrayList<>() : null);
+        var recordedBytes = new AtomicLong();
+
+        // the augmented output is streamed from this worker thread, keeping the event loop free
+        var sink = new ResponseSink(ctx.response(), gridFormat) {
+            @Override
+            public void writeLine(String json) {
+                super.writeLine(json);
+                var lines = recorded.get();
+                if (lines != null) {
+                    lines.add(json);
+                    if (recordedBytes.addAndGet(ResultCache.size(json)) > resultCache.getMaxResponseBytes()) {
+                        recorded.set(null);
+                    }
+                }
+            }
+
+            @Override
+            public void morePages(GridPage page) {
+                recorded.set(null);
+                // the evaluator now belongs to the grid's pages instead of this request
+                if (detachEvaluator(ctx)) {
+                    var token = gridPages.keep(null, evaluator, db, page);
+                    if (token != null) {
+                        writeLine(createMorePagesLine(ctx, token));
+                    }
+                }
+            }
+        };
+        sink.writeLine(metrics.timeSerialization(() -> Json.encode(response)));
+        if (response instanceof Success) {
+            ((Success)response).augmentedOutput.writeTo(sink);
+        }
+        var lines = recorded.get();
+        if (lines != null && !ctx.response().closed()) {
+            var queries = evaluator.readOnlyQueries();
+            if (queries != null) {
+                resultCache.put(db, req, gridFormat, returnStatus, lines, queries);
+            }
+        }
+
+        if (!ctx.response().closed()) {
+            ctx.response().end();
+        }
+    }
+
+    /** Sends a cached response */
+    private static void replay(RoutingContext ctx, ResultCache.Cached cached) {
+        var response = startResponse(ctx, cached.status).putHeader("x-cache", "hit");
+        var sink = new ResponseSink(response);
+        cached.lines.forEach(sink::writeLine);
+        if (!response.closed()) {
+            response.end();
+        }
+    }
+
     private void listDatabases(RoutingContext ctx) {
         ctx.response().putHeader("Content-Type", "application/json").end(databasesJson);
     }
@@ -155,32 +408,155 @@ public class ScriptHandler {
     }
 
     /**
-     * Gets an evaluator, binding it to the current request: if it ends prematurely, the evaluator will attempt to be
-     * stopped.
+     * Gets an evaluator from the pool, binding it to the current request: if it ends prematurely, the evaluator will
+     * attempt to be stopped.
      */
     private Evaluator getEvaluator(RoutingContext ctx) {
-        var evaluator = Objects.requireNonNullElseGet(evaluators.poll(), this::createEvaluator);
-        ctx.response().closeHandler(ch -> evaluator.stop());
-        ctx.response().endHandler(eh -> evaluator.close());
+        Database db = ctx.get(DATABASE_CTX_KEY);
+        var evaluator = evaluatorPool.take(db);
+        var released = new AtomicBoolean();
+        ctx.put(EVALUATOR_RELEASED_CTX_KEY, released);
+        ctx.response().closeHandler(ch -> {
+            if (released.compareAndSet(false, true)) {
+                evaluator.stop();
+                // an aborted evaluation may have left the evaluator in any state, don't reuse it
+                evaluatorPool.release(evaluator, db, false);
+            }
+        });
+        ctx.response().endHandler(eh -> {
+            if (released.compareAndSet(false, true)) {
+                evaluatorPool.release(evaluator, db, true);
+            }
+        });
         return evaluator;
     }
 
+    /**
+     * Leases the evaluator kept for the analysis requests of the current session and database. A session cookie is
+     * handed out if the client does not have one yet.
+     */
+    private AnalysisSessions.Lease leaseAnalysisEvaluator(RoutingContext ctx) {
+        Database db = ctx.get(DATABASE_CTX_KEY);
+        var cookie = ctx.getCookie(SESSION_COOKIE);
+        String sessionId;
+        if (cookie != null && StringUtils.isNotBlank(cookie.getValue())) {
+            sessionId = cookie.getValue();
+        } else {
+            sessionId = UUID.randomUUID().toString();
+            ctx.addCookie(Cookie.cookie(SESSION_COOKIE, sessionId).setPath("/").setHttpOnly(true));
+        }
+        return analysisSessions.lease(sessionId, db);
+    }
+
+    /**
+     * Unbinds the request's evaluator from the request, so it is not released when the request ends.
+     * @return False if the evaluator has already been released, e.g. because the client has gone away
+     */
+    private boolean detachEvaluator(RoutingContext ctx) {
+        AtomicBoolean released = ctx.get(EVALUATOR_RELEASED_CTX_KEY);
+        return released != null && released.compareAndSet(false, true);
+    }
+
+    /** Sets up a chunked NDJSON response, which is streamed line by line */
+    private static HttpServerResponse startResponse(RoutingContext ctx, int status) {
+        return ctx.response()
+            .setChunked(true)
+            .setStatusCode(status)
+            .putHeader("content-type", "application/json; charset=UTF-8")
+            .putHeader("vary", "accept");
+    }
+
+    /**
+     * Does the client's Accept header list a media type, e.g. {@link #GRID_COLUMNS_MEDIA_TYPE} if it decodes the
+     * records of grids column by column rather than as JSON?
+     */
+    private static boolean accepts(RoutingContext ctx, String mediaType) {
+        var accept = ctx.request().getHeader("accept");
+        return accept != null && Arrays.stream(accept.split(","))
+            .map(mediaRange -> mediaRange.split(";")[0].trim())
+            .anyMatch(mediaType::equalsIgnoreCase);
+    }
+
+    /** How the client accepts grids, as told by its Accept header */
+    private static GridFormat gridFormat(RoutingContext ctx) {
+        if (accepts(ctx, GRID_COLUMNS_MEDIA_TYPE)) {
+            return GridFormat.COLUMNS;
+        }
+        return accepts(ctx, GRID_RECORDS_MEDIA_TYPE) ? GridFormat.RECORDS : GridFormat.SINGLE_LINE;
+    }
+
+    /** Creates the NDJSON line telling the client where to get the next page of a grid */
+    private static String createMorePagesLine(RoutingContext ctx, String token) {
+        var pagePath = ctx.request().path().replaceFirst("/(eval|page)$", "/page");
+        return new JsonObject()
+            .put("type", JooqGrid.MORE_TYPE)
+            .put("href", pagePath + "?token=" + token)
+            .encode();
+    }
+
     /**
      * Creates the evaluator to run for a certain request.
      * @return A constructed evaluator.
      */
     private Evaluator createEvaluator() {
-        var evalCp = StringUtils.defaultIfEmpty(System.getenv(EVALUATOR_CLASSPATH_ENVIRONMENT_VARIABLE), "");
-        var cpList = Arrays.stream(evalCp.split("\\s")).filter(StringUtils::isNotBlank).collect(toList());
-        return Evaluator.spawn(cpList, useJavaSandboxing);
+        var cpList = evaluatorClasspath.getEntries();
+        Evaluator evaluator;
+        if (workers != null) {
+            evaluator = Evaluator.remote(workers::pick, cpList, useJavaSandboxing);
+        } else {
+            var archive = StringUtils.isNotBlank(System.getenv(EVALUATOR_CDS_ARCHIVE_ENVIRONMENT_VARIABLE))
+                ? Path.of(System.getenv(EVALUATOR_CDS_ARCHIVE_ENVIRONMENT_VARIABLE))
+                : null;
+            evaluator = Evaluator.spawn(cpList, useJavaSandboxing, archive);
+        }
+        return evaluator
+            .withResolvedClasspath(evaluatorClasspath.getResolved())
+            .withPhaseListener(metrics)
+            .withOutputLimit(evaluatorOutputBytes);
+    }
+
+    /** The endpoint a request is for, as used in metrics */
+    private static String getEndpoint(RoutingContext ctx) {
+        var path = ctx.request().path();
+        if (path.endsWith("/fanout/eval")) {
+            return "fanout";
+        }
+        var endpoint = path.substring(path.lastIndexOf('/') + 1);
+        switch (endpoint) {
+            case "eval":
+            case "page":
+            case "suggest":
+            case "javadoc":
+            case "cache":
+                return endpoint;
+            case "":
+                return "databases";
+            default:
+                return "other";
+        }
     }
 
-    private ConcurrentLinkedQueue<Evaluator> evaluators = new ConcurrentLinkedQueue<>();
-    private void prepareEvaluator() {
-        // TODO: do this in a thread pool or something?
-        Evaluator evaluator = createEvaluator();
-        evaluator.init(databases);
-        evaluators.add(evaluator);
+    /**
+     * Reads the databases to fan a script out to from the <code>databases</code> parameter, a comma-separated list of
+     * their ids.
+     * @return The databases, or null if none are given or one of them does not exist
+     */
+    private List<Database> getFanOutDatabases(RoutingContext ctx) {
+        var ids = StringUtils.defaultString(ctx.request().getParam("databases")).split(",");
+        var targets = new ArrayList<Database>();
+        for (var id : ids) {
+            if (StringUtils.isBlank(id)) {
+                continue;
+            }
+            var db = getDatabase(NumberUtils.toInt(id.trim(), -1));
+            if (db == null) {
+                return null;
+            }
+            if (!targets.contains(db)) {
+                targets.add(db);
+            }
+        }
+        return targets.isEmpty() ? null : targets;
     }
 
     private Database getDatabase(int dbId) {
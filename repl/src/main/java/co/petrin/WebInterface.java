@@ -30,19 +30,24 @@ public class WebInterface {
 
         var router = Router.router(vertx);
 
+        router.route().handler(CookieHandler.create()); //required for CSRF protection and analysis sessions to work!
+
         if (System.getenv("REPL_CSRF_SECRET") != null) {
-            // CSRF protection for /database (to protect POST requests) and / (to set the required cookies)
-            router.route().handler(CookieHandler.create()); //required for CSRF protection to work!
+            // CSRF protection for /database (to protect POST and DELETE requests) and / (to set the required cookies)
             var csrfHandler = CSRFHandler.create(System.getenv("REPL_CSRF_SECRET"))
                 .setCookieName("X-CSRF")
                 .setCookiePath("/")
                 .setHeaderName("X-CSRF-TOKEN")
                 .setNagHttps(false);
             router.routeWithRegex(HttpMethod.POST, "/databases/.*").handler(csrfHandler);
+            router.routeWithRegex(HttpMethod.DELETE, "/databases/.*").handler(csrfHandler);
             router.route(HttpMethod.GET, "/").handler(csrfHandler);
         }
 
-        router.mountSubRouter("/databases", new ScriptHandler().getRouter(vertx));
+        var metrics = new Metrics();
+        router.get("/metrics").handler(metrics::serve);
+
+        router.mountSubRouter("/databases", new ScriptHandler(metrics).getRouter(vertx));
 
         router.route("/*").handler(
             StaticHandler.create()
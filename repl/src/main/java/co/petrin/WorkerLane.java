@@ -0,0 +1,99 @@
+package co.petrin;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A dedicated, named pool of worker threads for one kind of request, so that e.g. slow evaluations cannot take all
+ * the threads completions need. Requests beyond the lane's concurrency wait in a bounded queue; once that is full,
+ * further requests are turned away right away with a 503 and a Retry-After header instead of piling up.
+ */
+public class WorkerLane implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(WorkerLane.class);
+
+    /** The lane's tunables */
+    public static class Settings {
+        /** The number of requests handled at the same time */
+        public int concurrency;
+
+        /** The number of requests that may wait for a free worker */
+        public int queueSize;
+
+        /** What rejected clients are told to wait before trying again */
+        public int retryAfterSeconds = 5;
+
+        public Settings(int concurrency, int queueSize) {
+            this.concurrency = concurrency;
+            this.queueSize = queueSize;
+        }
+
+        /**
+         * Reads the settings from the REPL_{NAME}_WORKERS and REPL_{NAME}_QUEUE_SIZE environment variables, using the
+         * given defaults for any that are not set.
+         */
+        public static Settings fromEnvironment(String name, int defaultConcurrency, int defaultQueueSize) {
+            var prefix = "REPL_" + name.toUpperCase() + "_";
+            var settings = new Settings(
+                Math.max(1, Environment.getInt(prefix + "WORKERS", defaultConcurrency)),
+                Environment.getInt(prefix + "QUEUE_SIZE", defaultQueueSize));
+            settings.retryAfterSeconds = Environment.getInt("REPL_RETRY_AFTER_SECONDS", settings.retryAfterSeconds);
+            return settings;
+        }
+    }
+
+    private final String name;
+    private final Settings settings;
+    private final WorkerExecutor executor;
+
+    /** Requests that are running or waiting in this lane */
+    private final AtomicInteger admitted = new AtomicInteger();
+
+    public WorkerLane(Vertx vertx, String name, Settings settings) {
+        this.name = name;
+        this.settings = settings;
+        this.executor = vertx.createSharedWorkerExecutor(name + "-worker", settings.concurrency);
+    }
+
+    /**
+     * Wraps a blocking route handler so it runs on this lane's workers, or is rejected if the lane is full.
+     * @param blockingHandler The handler to run on a worker thread.
+     */
+    public Handler<RoutingContext> handler(Handler<RoutingContext> blockingHandler) {
+        return ctx -> {
+            if (admitted.incrementAndGet() > settings.concurrency + settings.queueSize) {
+                admitted.decrementAndGet();
+                LOG.warn("Rejecting a request, the " + name + " lane is full");
+                ctx.response()
+                    .setStatusCode(503)
+                    .putHeader("Retry-After", Integer.toString(settings.retryAfterSeconds))
+                    .end("The server is too busy right now, please try again in a few seconds.");
+                return;
+            }
+            executor.<Void>executeBlocking(future -> {
+                blockingHandler.handle(ctx);
+                future.complete();
+            }, false, result -> {
+                admitted.decrementAndGet();
+                if (result.failed()) {
+                    ctx.fail(result.cause());
+                }
+            });
+        };
+    }
+
+    /** The number of requests that are running or waiting in this lane */
+    public int getAdmitted() {
+        return admitted.get();
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
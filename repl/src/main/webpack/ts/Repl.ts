@@ -138,7 +138,8 @@ export default class Repl {
             method: 'POST',
             body: JSON.stringify(this.getSnippet()),
             headers: {
-                "X-CSRF-TOKEN" : this.getCSRFFromCookie()
+                "X-CSRF-TOKEN" : this.getCSRFFromCookie(),
+                "Accept": ["application/json", "application/x-jooq-output-chunks"].concat(...this.config.augmentors.map( (augmentor) => augmentor.accepts || [])).join(", ")
             }
         })
         .then( resp => {
@@ -174,13 +175,20 @@ export default class Repl {
                         if (!readResult.done) {
                             if (readResult.value.evaluationStatus) {
                                 processMainResult(readResult.value as EvaluationResponse);
+                            } else if (readResult.value.type == "text/output-chunk") {
+                                // what the script has printed so far, until its result replaces it
+                                this.config.resultsPane.appendOutput(readResult.value.output);
                             } else {
                                 const augmentedResult = readResult.value as AugmentedOutput;
-                                this.config.augmentors.forEach( (augmentor) => {
-                                    if (augmentor.canAugment(augmentedResult)) {
-                                        this.config.resultsPane.normalAlternateResponse(augmentedResult.name, augmentor.augment(augmentedResult));
-                                    }
-                                });
+                                const continued = this.config.augmentors.some( (augmentor) =>
+                                    augmentor.continueAugmenting && augmentor.continueAugmenting(augmentedResult));
+                                if (!continued) {
+                                    this.config.augmentors.forEach( (augmentor) => {
+                                        if (augmentor.canAugment(augmentedResult)) {
+                                            this.config.resultsPane.normalAlternateResponse(augmentedResult.name, augmentor.augment(augmentedResult));
+                                        }
+                                    });
+                                }
                             }
                             readFromReader(reader);
                         }
@@ -6,6 +6,18 @@ export default interface Augmentor {
     /** Can this Augmentor augment the given evaluation output? */
     canAugment(data: AugmentedOutput): boolean;
 
+    /**
+     * Media types this Augmentor can decode, sent along with evaluation requests so the server can pick a more
+     * efficient format for the output.
+     */
+    accepts?: string[];
+
     /** Augment this evaluation output into an HTML element. */
     augment(data: AugmentedOutput): HTMLElement;
+
+    /**
+     * Add a continuation of a streamed output to the element created by the last call to augment.
+     * Returns false if this augmentor does not handle this kind of continuation.
+     */
+    continueAugmenting?(data: any): boolean;
 }
\ No newline at end of file
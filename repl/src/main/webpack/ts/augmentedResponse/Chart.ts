@@ -0,0 +1,79 @@
+const SVG_NS = "http://www.w3.org/2000/svg";
+const WIDTH = 800;
+const HEIGHT = 300;
+const MARGIN = 40;
+const COLORS = ["#1f77b4", "#ff7f0e", "#2ca02c", "#d62728", "#9467bd", "#8c564b", "#e377c2", "#7f7f7f"];
+
+/**
+ * Displays the numbers of a jOOQ result as a line chart. The server sends the labels of the points and a series of
+ * values for each numeric column.
+ */
+export default class Chart {
+
+    canAugment(data: AugmentedOutput): boolean {
+        return data.type == 'json/chart';
+    }
+
+    augment(data: AugmentedOutput): HTMLElement {
+        const chart = JSON.parse(data.output);
+        const container = document.createElement("div");
+        container.classList.add("chart");
+        container.appendChild(this.createSvg(chart.labels, chart.series));
+        container.appendChild(this.createLegend(chart.series));
+        return container;
+    }
+
+    private createSvg(labels: string[], series: { name: string, values: number[] }[]) {
+        const values = [].concat(...series.map(s => s.values)).filter(v => v !== null);
+        const min = Math.min(0, ...values);
+        const max = Math.max(...values);
+        const x = (i: number) => MARGIN + (labels.length > 1 ? i * (WIDTH - 2 * MARGIN) / (labels.length - 1) : 0);
+        const y = (v: number) => HEIGHT - MARGIN - (max > min ? (v - min) * (HEIGHT - 2 * MARGIN) / (max - min) : 0);
+
+        const svg = document.createElementNS(SVG_NS, "svg");
+        svg.setAttribute("viewBox", "0 0 " + WIDTH + " " + HEIGHT);
+
+        svg.appendChild(this.createText(MARGIN - 4, y(max), String(max), "end"));
+        svg.appendChild(this.createText(MARGIN - 4, y(min), String(min), "end"));
+        svg.appendChild(this.createText(x(0), HEIGHT - MARGIN + 16, labels[0], "start"));
+        svg.appendChild(this.createText(x(labels.length - 1), HEIGHT - MARGIN + 16, labels[labels.length - 1], "end"));
+
+        const axes = document.createElementNS(SVG_NS, "polyline");
+        axes.setAttribute("points", MARGIN + "," + MARGIN + " " + MARGIN + "," + y(min) + " " + (WIDTH - MARGIN) + "," + y(min));
+        axes.classList.add("axes");
+        svg.appendChild(axes);
+
+        series.forEach((s, index) => {
+            const line = document.createElementNS(SVG_NS, "polyline");
+            line.setAttribute("points", s.values
+                .map((v, i) => v === null ? null : x(i) + "," + y(v))
+                .filter(point => point !== null)
+                .join(" "));
+            line.setAttribute("stroke", COLORS[index % COLORS.length]);
+            line.classList.add("series");
+            svg.appendChild(line);
+        });
+        return svg;
+    }
+
+    private createText(x: number, y: number, text: string, anchor: string) {
+        const element = document.createElementNS(SVG_NS, "text");
+        element.setAttribute("x", String(x));
+        element.setAttribute("y", String(y));
+        element.setAttribute("text-anchor", anchor);
+        element.textContent = text;
+        return element;
+    }
+
+    private createLegend(series: { name: string }[]) {
+        const legend = document.createElement("ul");
+        legend.classList.add("chart-legend");
+        series.forEach((s, index) => {
+            const item = document.createElement("li");
+            item.style.color = COLORS[index % COLORS.length];
+            item.innerText = s.name;
+            legend.appendChild(item);
+        });
+        return legend;
+    }
+}
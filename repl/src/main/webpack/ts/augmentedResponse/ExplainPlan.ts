@@ -0,0 +1,29 @@
+/**
+ * Displays how the database runs a query: where the time went when running it, followed by the database's plan.
+ */
+export default class ExplainPlan {
+
+    canAugment(data: AugmentedOutput): boolean {
+        return data.type == 'json/explain';
+    }
+
+    augment(data: AugmentedOutput): HTMLElement {
+        const explain = JSON.parse(data.output);
+        const container = document.createElement("div");
+        container.classList.add("explain-plan");
+
+        const timing = document.createElement("p");
+        timing.innerText = "Database: " + explain.executionMs.toFixed(1) + " ms executing, "
+            + explain.fetchMs.toFixed(1) + " ms fetching; jOOQ: " + explain.mappingMs.toFixed(1) + " ms mapping "
+            + explain.rows + (explain.truncated ? "+" : "") + " rows";
+        container.appendChild(timing);
+
+        if (explain.statement) {
+            const plan = document.createElement("pre");
+            plan.title = explain.statement;
+            plan.innerText = explain.format == "json" ? JSON.stringify(explain.plan, null, 2) : explain.plan;
+            container.appendChild(plan);
+        }
+        return container;
+    }
+}
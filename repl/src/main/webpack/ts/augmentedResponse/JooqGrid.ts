@@ -1,65 +1,135 @@
+import * as ndjsonStream from "can-ndjson-stream";
+import VirtualGrid from "../ui/VirtualGrid";
+
+/**
+ * Displays jOOQ results as a table. The server streams the results: a header line with the fields comes first,
+ * followed by lines of records that are appended to the table as they arrive. Large results are cut off by the
+ * server; a last line then tells where the next page can be loaded from.
+ *
+ * The records can also be sent column by column in a binary format (see the server's GridColumns), which is read
+ * straight into typed arrays instead of being parsed as JSON.
+ */
 export default class JooqGrid {
+    accepts = [ 'application/x-jooq-grid-records', 'application/x-jooq-grid-columns' ];
+
+    /** The grid being streamed */
+    private grid: VirtualGrid;
+
     canAugment(data: AugmentedOutput): boolean {
         return data.type == 'json/jooq-grid';
     }
 
     augment(data: AugmentedOutput): HTMLElement {
-        var json = JSON.parse(data.output);
-        var table = document.createElement("table");
-        table.classList.add("jooq-grid");
-
-        table.appendChild(this.createHeader(json));
-        table.appendChild(this.createBody(json));
+        var json = data as any;
+        this.grid = new VirtualGrid(json.fields);
+        this.grid.append(json.records);
+        return this.grid.element;
+    }
 
-        return table;
+    continueAugmenting(data: any): boolean {
+        return this.grid ? this.continueGrid(this.grid, data) : false;
     }
 
-    // header
+    /** Adds a line of a grid's stream to the grid; returns false if it is not part of a grid */
+    private continueGrid(grid: VirtualGrid, data: any): boolean {
+        if (data.type == 'json/jooq-grid-records') {
+            grid.append(data.records);
+            return true;
+        } else if (data.type == 'base64/jooq-grid-columns') {
+            grid.append(JooqGrid.decodeColumns(data.columns));
+            return true;
+        } else if (data.type == 'json/jooq-grid-more') {
+            grid.setFooter(this.createMoreButton(grid, data.href));
+            return true;
+        }
+        return false;
+    }
 
-    private createHeader(json) {
-        var thead = document.createElement("thead");
-        var tr = document.createElement("tr");
-        thead.appendChild(tr);
+    // columns
 
-        json.fields.map(this.createColumn).forEach((col) => tr.appendChild(col));
+    /**
+     * Turns columns encoded as described in the server's GridColumns back into records. The sections of the encoding
+     * are aligned to 8 bytes, so the numbers are viewed in place rather than copied; like the encoding, typed arrays
+     * are little-endian on every platform browsers run on.
+     */
+    private static decodeColumns(base64: string): any[][] {
+        const binary = atob(base64);
+        const bytes = new Uint8Array(binary.length);
+        for (let i = 0; i < binary.length; i++) {
+            bytes[i] = binary.charCodeAt(i);
+        }
+        const view = new DataView(bytes.buffer);
+        const pad = (length: number) => (length + 7) & ~7;
+        const rows = view.getInt32(0, true);
+        const columns = view.getInt32(4, true);
+        const records: any[][] = [];
+        for (let row = 0; row < rows; row++) {
+            records.push(new Array(columns));
+        }
 
-        return thead;
-    }
+        const utf8 = new TextDecoder("utf-8");
+        let offset = 8;
+        for (let column = 0; column < columns; column++) {
+            const kind = view.getInt32(offset, true);
+            const length = view.getInt32(offset + 4, true);
+            const valid = bytes.subarray(offset + 8, offset + 8 + Math.ceil(rows / 8));
+            offset += 8 + pad(Math.ceil(rows / 8));
 
-    private createColumn(json) {
-        var col = document.createElement("th");
-        col.title = json.table + "." + json.name + " (" + json.type + ")";
-        col.innerText = json.name;
-        col.classList.add(json.type);
-        return col;
+            let value: (row: number) => any;
+            if (kind == 0) {
+                const ints = new Int32Array(bytes.buffer, offset, rows);
+                value = (row) => ints[row];
+            } else if (kind == 1) {
+                const doubles = new Float64Array(bytes.buffer, offset, rows);
+                value = (row) => doubles[row];
+            } else if (kind == 2) {
+                value = (row) => bytes[offset + row] == 1;
+            } else if (kind == 4) {
+                const bytesValues = new Int8Array(bytes.buffer, offset, rows);
+                value = (row) => bytesValues[row];
+            } else if (kind == 5) {
+                const shorts = new Int16Array(bytes.buffer, offset, rows);
+                value = (row) => shorts[row];
+            } else {
+                const starts = new Int32Array(bytes.buffer, offset, rows + 1);
+                const text = bytes.subarray(offset + pad(4 * (rows + 1)), offset + length);
+                value = (row) => utf8.decode(text.subarray(starts[row], starts[row + 1]));
+            }
+            for (let row = 0; row < rows; row++) {
+                records[row][column] = valid[row >> 3] & (1 << (row & 7)) ? value(row) : null;
+            }
+            offset += pad(length);
+        }
+        return records;
     }
 
-    // body
+    // more pages
 
-    private createBody(json) {
-        var body = document.createElement("tbody");
-        json.records.map( (rec) => this.createRow(json, rec)).forEach( (row) => body.appendChild(row));
-        return body;
+    private createMoreButton(grid: VirtualGrid, href: string) {
+        var button = document.createElement("button");
+        button.innerText = "Load more rows";
+        button.onclick = () => {
+            button.disabled = true;
+            this.loadPage(grid, button, href);
+        };
+        return button;
     }
 
-    private createRow(json, row) {
-        var tr = document.createElement("tr");
-        for (let a = 0; a < json.fields.length; a++) {
-            tr.appendChild(this.createCell(json.fields[a], row[a]));
-        }
-        return tr;
-    }
-
-    private createCell(field, content) {
-        var td = document.createElement("td");
-        td.classList.add(field.type);
-        if (content === null) {
-            td.classList.add("NULL");
-            td.innerText = "null";
-        } else {
-            td.innerText = content;
-            td.title = content;
-        }
-        return td;
+    private loadPage(grid: VirtualGrid, button: HTMLButtonElement, href: string) {
+        fetch(href, { headers: { "Accept": ["application/json"].concat(this.accepts).join(", ") } }).then( (resp) => {
+            if (!resp.ok) {
+                return resp.text().then( (text) => { button.parentElement.innerText = text; });
+            }
+            grid.setFooter(null);
+            const readFromReader = (reader) => {
+                reader.read().then( (readResult) => {
+                    if (!readResult.done) {
+                        this.continueGrid(grid, readResult.value);
+                        readFromReader(reader);
+                    }
+                });
+            };
+            readFromReader(ndjsonStream(resp.body).getReader());
+        });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,76 @@
+/**
+ * Displays the queries a script ran, in the order they started, as a waterfall of where their time went. Statements
+ * that ran more than once, e.g. in a loop, are marked with how often they ran.
+ */
+export default class QueryTimeline {
+
+    canAugment(data: AugmentedOutput): boolean {
+        return data.type == 'json/query-timeline';
+    }
+
+    augment(data: AugmentedOutput): HTMLElement {
+        const timeline = JSON.parse(data.output);
+        const queries: any[] = timeline.queries;
+        const container = document.createElement("div");
+        container.classList.add("query-timeline");
+
+        const runs = new Map<string, number>();
+        queries.forEach(query => runs.set(query.sql, (runs.get(query.sql) || 0) + 1));
+        const total = (phase: string) => queries.reduce((sum, query) => sum + query[phase], 0);
+        const end = Math.max(1, ...queries.map(query => query.startMs + query.renderMs + query.prepareMs + query.executeMs + query.fetchMs));
+
+        const summary = document.createElement("p");
+        summary.innerText = queries.length + (timeline.dropped ? " (+" + timeline.dropped + " not shown)" : "") + " queries: "
+            + total("executeMs").toFixed(1) + " ms executing, " + total("fetchMs").toFixed(1) + " ms fetching, "
+            + (total("renderMs") + total("prepareMs")).toFixed(1) + " ms rendering and preparing";
+        container.appendChild(summary);
+
+        const table = document.createElement("table");
+        const header = table.createTHead().insertRow();
+        ["SQL", "Rows", "Render ms", "Prepare ms", "Execute ms", "Fetch ms", ""].forEach(title => {
+            const th = document.createElement("th");
+            th.innerText = title;
+            header.appendChild(th);
+        });
+
+        const body = table.createTBody();
+        queries.forEach(query => {
+            const row = body.insertRow();
+            const sql = row.insertCell();
+            sql.classList.add("sql");
+            sql.innerText = query.sql || "";
+            if (runs.get(query.sql) > 1) {
+                row.classList.add("repeated");
+                sql.title = "Ran " + runs.get(query.sql) + " times";
+            }
+            if (query.error) {
+                row.classList.add("failed");
+                sql.title = query.error;
+            }
+            row.insertCell().innerText = query.rows == null ? "" : String(query.rows);
+            [query.renderMs, query.prepareMs, query.executeMs, query.fetchMs]
+                .forEach(ms => row.insertCell().innerText = ms.toFixed(1));
+            row.insertCell().appendChild(this.bar(query, end));
+        });
+        container.appendChild(table);
+        return container;
+    }
+
+    /** Draws when the query started and how long each of its phases took, relative to the whole timeline */
+    private bar(query: any, end: number): HTMLElement {
+        const bar = document.createElement("div");
+        bar.classList.add("bar");
+        const percent = (ms: number) => (100 * ms / end) + "%";
+        const offset = document.createElement("span");
+        offset.style.width = percent(query.startMs);
+        bar.appendChild(offset);
+        ["render", "prepare", "execute", "fetch"].forEach(phase => {
+            const part = document.createElement("span");
+            part.classList.add(phase);
+            part.style.width = percent(query[phase + "Ms"]);
+            part.title = phase + ": " + query[phase + "Ms"].toFixed(1) + " ms";
+            bar.appendChild(part);
+        });
+        return bar;
+    }
+}
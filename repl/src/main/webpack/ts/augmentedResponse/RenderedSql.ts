@@ -0,0 +1,16 @@
+/**
+ * Displays the SQL of a jOOQ query, with its bind values inlined.
+ */
+export default class RenderedSql {
+
+    canAugment(data: AugmentedOutput): boolean {
+        return data.type == 'text/sql';
+    }
+
+    augment(data: AugmentedOutput): HTMLElement {
+        var pre = document.createElement("pre");
+        pre.classList.add("rendered-sql");
+        pre.innerText = data.output;
+        return pre;
+    }
+}
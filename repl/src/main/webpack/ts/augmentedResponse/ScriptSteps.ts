@@ -0,0 +1,72 @@
+import VirtualGrid from "../ui/VirtualGrid";
+
+/**
+ * Displays the progress of a script made of several snippets. The server sends every snippet as soon as it has run,
+ * long before the script's result, so each one is appended to the list as it arrives: its line, how long it took,
+ * what it printed and its value, or the first rows of its jOOQ result.
+ */
+export default class ScriptSteps {
+    accepts = [ 'application/x-jooq-script-steps' ];
+
+    /** The list of the script being run */
+    private list: HTMLElement;
+
+    canAugment(data: AugmentedOutput): boolean {
+        return data.type == 'json/script-step';
+    }
+
+    augment(data: AugmentedOutput): HTMLElement {
+        const container = document.createElement("div");
+        container.classList.add("script-steps");
+        this.list = container;
+        this.list.appendChild(this.createStep(data as any));
+        return container;
+    }
+
+    continueAugmenting(data: any): boolean {
+        // the first step of a script starts a new list
+        if (!this.list || data.type != 'json/script-step' || data.index == 0) {
+            return false;
+        }
+        this.list.appendChild(this.createStep(data));
+        return true;
+    }
+
+    private createStep(step: any): HTMLElement {
+        const details = document.createElement("details");
+        details.classList.add(step.status.toLowerCase());
+        details.open = step.status != "SUCCESS";
+
+        const summary = document.createElement("summary");
+        [
+            ["index", "#" + (step.index + 1)],
+            ["line", "line " + step.line],
+            ["duration", step.durationMs + " ms"],
+            ["source", step.source]
+        ].forEach(([kind, text]) => {
+            const part = document.createElement("span");
+            part.classList.add(kind);
+            part.innerText = text;
+            summary.appendChild(part);
+        });
+        summary.title = "Compiled in " + step.compileMs + " ms, ran in " + step.executeMs + " ms";
+        details.appendChild(summary);
+
+        [step.output, step.error, step.value].filter(text => text).forEach(text => {
+            const pre = document.createElement("pre");
+            pre.innerText = text;
+            details.appendChild(pre);
+        });
+        if (step.grid) {
+            const grid = new VirtualGrid(step.grid.fields);
+            grid.append(step.grid.records);
+            if (step.grid.rows > step.grid.records.length) {
+                const more = document.createElement("span");
+                more.innerText = "The first " + step.grid.records.length + " of " + step.grid.rows + " rows";
+                grid.setFooter(more);
+            }
+            details.appendChild(grid.element);
+        }
+        return details;
+    }
+}
@@ -16,6 +16,11 @@ import 'bootstrap/dist/css/bootstrap.css'
 import 'codemirror/lib/codemirror.css'
 import 'codemirror/addon/hint/show-hint.css'
 import JooqGrid from './augmentedResponse/JooqGrid';
+import RenderedSql from './augmentedResponse/RenderedSql';
+import Chart from './augmentedResponse/Chart';
+import ExplainPlan from './augmentedResponse/ExplainPlan';
+import QueryTimeline from './augmentedResponse/QueryTimeline';
+import ScriptSteps from './augmentedResponse/ScriptSteps';
 
 
 document.addEventListener("DOMContentLoaded", function(event) {
@@ -47,7 +52,7 @@ document.addEventListener("DOMContentLoaded", function(event) {
         commandCheatSheet: new CommandPanel(document.getElementById('shortcut-list') as HTMLUListElement),
         onCommandExecutionStarted: () => { resultsLoader.style.display = 'block' },
         onCommandExecutionFinished: () => { resultsLoader.style.display = 'none' },
-        augmentors: [ new JooqGrid() ]
+        augmentors: [ new JooqGrid(), new RenderedSql(), new Chart(), new ExplainPlan(), new QueryTimeline(), new ScriptSteps() ]
     }; 
 
     const editor = new Repl(replOptions);
@@ -28,7 +28,9 @@ interface Success extends EvaluationResponse {
     output: string;
     errorOutput: string;
     durationInMs: number;
-    augmentedOutput: Supplier<AugmentedOutput>;
+    compileMs: number;
+    executeMs: number;
+    augmentedOutput: Augmentation;
 }
 
 interface Error extends EvaluationResponse {
@@ -40,16 +42,21 @@ interface EvaluationError extends Error {
     durationInMs: number;
 }
 
+interface Timeout extends Error {
+    durationInMs: number;
+    processDestroyed: boolean;
+}
+
 interface Suggestion {
     continuation: string;
     matchesType: boolean;
 }
 
-interface Supplier<T> {
+interface Augmentation {
 }
 
 interface EvaluationResponse {
     evaluationStatus: Status;
 }
 
-type Status = "EVALUATION_ERROR" | "JSHELL_ERROR" | "PARSE_ERROR" | "SETUP_ERROR" | "SUCCESS";
+type Status = "EVALUATION_ERROR" | "JSHELL_ERROR" | "PARSE_ERROR" | "SETUP_ERROR" | "SUCCESS" | "TIMEOUT";
@@ -42,11 +42,19 @@ export default class ResultPanel {
      * @param errorOccured If true, then the evaluation threw an uncaught exception
      */
     normally(result: Success | EvaluationError, errorOccured: boolean) {
-        this.clear();
+        // the steps of a script arrive before its result and stay
         this.preElement.innerText = result.output;
         this.parent.classList.toggle('completed-with-error', errorOccured)
     }
 
+    /**
+     * Adds output printed by a script that is still running.
+     * @param output The output printed since the last call
+     */
+    appendOutput(output: string) {
+        this.preElement.appendChild(document.createTextNode(output));
+    }
+
     /**
      * Adds an alternate result representation as a tab.
      * @param name The name of this tab
@@ -0,0 +1,284 @@
+/** ResizeObserver, which the DOM types of this TypeScript version do not declare yet */
+declare class ResizeObserver {
+    constructor(callback: () => void);
+    observe(target: Element): void;
+    disconnect(): void;
+}
+
+/**
+ * A table of records that only creates rows for the records scrolled into view, so that results with tens of
+ * thousands of records stay responsive. Records can be appended while the grid is displayed, e.g. as they are
+ * streamed, and can be sorted and filtered by column without asking the server again.
+ *
+ * Every row is assumed to be as high as the first one; the rows above and below the visible ones are stood in for by
+ * two empty rows of the right height.
+ */
+export default class VirtualGrid {
+    /** The rows created beyond the visible ones, so that scrolling a little does not show empty space */
+    private static readonly OVERSCAN = 20;
+
+    /** The scrollable element containing the table */
+    readonly element: HTMLDivElement;
+
+    private readonly fields: any[];
+    private readonly records: any[][] = [];
+
+    /** The indexes of the records shown, in the order they are shown */
+    private view: number[] = [];
+
+    private readonly table: HTMLTableElement;
+    private readonly body: HTMLTableSectionElement;
+    private readonly status: HTMLTableCaptionElement;
+    private readonly sortIndicators: HTMLElement[] = [];
+    private footer: HTMLTableSectionElement;
+
+    private sortColumn = -1;
+    private sortDescending = false;
+    private filters: ((value: any) => boolean)[];
+
+    private rowHeight = 21;
+    private renderScheduled = false;
+    private resizeObserver: ResizeObserver;
+
+    constructor(fields: any[]) {
+        this.fields = fields;
+        this.filters = fields.map( () => null);
+
+        this.element = document.createElement("div");
+        this.element.classList.add("jooq-grid");
+        this.table = document.createElement("table");
+        this.table.classList.add("jooq-grid");
+        this.status = this.table.createCaption();
+        this.table.appendChild(this.createHeader());
+        this.body = document.createElement("tbody");
+        this.table.appendChild(this.body);
+        this.element.appendChild(this.table);
+
+        this.element.addEventListener("scroll", () => this.scheduleRender());
+        if (typeof ResizeObserver != "undefined") {
+            this.resizeObserver = new ResizeObserver( () => this.resized());
+            this.resizeObserver.observe(this.element);
+        }
+    }
+
+    /** Adds records to the end of the grid, sorting and filtering them like the ones already shown */
+    append(records: any[][]) {
+        const first = this.records.length;
+        records.forEach( (record) => this.records.push(record));
+        if (this.sortColumn < 0) {
+            for (let index = first; index < this.records.length; index++) {
+                if (this.matches(this.records[index])) {
+                    this.view.push(index);
+                }
+            }
+        } else {
+            this.updateView();
+        }
+        this.scheduleRender();
+    }
+
+    /** Shows an element below the records, e.g. a button loading more of them; null removes it */
+    setFooter(content: HTMLElement | null) {
+        if (this.footer) {
+            this.table.removeChild(this.footer);
+            this.footer = null;
+        }
+        if (content) {
+            this.footer = this.table.createTFoot();
+            const td = this.footer.insertRow().insertCell();
+            td.colSpan = this.fields.length;
+            td.appendChild(content);
+        }
+    }
+
+    // header
+
+    private createHeader() {
+        const thead = document.createElement("thead");
+        const names = thead.insertRow();
+        const filters = thead.insertRow();
+        filters.classList.add("filters");
+        this.fields.forEach( (field, column) => {
+            const th = document.createElement("th");
+            th.title = field.table + "." + field.name + " (" + field.type + "), click to sort";
+            th.innerText = field.name;
+            th.classList.add(field.type);
+            const indicator = document.createElement("span");
+            indicator.classList.add("sort");
+            th.appendChild(indicator);
+            this.sortIndicators.push(indicator);
+            th.addEventListener("click", () => this.sortBy(column));
+            names.appendChild(th);
+
+            const filter = document.createElement("th");
+            const input = document.createElement("input");
+            input.placeholder = "filter";
+            input.title = "Shows the records containing this text, or e.g. >10 for numbers";
+            input.addEventListener("input", () => this.filterBy(column, input.value));
+            filter.appendChild(input);
+            filters.appendChild(filter);
+        });
+        return thead;
+    }
+
+    /** Sorts by the column, first ascending, then descending, then in the order the records arrived */
+    private sortBy(column: number) {
+        if (this.sortColumn != column) {
+            this.sortColumn = column;
+            this.sortDescending = false;
+        } else if (!this.sortDescending) {
+            this.sortDescending = true;
+        } else {
+            this.sortColumn = -1;
+        }
+        this.sortIndicators.forEach( (indicator, index) => indicator.innerText =
+            index != this.sortColumn ? "" : this.sortDescending ? " ▼" : " ▲");
+        this.updateView();
+        this.element.scrollTop = 0;
+        this.scheduleRender();
+    }
+
+    private filterBy(column: number, text: string) {
+        this.filters[column] = VirtualGrid.matcher(text);
+        this.updateView();
+        this.element.scrollTop = 0;
+        this.scheduleRender();
+    }
+
+    /**
+     * Creates a filter for a column: numbers can be compared with <, <=, =, >= or >, anything else is looked for as
+     * text, ignoring case.
+     */
+    private static matcher(text: string): ((value: any) => boolean) | null {
+        text = text.trim();
+        if (!text) {
+            return null;
+        }
+        const comparison = /^(<=|>=|<|>|=)\s*(-?[0-9]*\.?[0-9]+)$/.exec(text);
+        if (comparison) {
+            const operand = parseFloat(comparison[2]);
+            const compare = {
+                "<": (n: number) => n < operand,
+                "<=": (n: number) => n <= operand,
+                "=": (n: number) => n == operand,
+                ">=": (n: number) => n >= operand,
+                ">": (n: number) => n > operand
+            }[comparison[1]];
+            return (value) => value !== null && value !== "" && !isNaN(Number(value)) && compare(Number(value));
+        }
+        const needle = text.toLowerCase();
+        return (value) => String(value).toLowerCase().indexOf(needle) >= 0;
+    }
+
+    private matches(record: any[]) {
+        return this.filters.every( (filter, column) => !filter || filter(record[column]));
+    }
+
+    private updateView() {
+        const view: number[] = [];
+        this.records.forEach( (record, index) => {
+            if (this.matches(record)) {
+                view.push(index);
+            }
+        });
+        if (this.sortColumn >= 0) {
+            const column = this.sortColumn;
+            const direction = this.sortDescending ? -1 : 1;
+            // nulls go last either way, equal values keep the order they arrived in
+            view.sort( (a, b) => {
+                const x = this.records[a][column], y = this.records[b][column];
+                if (x === y) {
+                    return a - b;
+                } else if (x === null) {
+                    return 1;
+                } else if (y === null) {
+                    return -1;
+                }
+                const order = typeof x == "number" && typeof y == "number"
+                    ? x - y
+                    : String(x).localeCompare(String(y), undefined, { numeric: true });
+                return order != 0 ? direction * order : a - b;
+            });
+        }
+        this.view = view;
+    }
+
+    // body
+
+    /** Renders the rows that fit the new size, or stops observing once the grid has been replaced */
+    private resized() {
+        if (this.element.isConnected) {
+            this.scheduleRender();
+        } else {
+            this.resizeObserver.disconnect();
+        }
+    }
+
+    private scheduleRender() {
+        if (!this.renderScheduled) {
+            this.renderScheduled = true;
+            requestAnimationFrame( () => {
+                this.renderScheduled = false;
+                this.render();
+            });
+        }
+    }
+
+    /** Replaces the rows in the body with the ones currently scrolled into view */
+    private render() {
+        // a grid in a hidden tab has no height, it is filled as if it were as high as the window
+        const height = this.element.clientHeight || window.innerHeight;
+        const headerHeight = this.table.tHead.offsetHeight + this.status.offsetHeight;
+        const scrolled = Math.max(0, this.element.scrollTop - headerHeight);
+        const first = Math.max(0, Math.floor(scrolled / this.rowHeight) - VirtualGrid.OVERSCAN);
+        const last = Math.min(this.view.length, Math.ceil((scrolled + height) / this.rowHeight) + VirtualGrid.OVERSCAN);
+
+        const rows = document.createDocumentFragment();
+        rows.appendChild(this.createSpacer(first * this.rowHeight));
+        for (let index = first; index < last; index++) {
+            rows.appendChild(this.createRow(this.records[this.view[index]]));
+        }
+        rows.appendChild(this.createSpacer((this.view.length - last) * this.rowHeight));
+        this.body.innerHTML = "";
+        this.body.appendChild(rows);
+
+        const total = this.records.length;
+        this.status.innerText = this.view.length == total
+            ? total + " rows"
+            : this.view.length + " of " + total + " rows";
+
+        const measured = last > first ? (this.body.rows[1] as HTMLElement).offsetHeight : 0;
+        if (measured > 0 && measured != this.rowHeight) {
+            this.rowHeight = measured;
+            this.scheduleRender();
+        }
+    }
+
+    private createSpacer(height: number) {
+        const tr = document.createElement("tr");
+        tr.classList.add("spacer");
+        tr.style.height = height + "px";
+        return tr;
+    }
+
+    private createRow(record: any[]) {
+        const tr = document.createElement("tr");
+        for (let column = 0; column < this.fields.length; column++) {
+            tr.appendChild(this.createCell(this.fields[column], record[column]));
+        }
+        return tr;
+    }
+
+    private createCell(field, content) {
+        const td = document.createElement("td");
+        td.classList.add(field.type);
+        if (content === null) {
+            td.classList.add("NULL");
+            td.innerText = "null";
+        } else {
+            td.innerText = String(content);
+            td.title = String(content);
+        }
+        return td;
+    }
+}
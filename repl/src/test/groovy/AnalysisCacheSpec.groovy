@@ -0,0 +1,104 @@
+import co.petrin.AnalysisCache
+import co.petrin.Database
+import co.petrin.EvaluationRequest
+import spock.lang.Specification
+
+class AnalysisCacheSpec extends Specification {
+
+    String fingerprint = "v1"
+    int computations = 0
+
+    AnalysisCache<String> cache(int size) {
+        new AnalysisCache<String>(size, { fingerprint })
+    }
+
+    String lookup(AnalysisCache<String> cache, Database db, String script, int cursor = script.length()) {
+        cache.get(db, new EvaluationRequest(script, cursor), { "result ${++computations}".toString() })
+    }
+
+    def "Repeated lookups are answered from the cache"() {
+        given:
+        def cache = cache(10)
+
+        when:
+        def first = lookup(cache, null, "jooq.")
+        def second = lookup(cache, null, "jooq.")
+
+        then:
+        first == second
+        computations == 1
+        cache.hits == 1
+        cache.misses == 1
+    }
+
+    def "Whitespace, import order and the text after the cursor do not matter"() {
+        given:
+        def cache = cache(10)
+        lookup(cache, null, "import java.io.*;\nimport java.util.*;\nvar x = 1;\njooq.")
+
+        when:
+        def script = "import java.util.*;\n  import java.io.*;\nvar  x = 1; jooq.select()"
+        lookup(cache, null, script, script.indexOf("jooq.") + 5)
+
+        then:
+        computations == 1
+    }
+
+    def "Different imports and databases are cached separately"() {
+        given:
+        def cache = cache(10)
+        def db = new Database("jdbc:h2:mem:", "db", null, null, null, null)
+
+        when:
+        lookup(cache, null, "import java.io.*;\nFil")
+        lookup(cache, null, "import java.nio.file.*;\nFil")
+        lookup(cache, db, "import java.io.*;\nFil")
+
+        then:
+        computations == 3
+    }
+
+    def "The least recently used results are evicted"() {
+        given:
+        def cache = cache(2)
+        lookup(cache, null, "a")
+        lookup(cache, null, "b")
+        lookup(cache, null, "a")
+
+        when:
+        lookup(cache, null, "c")
+        lookup(cache, null, "a")
+        lookup(cache, null, "b")
+
+        then: 'only b had been evicted'
+        cache.size() == 2
+        computations == 4
+    }
+
+    def "Changing the classpath empties the cache"() {
+        given:
+        def cache = cache(10)
+        lookup(cache, null, "jooq.")
+
+        when: 'the classpath changes and is checked again'
+        fingerprint = "v2"
+        cache.@classpathCheckedAt = 0
+        lookup(cache, null, "jooq.")
+
+        then:
+        computations == 2
+    }
+
+    def "A size of zero disables caching"() {
+        given:
+        def cache = cache(0)
+
+        when:
+        lookup(cache, null, "jooq.")
+        lookup(cache, null, "jooq.")
+
+        then:
+        computations == 2
+        cache.size() == 0
+    }
+}
@@ -0,0 +1,102 @@
+import co.petrin.AnalysisSessions
+import co.petrin.Database
+import co.petrin.Evaluator
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+class AnalysisSessionsSpec extends Specification {
+
+    /** The evaluators given back to the pool */
+    List<Evaluator> released = [].asSynchronized()
+
+    AnalysisSessions sessions(long maxIdleMs, int maxSessions) {
+        new AnalysisSessions({ db -> Evaluator.local() }, { evaluator, db -> released << evaluator }, maxIdleMs, maxSessions)
+    }
+
+    /** Uses a session's evaluator for a moment, like a single request does */
+    Evaluator use(AnalysisSessions sessions, String sessionId, Database db) {
+        def lease = sessions.lease(sessionId, db)
+        try {
+            return lease.evaluator()
+        } finally {
+            lease.close()
+        }
+    }
+
+    def "A session keeps its evaluator for each database"() {
+        given:
+        def sessions = sessions(60_000, 4)
+        def db = new Database("jdbc:h2:mem:", "db", null, null, null, null)
+
+        when:
+        def first = use(sessions, "a", db)
+
+        then: 'the same evaluator is returned as long as the session and database stay the same'
+        use(sessions, "a", db).is(first)
+        !use(sessions, "a", null).is(first)
+        !use(sessions, "b", db).is(first)
+        sessions.size() == 3
+        released.isEmpty()
+
+        cleanup:
+        sessions.close()
+    }
+
+    def "The least recently used evaluator is released when too many are kept"() {
+        given:
+        def sessions = sessions(60_000, 2)
+        def oldest = use(sessions, "a", null)
+        def used = use(sessions, "b", null)
+        use(sessions, "a", null)
+
+        when:
+        use(sessions, "c", null)
+
+        then:
+        released == [used]
+        sessions.size() == 2
+
+        cleanup:
+        sessions.close()
+    }
+
+    def "Idle evaluators are released"() {
+        given:
+        def sessions = sessions(500, 4)
+
+        when:
+        def evaluator = use(sessions, "a", null)
+
+        then:
+        new PollingConditions(timeout: 10).eventually {
+            assert released == [evaluator]
+            assert sessions.size() == 0
+        }
+
+        cleanup:
+        sessions.close()
+    }
+
+    def "Evaluators are not released while they are leased"() {
+        given:
+        def sessions = sessions(60_000, 1)
+        def lease = sessions.lease("a", null)
+        def evaluator = lease.evaluator()
+
+        when: 'the session is pushed out by another one'
+        use(sessions, "b", null)
+
+        then: 'its evaluator is kept until the lease ends'
+        sessions.size() == 1
+        released.isEmpty()
+
+        when:
+        lease.close()
+
+        then:
+        released == [evaluator]
+
+        cleanup:
+        sessions.close()
+    }
+}
@@ -0,0 +1,67 @@
+import co.petrin.EvaluatorClasspath
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+class EvaluatorClasspathSpec extends Specification {
+
+    Path libs = Files.createTempDirectory("libs")
+
+    @AutoCleanup EvaluatorClasspath classpath
+
+    def cleanup() {
+        libs.toFile().deleteDir()
+    }
+
+    def "JAR files are found in subdirectories as well"() {
+        given:
+        Files.createDirectories(libs.resolve("drivers/h2"))
+        Files.write(libs.resolve("model.jar"), [1] as byte[])
+        Files.write(libs.resolve("drivers/h2/h2.jar"), [1] as byte[])
+        Files.write(libs.resolve("drivers/README"), [1] as byte[])
+
+        when:
+        classpath = new EvaluatorClasspath([libs.toString()])
+
+        then:
+        classpath.resolved == [libs.toString(), libs.resolve("drivers/h2/h2.jar").toString(), libs.resolve("model.jar").toString()]
+    }
+
+    def "Changed JAR files are picked up while watching"() {
+        given:
+        classpath = new EvaluatorClasspath([libs.toString()])
+        def changes = 0
+        classpath.onChange { changes++ }
+        def fingerprint = classpath.fingerprint
+        classpath.watch()
+
+        when: 'a JAR file is copied into a new subdirectory'
+        Files.createDirectories(libs.resolve("drivers"))
+        Files.write(libs.resolve("drivers/h2.jar"), [1] as byte[])
+
+        then:
+        new PollingConditions(timeout: 30).eventually {
+            assert changes == 1
+        }
+        classpath.resolved.contains(libs.resolve("drivers/h2.jar").toString())
+        classpath.fingerprint != fingerprint
+    }
+
+    def "Files other than JAR files don't change the classpath"() {
+        given:
+        classpath = new EvaluatorClasspath([libs.toString()])
+        def changes = 0
+        classpath.onChange { changes++ }
+        classpath.watch()
+
+        when:
+        Files.write(libs.resolve("notes.txt"), [1] as byte[])
+        Thread.sleep(3000)
+
+        then:
+        changes == 0
+    }
+}
@@ -0,0 +1,161 @@
+import co.petrin.Database
+import co.petrin.EvaluationRequest
+import co.petrin.EvaluationResponse
+import co.petrin.Evaluator
+import co.petrin.EvaluatorPool
+import spock.lang.Specification
+import spock.lang.Timeout
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.atomic.AtomicInteger
+
+class EvaluatorPoolSpec extends Specification {
+
+    private static EvaluatorPool.Settings settings(Map overrides) {
+        def settings = new EvaluatorPool.Settings(maxSize: 10, refillIntervalMs: 0, maxIdleMs: 0)
+        overrides.each { k, v -> settings[k] = v }
+        return settings
+    }
+
+    def "The pool fills itself up to the minimum number of idle evaluators"() {
+        given: 'a pool that should keep two evaluators ready'
+        def pool = new EvaluatorPool({ Evaluator.local() }, [], settings(minIdle: 2))
+
+        expect: 'the pool to be filled in the background'
+        new PollingConditions(timeout: 30).eventually {
+            assert pool.size() == 2
+        }
+
+        cleanup:
+        pool?.close()
+    }
+
+    def "Taken evaluators are replaced"() {
+        given: 'a filled pool'
+        def pool = new EvaluatorPool({ Evaluator.local() }, [], settings(minIdle: 1))
+        def conditions = new PollingConditions(timeout: 30)
+        conditions.eventually { assert pool.size() == 1 }
+
+        when: 'an evaluator is taken'
+        def evaluator = pool.take(null)
+
+        then: 'a replacement is spawned'
+        evaluator != null
+        conditions.eventually { assert pool.size() == 1 }
+
+        cleanup:
+        evaluator?.close()
+        pool?.close()
+    }
+
+    def "The pool never grows beyond its maximum size"() {
+        given: 'more databases than the pool may hold evaluators for'
+        def databases = (1..3).collect { new Database("jdbc:h2:mem:", "db $it", null, null, null, null) }
+
+        def spawned = new AtomicInteger()
+
+        when:
+        def pool = new EvaluatorPool({ spawned.incrementAndGet(); Evaluator.local() }, databases, settings(minIdle: 1, maxSize: 2))
+
+        then: 'the pool stops spawning once it is full'
+        new PollingConditions(timeout: 30).eventually { assert pool.size() == 2 }
+        spawned.get() == 2
+
+        cleanup:
+        pool?.close()
+    }
+
+    @Timeout(30)
+    def "An evaluator is created on demand when the pool is empty"() {
+        given: 'a pool that does not keep any evaluators ready'
+        def pool = new EvaluatorPool({ Evaluator.local() }, [], settings(minIdle: 0))
+
+        when:
+        def evaluator = pool.take(null)
+
+        then:
+        evaluator != null
+        pool.size() == 0
+
+        cleanup:
+        evaluator?.close()
+        pool?.close()
+    }
+
+    def "In reuse mode, released evaluators are scrubbed and returned to the pool"() {
+        given: 'a pool that reuses evaluators but does not spawn any by itself'
+        def pool = new EvaluatorPool({ Evaluator.local() }, [], settings(minIdle: 0, reuse: true))
+        def evaluator = pool.take(null)
+
+        when: 'an evaluator defines a variable and is released'
+        evaluator.evaluate(null, new EvaluationRequest("var leftover = 42;"), null)
+        pool.release(evaluator, null, true)
+
+        then: 'the same evaluator comes back from the pool'
+        new PollingConditions(timeout: 30).eventually { assert pool.size() == 1 }
+        def reused = pool.take(null)
+        reused.is(evaluator)
+
+        and: 'it remembers nothing of the previous request'
+        reused.evaluate(null, new EvaluationRequest("leftover"), null).evaluationStatus == EvaluationResponse.Status.PARSE_ERROR
+
+        cleanup:
+        reused?.close()
+        pool?.close()
+    }
+
+    def "Evaluators that were used too many times are retired"() {
+        given:
+        def pool = new EvaluatorPool({ Evaluator.local() }, [], settings(minIdle: 0, reuse: true, maxUses: 1))
+        def evaluator = pool.take(null)
+        evaluator.evaluate(null, new EvaluationRequest("1"), null)
+
+        when:
+        pool.release(evaluator, null, true)
+
+        then:
+        new PollingConditions(timeout: 30).eventually { assert !evaluator.isOpen() }
+        pool.size() == 0
+
+        cleanup:
+        pool?.close()
+    }
+
+    def "Evaluators whose requests were aborted are never reused"() {
+        given:
+        def pool = new EvaluatorPool({ Evaluator.local() }, [], settings(minIdle: 0, reuse: true))
+        def evaluator = pool.take(null)
+
+        when:
+        pool.release(evaluator, null, false)
+
+        then:
+        !evaluator.isOpen()
+        pool.size() == 0
+
+        cleanup:
+        pool?.close()
+    }
+
+    def "Renewing the pool replaces its evaluators, including the ones that are taken"() {
+        given: 'a pool holding a reused evaluator while another one is taken'
+        def pool = new EvaluatorPool({ Evaluator.local() }, [], settings(minIdle: 0, reuse: true))
+        def taken = pool.take(null)
+        def idle = pool.take(null)
+        pool.release(idle, null, true)
+        def conditions = new PollingConditions(timeout: 30)
+        conditions.eventually { assert pool.size() == 1 }
+
+        when:
+        pool.renew()
+        pool.release(taken, null, true)
+
+        then: 'neither evaluator comes back'
+        !idle.isOpen()
+        conditions.eventually { assert !taken.isOpen() }
+        pool.size() == 0
+
+        cleanup:
+        pool?.close()
+    }
+}
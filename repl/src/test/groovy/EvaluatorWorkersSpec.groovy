@@ -0,0 +1,91 @@
+import co.petrin.EvaluatorWorkers
+import co.petrin.worker.Worker
+import co.petrin.worker.WorkerEndpoint
+import spock.lang.Specification
+
+class EvaluatorWorkersSpec extends Specification {
+
+    static final String SECRET = "evaluator-workers-spec"
+
+    List<Worker> started = []
+
+    WorkerEndpoint startWorker(int maxSessions) {
+        def worker = new Worker(InetAddress.loopbackAddress, 0, maxSessions, SECRET).start()
+        started << worker
+        new WorkerEndpoint(InetAddress.loopbackAddress.hostAddress, worker.port, SECRET)
+    }
+
+    def cleanup() {
+        started*.close()
+    }
+
+    def "Engines are spread over the workers running the fewest"() {
+        given:
+        def first = startWorker(4)
+        def second = startWorker(4)
+        def workers = new EvaluatorWorkers([first, second], 60_000)
+
+        when:
+        def picks = (1..4).collect { workers.pick() }
+
+        then:
+        picks.count(first) == 2
+        picks.count(second) == 2
+
+        cleanup:
+        workers.close()
+    }
+
+    def "Workers at their limit are only picked when all others are too"() {
+        given:
+        def small = startWorker(1)
+        def large = startWorker(4)
+        def workers = new EvaluatorWorkers([small, large], 60_000)
+        workers.checkHealth()
+
+        when:
+        def picks = (1..5).collect { workers.pick() }
+
+        then:
+        picks.count(small) == 1
+        picks.count(large) == 4
+
+        cleanup:
+        workers.close()
+    }
+
+    def "Workers that do not answer are left out until they do"() {
+        given:
+        def healthy = startWorker(4)
+        def gone = new WorkerEndpoint(InetAddress.loopbackAddress.hostAddress, startWorker(4).port, SECRET)
+        started[1].close()
+        def workers = new EvaluatorWorkers([gone, healthy], 60_000)
+
+        when:
+        workers.checkHealth()
+
+        then:
+        workers.getHealthy() == 1
+        (1..3).collect { workers.pick() } == [healthy] * 3
+
+        cleanup:
+        workers.close()
+    }
+
+    def "Workers are read from host:port lists"() {
+        expect:
+        WorkerEndpoint.parse("worker-1.internal:7100", SECRET) == new WorkerEndpoint("worker-1.internal", 7100, SECRET)
+
+        when:
+        WorkerEndpoint.parse("worker-1.internal", SECRET)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when: 'workers are configured without their secret'
+        WorkerEndpoint.parse("worker-1.internal:7100", null)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
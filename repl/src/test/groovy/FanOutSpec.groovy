@@ -0,0 +1,102 @@
+import co.petrin.AugmentationSink
+import co.petrin.Database
+import co.petrin.EvaluationRequest
+import co.petrin.Evaluator
+import co.petrin.EvaluatorPool
+import co.petrin.FanOut
+import co.petrin.Metrics
+import groovy.json.JsonSlurper
+import io.vertx.core.Vertx
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+class FanOutSpec extends Specification {
+
+    @AutoCleanup('close') Vertx vertx = Vertx.vertx()
+
+    List<Database> databases = [database("first"), database("second")]
+
+    /**
+     * Spawned with jOOQ, H2 and the evaluator's own classes from the test classpath; local evaluators cannot run at
+     * the same time, as they share the standard output
+     */
+    @AutoCleanup EvaluatorPool pool = new EvaluatorPool({
+        Evaluator.spawn(System.getProperty("java.class.path").split(File.pathSeparator).findAll { it.contains("jooq") || it.contains("h2") } +
+            new File(Evaluator.protectionDomain.codeSource.location.toURI()).path, false)
+    }, databases, new EvaluatorPool.Settings(maxSize: 10, refillIntervalMs: 0, maxIdleMs: 0))
+
+    @AutoCleanup FanOut fanOut = new FanOut(vertx, pool, new Metrics(), databases, 4)
+
+    static Database database(String name) {
+        new Database("jdbc:h2:mem:$name", name, "sa", "", null, null)
+    }
+
+    /** Collects the lines written into it, from any thread */
+    static class CollectingSink implements AugmentationSink {
+        List<Map> lines = Collections.synchronizedList([])
+
+        void writeLine(String json) {
+            lines << new JsonSlurper().parseText(json)
+        }
+    }
+
+    def "Scripts run against all databases at once, with every response tagged by its database"() {
+        given:
+        def sink = new CollectingSink()
+        def script = 'Thread.sleep(1000);\njooq.fetchValue("select 21 * 2")'
+        new PollingConditions(timeout: 60).eventually {
+            assert pool.size() == databases.size()
+        }
+
+        when:
+        long startedAt = System.currentTimeMillis()
+        fanOut.evaluate(new EvaluationRequest(script), databases, sink, { abort -> })
+        long tookMs = System.currentTimeMillis() - startedAt
+
+        then:
+        def responses = sink.lines.findAll { it.evaluationStatus }
+        responses*.database.toSet() == databases*.id.toSet()
+        responses*.output == ["42", "42"]
+
+        and: 'the timings come last, in the order the databases were given'
+        def timings = sink.lines.last()
+        timings.type == FanOut.TIMINGS_TYPE
+        timings.timings*.database == databases*.id
+        timings.timings*.status == ["SUCCESS", "SUCCESS"]
+        timings.timings.every { it.executeMs >= 1000 && it.totalMs >= it.durationMs }
+
+        and: 'the databases did not wait for each other'
+        tookMs < timings.timings.sum { it.totalMs }
+    }
+
+    def "Every database reports its own outcome"() {
+        given:
+        def sink = new CollectingSink()
+        def script = "if (jooq.configuration().connectionProvider().acquire().getMetaData().getURL().contains(\"second\")) throw new IllegalStateException(\"no\");\n1"
+
+        when:
+        fanOut.evaluate(new EvaluationRequest(script), databases, sink, { abort -> })
+
+        then:
+        sink.lines.last().timings*.status == ["SUCCESS", "EVALUATION_ERROR"]
+    }
+
+    def "Evaluations still running are stopped when the client goes away"() {
+        given:
+        def sink = new CollectingSink()
+        Runnable abort = null
+
+        when:
+        Thread.start {
+            sleep(1000)
+            abort.run()
+        }
+        long startedAt = System.currentTimeMillis()
+        fanOut.evaluate(new EvaluationRequest('while (true) { Thread.sleep(10); }'), databases, sink, { abort = it })
+
+        then: 'no timings are sent to the client that is gone'
+        System.currentTimeMillis() - startedAt < 10_000
+        !sink.lines.any { it.type == FanOut.TIMINGS_TYPE }
+    }
+}
@@ -0,0 +1,88 @@
+import co.petrin.Evaluator
+import co.petrin.GridPages
+import co.petrin.augmentation.GridPage
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+class GridPagesSpec extends Specification {
+
+    /** The evaluators given back to the pool */
+    List<Evaluator> released = [].asSynchronized()
+
+    GridPages pages(long maxIdleMs, int maxSessions) {
+        new GridPages({ evaluator, db -> released << evaluator }, maxIdleMs, maxSessions)
+    }
+
+    def "Kept evaluators can be taken exactly once"() {
+        given:
+        def pages = pages(60_000, 4)
+        def evaluator = Evaluator.local()
+
+        when:
+        def token = pages.keep(null, evaluator, null, new GridPage("r", false, 1000))
+        def session = pages.take(token)
+
+        then:
+        token != null
+        session.evaluator.is(evaluator)
+        session.page.offset == 1000
+        pages.take(token) == null
+        released.isEmpty()
+
+        cleanup:
+        pages.close()
+    }
+
+    def "The oldest evaluator is released when too many are kept"() {
+        given:
+        def pages = pages(60_000, 2)
+        def oldest = Evaluator.local()
+
+        when:
+        def oldestToken = pages.keep(null, oldest, null, new GridPage("r", false, 1000))
+        Thread.sleep(5)
+        pages.keep(null, Evaluator.local(), null, new GridPage("r", false, 1000))
+        Thread.sleep(5)
+        pages.keep(null, Evaluator.local(), null, new GridPage("r", false, 1000))
+
+        then:
+        released == [oldest]
+        pages.size() == 2
+        pages.take(oldestToken) == null
+
+        cleanup:
+        pages.close()
+    }
+
+    def "Evaluators whose pages are not requested in time are released"() {
+        given:
+        def pages = pages(100, 2)
+
+        when:
+        pages.keep(null, Evaluator.local(), null, new GridPage("r", false, 1000))
+
+        then:
+        new PollingConditions(timeout: 10).eventually {
+            assert pages.size() == 0
+        }
+
+        cleanup:
+        pages.close()
+    }
+
+    def "Nothing is kept when paging is disabled"() {
+        given:
+        def pages = pages(60_000, 0)
+        def evaluator = Evaluator.local()
+
+        when:
+        def token = pages.keep(null, evaluator, null, new GridPage("r", false, 1000))
+
+        then:
+        token == null
+        released == [evaluator]
+
+        cleanup:
+        pages.close()
+    }
+}
@@ -0,0 +1,79 @@
+import co.petrin.Database
+import co.petrin.EvaluationRequest
+import co.petrin.Evaluator
+import co.petrin.Metrics
+import co.petrin.PhaseListener
+import spock.lang.Specification
+
+class MetricsSpec extends Specification {
+
+    def "Evaluators report the duration of their phases"() {
+        given:
+        def metrics = new Metrics()
+        def evaluator = Evaluator.local().withPhaseListener(metrics)
+
+        when:
+        evaluator.evaluate(null, new EvaluationRequest("1 + 1"), [])
+
+        then:
+        def scraped = metrics.scrape()
+        scraped.contains('repl_evaluation_phase_seconds_count{phase="init",} 1.0')
+        scraped.contains('repl_evaluation_phase_seconds_count{phase="execute",} 1.0')
+        scraped.contains('repl_evaluation_phase_seconds_bucket{phase="execute",le=')
+
+        cleanup:
+        evaluator?.close()
+    }
+
+    def "Evaluations are counted by status and database"() {
+        given:
+        def metrics = new Metrics()
+        def db = new Database("jdbc:h2:mem:", "db", null, null, null, null)
+        def evaluator = Evaluator.local()
+
+        when:
+        def failed = evaluator.evaluate(null, new EvaluationRequest("throw new RuntimeException();"), [])
+        metrics.evaluated(db, failed)
+        metrics.evaluated(null, evaluator.evaluate(null, new EvaluationRequest("1"), []))
+
+        then:
+        def scraped = metrics.scrape()
+        scraped.contains("repl_evaluations_total{database=\"${db.id}\",status=\"EVALUATION_ERROR\",} 1.0")
+        scraped.contains('repl_evaluations_total{database="none",status="SUCCESS",} 1.0')
+
+        cleanup:
+        evaluator?.close()
+    }
+
+    def "In-flight evaluations are tracked"() {
+        given:
+        def metrics = new Metrics()
+
+        when:
+        def finished = metrics.evaluationStarted()
+
+        then:
+        metrics.scrape().contains("repl_evaluations_in_flight 1.0")
+
+        when:
+        finished.run()
+
+        then:
+        metrics.scrape().contains("repl_evaluations_in_flight 0.0")
+    }
+
+    def "The listener interface can be implemented by anyone"() {
+        given:
+        def phases = []
+        def evaluator = Evaluator.local().withPhaseListener({ phase, nanos -> phases << phase } as PhaseListener)
+
+        when:
+        evaluator.evaluate(null, new EvaluationRequest("1"), [])
+
+        then:
+        phases == [PhaseListener.Phase.INIT, PhaseListener.Phase.EXECUTE]
+
+        cleanup:
+        evaluator?.close()
+    }
+}
@@ -0,0 +1,118 @@
+import co.petrin.Database
+import co.petrin.EvaluationRequest
+import co.petrin.ResultCache
+import co.petrin.augmentation.GridFormat
+import spock.lang.Specification
+
+class ResultCacheSpec extends Specification {
+
+    Database cachedDb = database(60)
+
+    static Database database(int resultCacheSeconds) {
+        new Database("jdbc:h2:mem:", "cached", "sa", "", null, null, 0, 1800, null, Database.DEFAULT_GRID_ROW_LIMIT, 120, 0, resultCacheSeconds)
+    }
+
+    static EvaluationRequest request(String script) {
+        new EvaluationRequest(script)
+    }
+
+    def "Responses are reused for the same script, regardless of trailing whitespace and line endings"() {
+        given:
+        def cache = new ResultCache(1024 * 1024)
+        cache.put(cachedDb, request("var films = jooq.fetch(\"select * from film\");\nfilms"), GridFormat.RECORDS, 200, ['{"output":"1"}'], ["select * from film"])
+
+        expect:
+        cache.get(cachedDb, request("  var films = jooq.fetch(\"select * from film\");   \r\nfilms\n"), GridFormat.RECORDS)?.lines == ['{"output":"1"}']
+
+        and: 'other whitespace may matter'
+        cache.get(cachedDb, request("var films = jooq.fetch(\"select *  from film\");\nfilms"), GridFormat.RECORDS) == null
+
+        and: 'clients decoding grids differently get their own responses'
+        cache.get(cachedDb, request("var films = jooq.fetch(\"select * from film\");\nfilms"), GridFormat.COLUMNS) == null
+
+        and: 'so does every database'
+        cache.get(database(60), request("var films = jooq.fetch(\"select * from film\");\nfilms"), GridFormat.RECORDS) == null
+    }
+
+    def "Databases without a time to live are not cached"() {
+        given:
+        def cache = new ResultCache(1024 * 1024)
+        def uncached = database(0)
+
+        when:
+        cache.put(uncached, request("films"), GridFormat.RECORDS, 200, ['{}'], ["select * from film"])
+
+        then:
+        !cache.isEnabled(uncached)
+        cache.get(uncached, request("films"), GridFormat.RECORDS) == null
+        cache.size() == 0
+    }
+
+    def "Responses expire after the database's time to live"() {
+        given:
+        def cache = new ResultCache(1024 * 1024)
+        def shortLived = database(1)
+        cache.put(shortLived, request("films"), GridFormat.RECORDS, 200, ['{}'], ["select * from film"])
+
+        when:
+        Thread.sleep(1100)
+
+        then:
+        cache.get(shortLived, request("films"), GridFormat.RECORDS) == null
+        cache.size() == 0
+    }
+
+    def "The least recently used responses are evicted once the memory limit is reached"() {
+        given: 'room for five responses'
+        def line = "x" * 1000
+        def cache = new ResultCache(5 * ResultCache.size(line) + 10)
+
+        when:
+        (1..5).each { cache.put(cachedDb, request("script $it"), GridFormat.RECORDS, 200, [line], ["select $it".toString()]) }
+        cache.get(cachedDb, request("script 1"), GridFormat.RECORDS)
+        cache.put(cachedDb, request("script 6"), GridFormat.RECORDS, 200, [line], ["select 6"])
+
+        then:
+        cache.size() == 5
+        cache.get(cachedDb, request("script 2"), GridFormat.RECORDS) == null
+        cache.get(cachedDb, request("script 1"), GridFormat.RECORDS) != null
+        cache.bytes == 5 * ResultCache.size(line)
+    }
+
+    def "Responses too large for the cache are not kept"() {
+        given:
+        def cache = new ResultCache(1000)
+
+        when:
+        cache.put(cachedDb, request("large"), GridFormat.RECORDS, 200, ["x" * 200], ["select 1"])
+
+        then:
+        cache.size() == 0
+    }
+
+    def "Responses can be forgotten by the tables their queries read"() {
+        given:
+        def cache = new ResultCache(1024 * 1024)
+        def other = database(60)
+        cache.put(cachedDb, request("films"), GridFormat.RECORDS, 200, ['{}'], ['select "public"."film"."title" from "public"."film"'])
+        cache.put(cachedDb, request("categories"), GridFormat.RECORDS, 200, ['{}'], ["select * from film_category"])
+        cache.put(cachedDb, request("actors"), GridFormat.RECORDS, 200, ['{}'], ["select * from ACTOR join film_actor using (actor_id)"])
+        cache.put(other, request("films"), GridFormat.RECORDS, 200, ['{}'], ["select * from film"])
+
+        when:
+        def invalidated = cache.invalidate(cachedDb, "FILM")
+
+        then: 'only whole names of the database\'s tables match'
+        invalidated == 1
+        cache.get(cachedDb, request("films"), GridFormat.RECORDS) == null
+        cache.get(cachedDb, request("categories"), GridFormat.RECORDS) != null
+        cache.get(other, request("films"), GridFormat.RECORDS) != null
+
+        when:
+        invalidated = cache.invalidate(cachedDb, null)
+
+        then:
+        invalidated == 2
+        cache.size() == 1
+    }
+}
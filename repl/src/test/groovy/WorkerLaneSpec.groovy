@@ -0,0 +1,69 @@
+import co.petrin.WorkerLane
+import io.vertx.core.Vertx
+import io.vertx.core.http.HttpServer
+import io.vertx.ext.web.Router
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class WorkerLaneSpec extends Specification {
+
+    @AutoCleanup('close') Vertx vertx = Vertx.vertx()
+    HttpClient client = HttpClient.newHttpClient()
+
+    /** Serves GET / through the lane, with each request blocking until the latch is released */
+    HttpServer serve(WorkerLane lane, CountDownLatch latch) {
+        def router = Router.router(vertx)
+        router.get("/").handler(lane.handler { ctx ->
+            latch.await(30, TimeUnit.SECONDS)
+            ctx.response().end("done")
+        })
+        def started = new CompletableFuture<HttpServer>()
+        vertx.createHttpServer().requestHandler(router).listen(0) { started.complete(it.result()) }
+        return started.get(10, TimeUnit.SECONDS)
+    }
+
+    CompletableFuture<HttpResponse<String>> get(HttpServer server) {
+        client.sendAsync(HttpRequest.newBuilder(URI.create("http://127.0.0.1:${server.actualPort()}/")).build(),
+            HttpResponse.BodyHandlers.ofString())
+    }
+
+    def "Requests beyond the lane's concurrency and queue are rejected right away"() {
+        given: 'a lane running one request with room for one more to wait'
+        def settings = new WorkerLane.Settings(1, 1)
+        settings.retryAfterSeconds = 7
+        def lane = new WorkerLane(vertx, "test", settings)
+        def latch = new CountDownLatch(1)
+        def server = serve(lane, latch)
+
+        when: 'the lane is filled up'
+        def running = get(server)
+        def waiting = get(server)
+        new PollingConditions(timeout: 10).eventually { assert lane.admitted == 2 }
+
+        and: 'another request arrives'
+        def rejected = get(server).get(10, TimeUnit.SECONDS)
+
+        then: 'it is turned away without waiting'
+        rejected.statusCode() == 503
+        rejected.headers().firstValue("Retry-After").get() == "7"
+
+        when: 'the running requests are allowed to finish'
+        latch.countDown()
+
+        then: 'the admitted requests complete normally'
+        running.get(10, TimeUnit.SECONDS).body() == "done"
+        waiting.get(10, TimeUnit.SECONDS).body() == "done"
+        new PollingConditions(timeout: 10).eventually { assert lane.admitted == 0 }
+
+        cleanup:
+        lane?.close()
+    }
+}